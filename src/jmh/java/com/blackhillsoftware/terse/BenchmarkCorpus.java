@@ -0,0 +1,156 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Generates representative host data for the decode benchmarks and wraps it
+ * in a terse file.
+ * Each corpus holds CORPUS_MB megabytes of host record data, so a benchmark
+ * which decodes one corpus per invocation can use CORPUS_MB operations per
+ * invocation and JMH will report MB/s and (with -prof gc) bytes allocated per MB.
+ * The data is generated from a fixed seed so every run decodes the same bytes.
+ */
+class BenchmarkCorpus {
+
+    static final int CORPUS_MB = 8;
+    static final int CORPUS_BYTES = CORPUS_MB * 1024 * 1024;
+
+    static final int TEXT_LRECL = 80;
+    static final int BINARY_LRECL = 1024;
+    static final int MAX_VB_LRECL = 32756;
+
+    enum Content { TEXT, BINARY }
+    enum Recfm { FB, VB }
+
+    private static final String[] WORDS = {
+        "//", "JOB", "EXEC", "PGM=IEFBR14", "DD", "DSN=SYS1.PARMLIB", "DISP=SHR", "SYSOUT=*",
+        "IEF142I", "STEP", "WAS", "EXECUTED", "-", "COND", "CODE", "0000", "IEF373I",
+        "START", "END", "CPU", "0MIN", "00.01SEC", "SRB", "VIRT", "188K", "SYS", "308K",
+        "DATA", "SET", "ALLOCATED", "TO", "SYSPRINT", "SYSIN", "RECFM=FB", "LRECL=80",
+        "BLKSIZE=27920", "SPACE=(CYL,(10,5))", "UNIT=SYSDA", "VOL=SER=WRK001", "*", "0", "1"
+    };
+
+    private static final byte[] SYSTEM_IDS = "SYS1SYS2PRODTEST".getBytes(StandardCharsets.US_ASCII);
+
+    /*
+     * Build the host records for a corpus. FB records are all exactly the
+     * record length, VB records vary in length.
+     */
+    static List<byte[]> records(Content content, Recfm recfm) {
+        Random random = new Random(0x7E45E);
+        List<byte[]> records = new ArrayList<>();
+        int total = 0;
+        int sequence = 0;
+        while (total < CORPUS_BYTES) {
+            byte[] record = content == Content.TEXT
+                    ? textRecord(random, recfm, ++sequence)
+                    : binaryRecord(random, recfm, ++sequence);
+            if (total + record.length > CORPUS_BYTES) {
+                break;
+            }
+            records.add(record);
+            total += record.length;
+        }
+        return records;
+    }
+
+    static int recordLength(Content content, Recfm recfm) {
+        if (recfm == Recfm.VB) {
+            return MAX_VB_LRECL;
+        }
+        return content == Content.TEXT ? TEXT_LRECL : BINARY_LRECL;
+    }
+
+    /*
+     * Something that looks like a job listing: blank padded words in EBCDIC,
+     * FB records carry a sequence number in columns 73-80.
+     */
+    private static byte[] textRecord(Random random, Recfm recfm, int sequence) {
+        StringBuilder line = new StringBuilder();
+        int target = recfm == Recfm.FB ? 72 : 20 + random.nextInt(100);
+        while (true) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (line.length() + word.length() + 1 > target) {
+                break;
+            }
+            line.append(word).append(' ');
+        }
+        if (recfm == Recfm.FB) {
+            while (line.length() < 72) {
+                line.append(' ');
+            }
+            line.append(String.format("%08d", sequence * 10));
+        }
+        byte[] record = new byte[line.length()];
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte) Constants.AscToEbc[line.charAt(i) & 0xFF];
+        }
+        return record;
+    }
+
+    /*
+     * Something that looks like an SMF record: a header with a type, time,
+     * date and system id, followed by counters and runs of zero bytes.
+     */
+    private static byte[] binaryRecord(Random random, Recfm recfm, int sequence) {
+        int length = recfm == Recfm.FB ? BINARY_LRECL : 100 + random.nextInt(1900);
+        byte[] record = new byte[length];
+        record[0] = (byte) 0x5E;
+        record[1] = (byte) (new int[] { 30, 70, 72, 74, 110 })[random.nextInt(5)];
+        putInt(record, 2, sequence * 100);
+        putInt(record, 6, 0x0124001F);
+        int system = random.nextInt(4) * 4;
+        for (int i = 0; i < 4; i++) {
+            record[10 + i] = (byte) Constants.AscToEbc[SYSTEM_IDS[system + i]];
+        }
+        int position = 16;
+        while (position + 8 <= length) {
+            if (random.nextInt(4) == 0) {
+                position += 8 + random.nextInt(32); // leave a run of zeros
+            } else {
+                putInt(record, position, random.nextInt(1000));
+                putInt(record, position + 4, random.nextInt());
+                position += 8;
+            }
+        }
+        return record;
+    }
+
+    private static void putInt(byte[] record, int offset, int value) {
+        record[offset] = (byte) (value >>> 24);
+        record[offset + 1] = (byte) (value >>> 16);
+        record[offset + 2] = (byte) (value >>> 8);
+        record[offset + 3] = (byte) value;
+    }
+
+    /*
+     * Write a host mode terse file containing the records.
+     * The records are already EBCDIC, so text records are compressed in binary
+     * mode too. The host data is the same either way.
+     */
+    static byte[] terse(boolean spack, Content content, Recfm recfm, List<byte[]> records) throws IOException {
+        ByteArrayOutputStream host = new ByteArrayOutputStream(CORPUS_BYTES + records.size() * 4);
+        for (byte[] record : records) {
+            if (recfm == Recfm.VB) {
+                host.write((record.length + 4) >>> 8);
+                host.write(record.length + 4);
+                host.write(0);
+                host.write(0);
+            }
+            host.write(record);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(CORPUS_BYTES);
+        try (TerseCompresser compresser = TerseCompresser.create(new ByteArrayInputStream(host.toByteArray()), out,
+                spack, recfm == Recfm.VB, recordLength(content, recfm))) {
+            compresser.encode();
+        }
+        return out.toByteArray();
+    }
+}
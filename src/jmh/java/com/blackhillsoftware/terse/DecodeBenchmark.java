@@ -0,0 +1,200 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Decode throughput for the PACK (NonSpackDecompresser) and SPACK (SpackDecompresser)
+ * decoders, for text and binary data in FB and VB record formats.
+ *
+ * One operation is one MB of host data, so the score is MB/s. Run with the gc
+ * profiler to see allocation: gc.alloc.rate.norm is then bytes allocated per MB.
+ *
+ *   mvn -P jmh package
+ *   java -jar target/benchmarks.jar DecodeBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BenchmarkCorpus.CORPUS_MB)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"PACK", "SPACK"})
+    public String algorithm;
+
+    @Param({"FB", "VB"})
+    public String recfm;
+
+    @Param({"TEXT", "BINARY"})
+    public String content;
+
+    /*
+     * SpackDecompresser phrase cache size in bytes, 0 is no cache.
+     * Ignored for PACK.
+     */
+    @Param({"0"})
+    public int phraseCache;
+
+    /*
+     * Decode on 4 threads, see PipelinedDecode
+     */
+    @Param({"false"})
+    public boolean pipelined;
+
+    /*
+     * Collect DecodeMetrics, to see what they cost
+     */
+    @Param({"false"})
+    public boolean metrics;
+
+    private byte[] tersed;
+    private Path file;
+    private boolean textMode;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkCorpus.Content corpusContent = BenchmarkCorpus.Content.valueOf(content);
+        BenchmarkCorpus.Recfm corpusRecfm = BenchmarkCorpus.Recfm.valueOf(recfm);
+        List<byte[]> records = BenchmarkCorpus.records(corpusContent, corpusRecfm);
+        tersed = BenchmarkCorpus.terse(algorithm.equals("SPACK"), corpusContent, corpusRecfm, records);
+        textMode = corpusContent == BenchmarkCorpus.Content.TEXT;
+        file = Files.createTempFile("decodebenchmark", ".trs");
+        Files.write(file, tersed);
+
+        long hostBytes = 0;
+        for (byte[] record : records) {
+            hostBytes += record.length;
+        }
+        long decoded = decode();
+        if (decoded < hostBytes) {
+            throw new IllegalStateException("Decoded " + decoded + " bytes from " + hostBytes + " bytes of host data");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public long decode() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        try (TerseDecompresser decompresser
+                = TerseDecompresser.create(new ByteArrayInputStream(tersed), out)) {
+            decompresser.TextFlag = textMode;
+            decompresser.Pipelined = pipelined;
+            if (metrics) {
+                decompresser.setListener(m -> { });
+            }
+            if (decompresser instanceof SpackDecompresser) {
+                ((SpackDecompresser) decompresser).PhraseCacheSize = phraseCache;
+            }
+            decompresser.decode();
+        }
+        return out.count;
+    }
+
+    /*
+     * Read the compressed data from a file as a stream, the way the command line did
+     */
+    @Benchmark
+    public long decodeFileStream() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        try (TerseDecompresser decompresser
+                = TerseDecompresser.create(new FileInputStream(file.toFile()), out)) {
+            decompresser.TextFlag = textMode;
+            decompresser.decode();
+        }
+        return out.count;
+    }
+
+    /*
+     * Read the compressed data from a memory mapped file
+     */
+    @Benchmark
+    public long decodeFileMapped() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(file, out)) {
+            decompresser.TextFlag = textMode;
+            decompresser.decode();
+        }
+        return out.count;
+    }
+
+    /*
+     * Pull the data through a TerseInputStream
+     */
+    @Benchmark
+    public long decodeInputStream() throws Exception {
+        long count = 0;
+        byte[] buffer = new byte[0x10000];
+        try (TerseInputStream in = new TerseInputStream(new ByteArrayInputStream(tersed), textMode)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                count += n;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Receive the records through a RecordHandler
+     */
+    @Benchmark
+    public long decodeRecords() throws Exception {
+        final long[] count = new long[1];
+        try (TerseDecompresser decompresser
+                = TerseDecompresser.create(new ByteArrayInputStream(tersed), null)) {
+            decompresser.TextFlag = textMode;
+            decompresser.decodeRecords(new RecordHandler() {
+                @Override
+                public void record(long number, ByteBuffer record) {
+                    count[0] += record.remaining();
+                }
+            });
+        }
+        return count[0];
+    }
+
+    /*
+     * Discard the output, keeping a count so the work can't be optimized away.
+     */
+    static class CountingOutputStream extends OutputStream {
+        long count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+}
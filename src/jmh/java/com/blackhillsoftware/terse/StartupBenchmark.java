@@ -0,0 +1,144 @@
+package com.blackhillsoftware.terse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Time whole runs of the command line, start to exit, for the plain jar,
+ * the jar with the AppCDS archive and the native executable, on a small
+ * and a large file. This is what a script running TerseDecompress once
+ * per file sees, which JMH can't measure.
+ *
+ *   mvn package -P cds,native
+ *   mvn -P jmh package
+ *   java -cp target/benchmarks.jar com.blackhillsoftware.terse.StartupBenchmark [-runs <n>]
+ *
+ * A variant which hasn't been built is skipped. The first run of each is
+ * a warm up for the file system cache and not counted.
+ */
+public class StartupBenchmark {
+
+    private static final int SMALL_RECORDS = 100;
+
+    private final Path target;
+    private final Path work;
+    private int runs = 10;
+
+    StartupBenchmark(Path target) throws IOException {
+        this.target = target;
+        this.work = Files.createTempDirectory("startupbenchmark");
+    }
+
+    public static void main(String[] args) throws Exception {
+        StartupBenchmark benchmark = new StartupBenchmark(Paths.get("target"));
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-runs") && i + 1 < args.length) {
+                benchmark.runs = Integer.parseInt(args[++i]);
+            } else {
+                System.out.println("Usage: StartupBenchmark [-runs <n>]");
+                return;
+            }
+        }
+        try {
+            benchmark.run();
+        } finally {
+            benchmark.cleanUp();
+        }
+    }
+
+    private void run() throws Exception {
+        Path jar = findJar();
+        if (jar == null) {
+            throw new IllegalStateException("No tersedecompress jar in " + target + ", run mvn package first");
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<String> names = new ArrayList<>();
+        List<List<String>> commands = new ArrayList<>();
+        names.add("jvm");
+        commands.add(Arrays.asList(java, "-jar", jar.toString()));
+        Path archive = target.resolve("tersedecompress.jsa");
+        if (Files.exists(archive)) {
+            names.add("cds");
+            commands.add(Arrays.asList(java, "-XX:SharedArchiveFile=" + archive, "-jar", jar.toString()));
+        } else {
+            System.out.println("No " + archive + ", skipping cds (mvn -P cds package)");
+        }
+        Path executable = target.resolve(File.separatorChar == '\\' ? "tersedecompress.exe" : "tersedecompress");
+        if (Files.isRegularFile(executable)) {
+            names.add("native");
+            commands.add(Collections.singletonList(executable.toString()));
+        } else {
+            System.out.println("No " + executable + ", skipping native (mvn -P native package)");
+        }
+
+        List<byte[]> records = BenchmarkCorpus.records(BenchmarkCorpus.Content.TEXT, BenchmarkCorpus.Recfm.FB);
+        Path small = work.resolve("small.trs");
+        Files.write(small, BenchmarkCorpus.terse(true, BenchmarkCorpus.Content.TEXT, BenchmarkCorpus.Recfm.FB,
+                records.subList(0, SMALL_RECORDS)));
+        Path large = work.resolve("large.trs");
+        Files.write(large, BenchmarkCorpus.terse(true, BenchmarkCorpus.Content.TEXT, BenchmarkCorpus.Recfm.FB, records));
+
+        System.out.println(String.format("%-8s %-24s %10s %10s %10s", "variant", "input", "min ms", "median ms", "max ms"));
+        for (Path input : Arrays.asList(small, large)) {
+            String description = String.format("%s (%d KB)", input.getFileName(), Files.size(input) / 1024);
+            for (int i = 0; i < names.size(); i++) {
+                double[] times = time(commands.get(i), input);
+                System.out.println(String.format("%-8s %-24s %10.1f %10.1f %10.1f",
+                        names.get(i), description, times[0], times[times.length / 2], times[times.length - 1]));
+            }
+        }
+    }
+
+    /*
+     * Milliseconds for each run of the command decompressing input, sorted
+     */
+    private double[] time(List<String> command, Path input) throws Exception {
+        List<String> arguments = new ArrayList<>(command);
+        arguments.add(input.toString());
+        arguments.add(work.resolve("output.txt").toString());
+        ProcessBuilder builder = new ProcessBuilder(arguments)
+                .redirectErrorStream(true)
+                .redirectOutput(work.resolve("log.txt").toFile());
+        double[] times = new double[Math.max(runs, 1)];
+        for (int i = -1; i < times.length; i++) {
+            long start = System.nanoTime();
+            int exit = builder.start().waitFor();
+            long elapsed = System.nanoTime() - start;
+            if (exit != 0) {
+                throw new IllegalStateException(command.get(0) + " failed, see " + work.resolve("log.txt"));
+            }
+            if (i >= 0) {
+                times[i] = elapsed / 1e6;
+            }
+        }
+        Arrays.sort(times);
+        return times;
+    }
+
+    private Path findJar() throws IOException {
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(target, "tersedecompress-*.jar")) {
+            for (Path jar : jars) {
+                return jar;
+            }
+        }
+        return null;
+    }
+
+    private void cleanUp() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(work)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(work);
+    }
+}
@@ -0,0 +1,208 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/*
+ * Decompress many files in one JVM, several at a time.
+ *
+ * The inputs are all the files in a directory, the files matching a glob
+ * e.g. "dumps/*.trs", or the files named in a list file given as @listfile.
+ * Output names come from a pattern where {name} is the input file name
+ * without its extension and {file} is the whole input file name.
+ * A file which fails is reported and the rest of the batch carries on.
+ */
+class BatchDecompress
+{
+	String OutputPattern = "{name}.txt";
+	int Threads = Runtime.getRuntime().availableProcessors();
+	boolean VirtualThreads = false;
+	boolean TextFlag = true;
+	CodePage TextCodePage = CodePage.DEFAULT;
+	DecompressCache Cache = null;
+	PrintStream Log = System.out;
+	DecodeListener Listener = null; /* e.g. DecodeStatistics, gets the metrics for each file decoded */
+	boolean Gzip = false;           /* write gzip files, see ParallelGzipOutputStream */
+	int GzipLevel = Deflater.DEFAULT_COMPRESSION;
+	int MemoryLimit = 0;            /* for each decompresser, see TerseDecompresser.MemoryLimit */
+	RecordFilter Filter = null;     /* see TerseDecompresser.setFilter, shared by all the threads */
+	int[] Columns = null;
+
+	/* decompressers are reused from file to file, one per thread is enough */
+	private DecompresserPool Pool;
+
+	AtomicLong Succeeded = new AtomicLong();
+	AtomicLong Failed = new AtomicLong();
+	AtomicLong BytesIn = new AtomicLong();
+	AtomicLong BytesOut = new AtomicLong();
+
+    /*
+     * Find the input files described by spec: @listfile, a directory or a glob.
+     */
+    static List<Path> ListInputs(String spec) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        if (spec.startsWith("@")) {
+        	for (String line : Files.readAllLines(Paths.get(spec.substring(1)), StandardCharsets.UTF_8)) {
+        		if (!line.trim().isEmpty()) {
+        			inputs.add(Paths.get(line.trim()));
+        		}
+        	}
+        	return inputs;
+        }
+
+        Path directory = Paths.get(spec);
+        String glob = "*";
+        if (!Files.isDirectory(directory)) {
+        	directory = directory.toAbsolutePath().getParent();
+        	glob = Paths.get(spec).getFileName().toString();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+        	for (Path file : files) {
+        		if (Files.isRegularFile(file)) {
+        			inputs.add(file);
+        		}
+        	}
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    Path OutputPath(Path outputDirectory, Path input) {
+        String file = input.getFileName().toString();
+        int dot = file.lastIndexOf('.');
+        String name = dot > 0 ? file.substring(0, dot) : file;
+        return outputDirectory.resolve(OutputPattern.replace("{file}", file).replace("{name}", name));
+    }
+
+    /*
+     * Decompress all the inputs into outputDirectory. Returns the number of failures.
+     */
+    long run(List<Path> inputs, Path outputDirectory) throws Exception {
+        Files.createDirectories(outputDirectory);
+        long start = System.nanoTime();
+
+        ExecutorService executor = null;
+        if (VirtualThreads) {
+        	executor = NewVirtualThreadExecutor();
+        	if (executor == null) {
+        		Log.println("Virtual threads need Java 21 or later, using a thread pool");
+        	}
+        }
+        if (executor == null) {
+        	executor = Executors.newFixedThreadPool(Math.max(Threads, 1));
+        }
+        /* virtual threads are unlimited, so limit how many decode at once */
+        final Semaphore running = new Semaphore(Math.max(Threads, 1));
+        Pool = new DecompresserPool(Math.max(Threads, 1));
+
+        Map<Path, Path> outputs = new HashMap<>();
+        List<Future<?>> results = new ArrayList<>();
+        try {
+        	for (final Path input : inputs) {
+        		final Path output = OutputPath(outputDirectory, input);
+        		Path previous = outputs.put(output, input);
+        		if (previous != null) {
+        			Failure(input, "output " + output + " is also the output for " + previous);
+        			continue;
+        		}
+        		results.add(executor.submit(new Runnable() {
+        			@Override
+        			public void run() {
+        				running.acquireUninterruptibly();
+        				try {
+        					DecompressOne(input, output);
+        				} finally {
+        					running.release();
+        				}
+        			}
+        		}));
+        	}
+        	for (Future<?> result : results) {
+        		result.get();
+        	}
+        } finally {
+        	executor.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Log.println(String.format("%d files decompressed, %d failed, %d bytes in, %d bytes out, %.1f seconds, %.1f MB/s output",
+        		Succeeded.get(), Failed.get(), BytesIn.get(), BytesOut.get(), seconds,
+        		seconds > 0 ? BytesOut.get() / seconds / (1024 * 1024) : 0.0));
+        return Failed.get();
+    }
+
+    private void DecompressOne(Path input, Path output) {
+        try {
+        	long inSize = Files.size(input);
+        	if (Cache != null) {
+        		Cache.decompress(input, output, TextFlag, TextCodePage, MemoryLimit, Listener);
+        	} else {
+        		try (InputStream in = Files.newInputStream(input);
+        			 OutputStream out = Gzip
+        					 ? new ParallelGzipOutputStream(Files.newOutputStream(output), GzipLevel, ForkJoinPool.commonPool())
+        					 : Files.newOutputStream(output)) {
+        			TerseDecompresser decompresser = Pool.acquire(in, out);
+        			try {
+        				decompresser.TextFlag = TextFlag;
+        				decompresser.setCodePage(TextCodePage);
+        				decompresser.setListener(Listener);
+        				decompresser.MemoryLimit = MemoryLimit;
+        				decompresser.setFilter(Filter, Columns);
+        				decompresser.decode();
+        				decompresser.finish();
+        			} finally {
+        				Pool.release(decompresser);
+        			}
+        		}
+        	}
+        	BytesIn.addAndGet(inSize);
+        	BytesOut.addAndGet(Files.size(output));
+        	Succeeded.incrementAndGet();
+        } catch (Exception e) {
+        	try {
+        		Files.deleteIfExists(output);
+        	} catch (IOException ignored) {
+        		/* report the original failure */
+        	}
+        	Failure(input, e.toString());
+        }
+    }
+
+    private void Failure(Path input, String reason) {
+        Failed.incrementAndGet();
+        synchronized (Log) {
+        	Log.println("FAILED " + input + ": " + reason);
+        }
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor() if this JVM has it.
+     * Called by reflection so we still build and run on Java 8.
+     */
+    static ExecutorService NewVirtualThreadExecutor() {
+        try {
+        	return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+        	return null;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+
+/*
+ * Takes the characters from the dictionary decode in place of
+ * TerseDecompresser.FrameChar, e.g. to hand them to other threads.
+ */
+interface CharSink
+{
+    void PutChar(int X) throws IOException;
+}
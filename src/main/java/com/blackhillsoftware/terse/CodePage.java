@@ -0,0 +1,106 @@
+package com.blackhillsoftware.terse;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Translation of EBCDIC text to a target encoding, e.g. CP1047 to UTF-8.
+ *
+ * The translation for each of the 256 EBCDIC bytes is worked out once, when
+ * the CodePage is created, using the Java charsets. Decoding then translates
+ * a byte with a table lookup. If every byte translates to a single byte the
+ * table is Single, otherwise Sequences holds the bytes for each one.
+ * Bytes which can't be represented in the target encoding are translated to
+ * its replacement, usually '?'.
+ */
+class CodePage
+{
+	/* The table the decompresser has always used */
+	static final CodePage DEFAULT = new CodePage("default", Constants.EbcToAsc, System.lineSeparator().getBytes());
+
+	private static final ConcurrentHashMap<String, CodePage> codePages = new ConcurrentHashMap<>();
+
+	final String Name;
+	final int[] Single;
+	final byte[][] Sequences;
+	final byte[] LineSeparator;
+
+	private CodePage(String name, int[] single, byte[] lineSeparator)
+	{
+		this.Name = name;
+		this.Single = single;
+		this.Sequences = null;
+		this.LineSeparator = lineSeparator;
+	}
+
+	private CodePage(String name, Charset ebcdic, Charset target)
+	{
+		byte[][] sequences = new byte[256][];
+		boolean single = true;
+		for (int b = 0; b < 256; b++)
+		{
+			sequences[b] = new String(new byte[] { (byte) b }, ebcdic).getBytes(target);
+			single &= sequences[b].length == 1;
+		}
+		byte[] newline = "\n".getBytes(target);
+		if (newline.length != 1 || newline[0] != '\n')
+		{
+			throw new IllegalArgumentException("Target encoding " + target.name() + " is not ASCII compatible");
+		}
+
+		this.Name = name;
+		this.LineSeparator = System.lineSeparator().getBytes(target);
+		if (single)
+		{
+			this.Single = new int[256];
+			for (int b = 0; b < 256; b++)
+			{
+				this.Single[b] = sequences[b][0] & 0xFF;
+			}
+			this.Sequences = null;
+		}
+		else
+		{
+			this.Single = null;
+			this.Sequences = sequences;
+		}
+	}
+
+    /*
+     * Get the CodePage translating the EBCDIC code page to the target encoding.
+     * The code page can be a number e.g. 1047, CPnnn or a Java charset name.
+     */
+    static CodePage forName(String codePage, String target) {
+        String key = codePage + "/" + target;
+        CodePage result = codePages.get(key);
+        if (result == null) {
+        	Charset targetCharset = target == null ? StandardCharsets.UTF_8 : Charset.forName(target);
+        	result = new CodePage(codePage.toUpperCase(Locale.ROOT) + "/" + targetCharset.name(),
+        			EbcdicCharset(codePage), targetCharset);
+        	CodePage previous = codePages.putIfAbsent(key, result);
+        	if (previous != null) {
+        		result = previous;
+        	}
+        }
+        return result;
+    }
+
+    private static Charset EbcdicCharset(String codePage) {
+        String number = codePage.toUpperCase(Locale.ROOT);
+        if (number.startsWith("CP")) {
+        	number = number.substring(2);
+        }
+        if (number.matches("[0-9]+")) {
+        	number = String.valueOf(Integer.parseInt(number));
+        	/* Java names them IBM037, IBM500, IBM1047, IBM01140... */
+        	for (String name : new String[] { "IBM" + number, "IBM0" + number, "IBM00" + number }) {
+        		if (Charset.isSupported(name)) {
+        			return Charset.forName(name);
+        		}
+        	}
+        }
+        return Charset.forName(codePage);
+    }
+}
@@ -6,7 +6,8 @@ class Constants {
     /*
      * Default mapping tables for ascii to ebcdic conversions. The values actually used in the code are
      * EbcToAsc and vice versa, so assign them below. If we use alternative conversion tables then this
-     * needs to be done dynamically. (Not implemented)
+     * needs to be done dynamically. (Other EBCDIC code pages are handled by CodePage,
+     * these tables are the default)
      * It looks like the default tables are the ones used to generate the alternative tables for different
      * locales. The alm tables are the ones we use when nothing else is specified.
      */
@@ -119,6 +120,10 @@ class Constants {
     static final int  HASHSIZE = 0x0FFF;      /* 4k - 1 */
     static final int  TREESIZE = 0x1000;      /* 4k     */
     static final int  RECORDMARK = 257;       /*used in the file output functions*/
+    static final int  READBUFFERSIZE = 0xC000; /* 48k, input is read and unpacked in chunks this size */
+    static final int  CODEBATCH = 0x2000;     /* 8k codes passed from TerseBlockReader to the decoders */
+    static final int  OUTPUTBUFFERSIZE = 0x10000; /* 64k, records are built in an output buffer this size */
+    static final int  MAPWINDOWSIZE = 0x40000000; /* 1G, memory mapped input is mapped in windows this size */
 
     /*
     Some Used in the unspack algorithm. I guess tuning affects the
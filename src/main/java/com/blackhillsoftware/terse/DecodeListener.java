@@ -0,0 +1,13 @@
+package com.blackhillsoftware.terse;
+
+/*
+ * Receives the metrics for a decode, see TerseDecompresser.setListener.
+ */
+interface DecodeListener
+{
+    /*
+     * Called once when the decompresser finishes, after the last output has
+     * been written. metrics belongs to the listener from then on.
+     */
+    void decodeFinished(DecodeMetrics metrics);
+}
@@ -0,0 +1,85 @@
+package com.blackhillsoftware.terse;
+
+/*
+ * What one decode did, collected while a DecodeListener is set.
+ *
+ * A phrase is what one code expands to, in host characters including
+ * record marks. PhraseLengths is a histogram: bucket n counts phrases of
+ * 2^n to 2^(n+1)-1 characters.
+ *
+ * ReadNanos is the time spent reading the input stream, WriteNanos the time
+ * spent in the output stream's write, and DecodeNanos() is the rest. In a
+ * pipelined decode the write time is the time handing output to the writer
+ * thread, and the stages overlap. A memory mapped file is read as the decoder
+ * touches its pages, so there is no read time to measure: it is counted in
+ * MappedDecodes and its reading is part of the decode time.
+ * The clock starts when decoding starts, not when the listener is set.
+ */
+class DecodeMetrics
+{
+	static final int PHRASEBUCKETS = 64; /* SPACK phrases can be 2^40 characters or more */
+
+	long BytesIn;   /* compressed bytes, including the header */
+	long BytesOut;  /* written to the output stream, or passed to a RecordHandler */
+	long Codes;
+	long Records;   /* decoded, including any a filter drops */
+	long Evictions; /* SPACK dictionary nodes recycled by LruKill */
+	long MappedDecodes; /* decodes without a read time */
+	long PhraseCharacters;
+	long LongestPhrase;
+	long[] PhraseLengths = new long[PHRASEBUCKETS];
+
+	long StartNanos; /* 0 until the first DecodeSome */
+	long TotalNanos;
+	long ReadNanos;
+	long WriteNanos;
+
+    /* Count one phrase, called for each code */
+    void Phrase(long length) {
+        Codes++;
+        PhraseCharacters += length;
+        if (length > LongestPhrase) {
+        	LongestPhrase = length;
+        }
+        PhraseLengths[63 - Long.numberOfLeadingZeros(length | 1)]++;
+    }
+
+    long DecodeNanos() {
+        return Math.max(TotalNanos - ReadNanos - WriteNanos, 0);
+    }
+
+    private String ReadTime() {
+        if (MappedDecodes == 0) {
+        	return String.format("%.1f ms", ReadNanos / 1e6);
+        }
+        if (ReadNanos == 0) {
+        	return "n/a (mapped input)";
+        }
+        return String.format("%.1f ms, n/a for %d mapped inputs", ReadNanos / 1e6, MappedDecodes);
+    }
+
+    double AveragePhraseLength() {
+        return Codes > 0 ? (double) PhraseCharacters / Codes : 0.0;
+    }
+
+    /* Output MB per second */
+    double Throughput() {
+        return TotalNanos > 0 ? BytesOut / (TotalNanos / 1e9) / (1024 * 1024) : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder histogram = new StringBuilder();
+        for (int i = 0; i < PHRASEBUCKETS; i++) {
+        	if (PhraseLengths[i] > 0) {
+        		histogram.append(histogram.length() > 0 ? ", " : "").append(1L << i).append("+:").append(PhraseLengths[i]);
+        	}
+        }
+        return String.format("%d bytes in, %d bytes out, %d codes, %d records, %d evictions, "
+        		+ "phrase length average %.1f longest %d [%s], "
+        		+ "read %s, decode %.1f ms, write %.1f ms, %.1f MB/s",
+        		BytesIn, BytesOut, Codes, Records, Evictions,
+        		AveragePhraseLength(), LongestPhrase, histogram,
+        		ReadTime(), DecodeNanos() / 1e6, WriteNanos / 1e6, Throughput());
+    }
+}
@@ -0,0 +1,182 @@
+package com.blackhillsoftware.terse;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*
+ * Totals of the DecodeMetrics from many decodes, e.g. a batch. One instance
+ * can listen to several decompressers on different threads at once.
+ * register() makes the totals visible to JMX clients such as jconsole.
+ *
+ * The throughput is total output over the total time of the decodes, so with
+ * several threads it is the average per thread, not the combined rate.
+ */
+class DecodeStatistics implements DecodeListener, DecodeStatisticsMBean
+{
+	static final String OBJECTNAME = "com.blackhillsoftware.terse:type=DecodeStatistics";
+
+	private final AtomicLong decodes = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong codes = new AtomicLong();
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong mappedDecodes = new AtomicLong();
+	private final AtomicLong phraseCharacters = new AtomicLong();
+	private final AtomicLong longestPhrase = new AtomicLong();
+	private final AtomicLongArray phraseLengths = new AtomicLongArray(DecodeMetrics.PHRASEBUCKETS);
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong readNanos = new AtomicLong();
+	private final AtomicLong writeNanos = new AtomicLong();
+
+	private ObjectName registeredName;
+
+    @Override
+    public void decodeFinished(DecodeMetrics metrics) {
+        decodes.incrementAndGet();
+        bytesIn.addAndGet(metrics.BytesIn);
+        bytesOut.addAndGet(metrics.BytesOut);
+        codes.addAndGet(metrics.Codes);
+        records.addAndGet(metrics.Records);
+        evictions.addAndGet(metrics.Evictions);
+        mappedDecodes.addAndGet(metrics.MappedDecodes);
+        phraseCharacters.addAndGet(metrics.PhraseCharacters);
+        long longest;
+        while ((longest = longestPhrase.get()) < metrics.LongestPhrase
+        		&& !longestPhrase.compareAndSet(longest, metrics.LongestPhrase)) {
+        	/* another thread changed it, try again */
+        }
+        for (int i = 0; i < DecodeMetrics.PHRASEBUCKETS; i++) {
+        	if (metrics.PhraseLengths[i] != 0) {
+        		phraseLengths.addAndGet(i, metrics.PhraseLengths[i]);
+        	}
+        }
+        totalNanos.addAndGet(metrics.TotalNanos);
+        readNanos.addAndGet(metrics.ReadNanos);
+        writeNanos.addAndGet(metrics.WriteNanos);
+    }
+
+    /*
+     * The totals so far as one DecodeMetrics, e.g. to print them
+     */
+    DecodeMetrics Totals() {
+        DecodeMetrics totals = new DecodeMetrics();
+        totals.BytesIn = bytesIn.get();
+        totals.BytesOut = bytesOut.get();
+        totals.Codes = codes.get();
+        totals.Records = records.get();
+        totals.Evictions = evictions.get();
+        totals.MappedDecodes = mappedDecodes.get();
+        totals.PhraseCharacters = phraseCharacters.get();
+        totals.LongestPhrase = longestPhrase.get();
+        for (int i = 0; i < DecodeMetrics.PHRASEBUCKETS; i++) {
+        	totals.PhraseLengths[i] = phraseLengths.get(i);
+        }
+        totals.TotalNanos = totalNanos.get();
+        totals.ReadNanos = readNanos.get();
+        totals.WriteNanos = writeNanos.get();
+        return totals;
+    }
+
+    /*
+     * Register with the platform MBean server as OBJECTNAME
+     */
+    synchronized ObjectName register() throws JMException {
+        if (registeredName == null) {
+        	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        	ObjectName name = new ObjectName(OBJECTNAME);
+        	server.registerMBean(new StandardMBean(this, DecodeStatisticsMBean.class), name);
+        	registeredName = name;
+        }
+        return registeredName;
+    }
+
+    synchronized void unregister() throws JMException {
+        if (registeredName != null) {
+        	ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        	registeredName = null;
+        }
+    }
+
+    @Override
+    public long getDecodes() {
+        return decodes.get();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public long getCodes() {
+        return codes.get();
+    }
+
+    @Override
+    public long getRecords() {
+        return records.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getMappedDecodes() {
+        return mappedDecodes.get();
+    }
+
+    @Override
+    public long getLongestPhrase() {
+        return longestPhrase.get();
+    }
+
+    @Override
+    public double getAveragePhraseLength() {
+        return Totals().AveragePhraseLength();
+    }
+
+    @Override
+    public long getReadMillis() {
+        return readNanos.get() / 1000000;
+    }
+
+    @Override
+    public long getDecodeMillis() {
+        return Totals().DecodeNanos() / 1000000;
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return writeNanos.get() / 1000000;
+    }
+
+    @Override
+    public double getThroughputMBPerSecond() {
+        return Totals().Throughput();
+    }
+
+    @Override
+    public void reset() {
+        for (AtomicLong counter : new AtomicLong[] { decodes, bytesIn, bytesOut, codes, records, evictions, mappedDecodes,
+        		phraseCharacters, longestPhrase, totalNanos, readNanos, writeNanos }) {
+        	counter.set(0);
+        }
+        for (int i = 0; i < DecodeMetrics.PHRASEBUCKETS; i++) {
+        	phraseLengths.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.blackhillsoftware.terse;
+
+/*
+ * The JMX view of DecodeStatistics. JMX needs the interface to be public.
+ * ReadMillis doesn't include the MappedDecodes, whose reading is part of
+ * DecodeMillis.
+ */
+public interface DecodeStatisticsMBean
+{
+    long getDecodes();
+    long getBytesIn();
+    long getBytesOut();
+    long getCodes();
+    long getRecords();
+    long getEvictions();
+    long getMappedDecodes();
+    long getLongestPhrase();
+    double getAveragePhraseLength();
+    long getReadMillis();
+    long getDecodeMillis();
+    long getWriteMillis();
+    double getThroughputMBPerSecond();
+    void reset();
+}
@@ -0,0 +1,215 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A directory of decompressed results, so the same tersed file decompressed
+ * again in the same mode is copied from the cache instead of being decoded.
+ *
+ * Entries are named by the SHA-256 of the decode mode and the compressed data.
+ * A result is decoded to a temporary file in the cache directory and renamed
+ * into place, so several threads or processes can share a directory: readers
+ * only ever see complete entries and two writers of the same entry write the
+ * same data. A hit updates the entry's modified time, and when the directory
+ * grows past MaxBytes the least recently used entries are deleted.
+ */
+class DecompressCache
+{
+	private static final String ENTRYSUFFIX = ".out";
+	private static final String TEMPSUFFIX = ".tmp";
+	private static final long STALETEMP = 60 * 60 * 1000; /* temp files left by a crashed writer */
+
+	Path Directory;
+	long MaxBytes;
+
+	AtomicLong Hits = new AtomicLong();
+	AtomicLong Misses = new AtomicLong();
+
+	DecompressCache(Path directory, long maxBytes) throws IOException
+	{
+		this.Directory = directory;
+		this.MaxBytes = maxBytes;
+		Files.createDirectories(directory);
+	}
+
+    /*
+     * Decompress inputPath to outputPath, from the cache if possible.
+     * Returns true if the result came from the cache.
+     */
+    boolean decompress(Path inputPath, Path outputPath, boolean textMode) throws IOException {
+        return decompress(inputPath, outputPath, textMode, CodePage.DEFAULT);
+    }
+
+    boolean decompress(Path inputPath, Path outputPath, boolean textMode, CodePage codePage) throws IOException {
+        return decompress(inputPath, outputPath, textMode, codePage, 0, null);
+    }
+
+    /*
+     * A miss is decoded with memoryLimit, see TerseDecompresser.MemoryLimit,
+     * and its metrics go to listener if it isn't null. A hit isn't decoded.
+     * In binary mode a limit writes RECFM=VB records which don't fit in it as
+     * spanned segments, so results with different limits are different entries.
+     */
+    boolean decompress(Path inputPath, Path outputPath, boolean textMode, CodePage codePage, int memoryLimit,
+    		DecodeListener listener) throws IOException {
+        long longestHeld = textMode ? Long.MAX_VALUE : TerseDecompresser.LongestHeld(memoryLimit);
+        Path entry = Directory.resolve(Key(inputPath, textMode, codePage, longestHeld) + ENTRYSUFFIX);
+
+        InputStream cached = null;
+        try {
+        	cached = Files.newInputStream(entry);
+        } catch (NoSuchFileException e) {
+        	/* not cached, or evicted by someone else */
+        }
+        if (cached != null) {
+        	try (InputStream in = cached) {
+        		Files.copy(in, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        	}
+        	try {
+        		Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        	} catch (IOException e) {
+        		/* evicted while we were copying it, the copy is still good */
+        	}
+        	Hits.incrementAndGet();
+        	return true;
+        }
+
+        Misses.incrementAndGet();
+        Path temp = Files.createTempFile(Directory, entry.getFileName().toString(), TEMPSUFFIX);
+        try {
+        	try (OutputStream out = Files.newOutputStream(temp);
+        		 TerseDecompresser decompresser = TerseDecompresser.create(inputPath, out)) {
+        		decompresser.TextFlag = textMode;
+        		decompresser.setCodePage(codePage);
+        		decompresser.MemoryLimit = memoryLimit;
+        		decompresser.setListener(listener);
+        		decompresser.decode();
+        	} catch (IOException e) {
+        		throw e;
+        	} catch (Exception e) {
+        		throw new IOException(e);
+        	}
+        	Files.copy(temp, outputPath, StandardCopyOption.REPLACE_EXISTING);
+        	Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+        	Files.deleteIfExists(temp);
+        }
+        Evict();
+        return false;
+    }
+
+    /*
+     * The cache key: a hash of everything that changes the output, i.e. the
+     * decode mode, the code page, the line separator written after text records,
+     * the longest record that isn't spanned and the compressed data itself.
+     */
+    static String Key(Path inputPath, boolean textMode, CodePage codePage, long longestHeld) throws IOException {
+        MessageDigest digest;
+        try {
+        	digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+        	throw new IOException(e);
+        }
+        String mode = "text=" + textMode + ";codepage=" + codePage.Name + ";lineseparator=" + Hex(codePage.LineSeparator)
+        		+ ";longestheld=" + longestHeld + ";";
+        digest.update(mode.getBytes(StandardCharsets.ISO_8859_1));
+
+        byte[] buffer = new byte[Constants.READBUFFERSIZE];
+        try (InputStream in = Files.newInputStream(inputPath)) {
+        	int count;
+        	while ((count = in.read(buffer)) != -1) {
+        		digest.update(buffer, 0, count);
+        	}
+        }
+        return Hex(digest.digest());
+    }
+
+    private static String Hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+        	hex.append(Character.forDigit((b >> 4) & 0x0F, 16));
+        	hex.append(Character.forDigit(b & 0x0F, 16));
+        }
+        return hex.toString();
+    }
+
+    /*
+     * Delete the least recently used entries until the cache fits in MaxBytes,
+     * and any temp files old enough that their writer must have died.
+     * Other processes may be evicting at the same time, so files can disappear
+     * under us.
+     */
+    void Evict() throws IOException {
+        class Entry {
+        	Path path;
+        	long size;
+        	long modified;
+        }
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Directory)) {
+        	for (Path file : files) {
+        		String name = file.getFileName().toString();
+        		BasicFileAttributes attributes;
+        		try {
+        			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        		} catch (NoSuchFileException e) {
+        			continue;
+        		}
+        		if (name.endsWith(TEMPSUFFIX)) {
+        			if (now - attributes.lastModifiedTime().toMillis() > STALETEMP) {
+        				Files.deleteIfExists(file);
+        			}
+        		} else if (name.endsWith(ENTRYSUFFIX)) {
+        			Entry entry = new Entry();
+        			entry.path = file;
+        			entry.size = attributes.size();
+        			entry.modified = attributes.lastModifiedTime().toMillis();
+        			entries.add(entry);
+        			total += entry.size;
+        		}
+        	}
+        }
+
+        if (total <= MaxBytes) {
+        	return;
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+        	@Override
+        	public int compare(Entry a, Entry b) {
+        		return Long.compare(a.modified, b.modified);
+        	}
+        });
+        for (Entry entry : entries) {
+        	if (total <= MaxBytes) {
+        		break;
+        	}
+        	try {
+        		Files.deleteIfExists(entry.path);
+        	} catch (IOException e) {
+        		/* e.g. open by a reader on Windows, try the next one */
+        		continue;
+        	}
+        	total -= entry.size;
+        }
+    }
+}
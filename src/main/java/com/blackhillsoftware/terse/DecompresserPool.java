@@ -0,0 +1,106 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * A pool of decompressers which can be shared by several threads, for
+ * workloads with many small files. A decompresser taken from the pool is
+ * reset for the new file instead of allocating a new dictionary and buffers.
+ *
+ * PACK and SPACK files need different decompressers, so there is an idle
+ * queue for each. Up to MaxIdle of each kind are kept, any more released
+ * are left for the garbage collector.
+ */
+class DecompresserPool
+{
+	private static final int PACKVERSION = 0x02; /* everything else, including native headers, is SPACK */
+
+	final int MaxIdle;
+
+	private final BlockingQueue<TerseDecompresser> idlePack;
+	private final BlockingQueue<TerseDecompresser> idleSpack;
+
+	DecompresserPool(int maxIdle)
+	{
+		this.MaxIdle = maxIdle;
+		this.idlePack = new ArrayBlockingQueue<>(Math.max(maxIdle, 1));
+		this.idleSpack = new ArrayBlockingQueue<>(Math.max(maxIdle, 1));
+	}
+
+    /*
+     * Get a decompresser for the file on inputStream, with the default settings.
+     * Give it back with release when it is finished.
+     */
+    TerseDecompresser acquire(InputStream inputStream, OutputStream outputStream) throws IOException {
+        /* look at the version byte to see which kind we need */
+        PushbackInputStream in = new PushbackInputStream(inputStream, 1);
+        int version = in.read();
+        if (version != -1) {
+        	in.unread(version);
+        }
+        TerseDecompresser decompresser = (version == PACKVERSION ? idlePack : idleSpack).poll();
+        if (decompresser == null) {
+        	return TerseDecompresser.create(in, outputStream);
+        }
+        try {
+        	decompresser.reset(in, outputStream);
+        } catch (IOException e) {
+        	/* a bad header, the decompresser is still fine for the next file */
+        	release(decompresser);
+        	throw e;
+        }
+        return decompresser;
+    }
+
+    /*
+     * Return a decompresser to the pool. Its streams are not closed, they
+     * belong to the caller, and its settings are put back to the defaults.
+     */
+    void release(TerseDecompresser decompresser) {
+        decompresser.TextFlag = false;
+        decompresser.setCodePage(CodePage.DEFAULT);
+        decompresser.Pipelined = false;
+        decompresser.FormatPool = null;
+        decompresser.MemoryLimit = 0;
+        decompresser.setHead(0, 0, 0);
+        decompresser.setFilter(null, null);
+        decompresser.Records = null;
+        decompresser.setListener(null);
+        decompresser.stream = null;
+        if (decompresser.input.getClass() == TerseBlockReader.class) {
+        	decompresser.input.stream = null;
+        }
+        if (MaxIdle <= 0) {
+        	return;
+        }
+        if (decompresser instanceof SpackDecompresser) {
+        	((SpackDecompresser) decompresser).PhraseCacheSize = 0;
+        	idleSpack.offer(decompresser);
+        } else {
+        	idlePack.offer(decompresser);
+        }
+    }
+
+    /*
+     * Decompress one file with a pooled decompresser. The streams are not closed.
+     */
+    void decompress(InputStream inputStream, OutputStream outputStream, boolean textMode) throws IOException {
+        TerseDecompresser decompresser = acquire(inputStream, outputStream);
+        try {
+        	decompresser.TextFlag = textMode;
+        	decompresser.decode();
+        	decompresser.finish();
+        } finally {
+        	release(decompresser);
+        }
+    }
+
+    int idleCount() {
+        return idlePack.size() + idleSpack.size();
+    }
+}
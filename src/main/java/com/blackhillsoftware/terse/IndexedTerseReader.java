@@ -0,0 +1,122 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Random access to the decompressed content of a file, using a TerseIndex.
+ * A read starts decoding at the last checkpoint before the position it
+ * wants, so it decodes at most the index interval of data it doesn't need.
+ */
+class IndexedTerseReader
+{
+	final Path File;
+	final TerseIndex Index;
+
+	IndexedTerseReader(Path file, TerseIndex index) throws IOException
+	{
+		if (Files.size(file) != index.FileSize || !Arrays.equals(TerseIndex.ReadHeaderBytes(file), index.Header))
+		{
+			throw new IOException("The index does not match " + file);
+		}
+		if (!Arrays.equals(index.LineSeparator, index.CodePage().LineSeparator))
+		{
+			throw new IOException("The index was built with a different line separator");
+		}
+		this.File = file;
+		this.Index = index;
+	}
+
+	/* The length of the decompressed content */
+	long size()
+	{
+		return Index.TotalOutput;
+	}
+
+    /*
+     * Read the decompressed content from position onwards.
+     */
+    InputStream openAt(long position) throws IOException {
+        if (position < 0) {
+        	throw new IllegalArgumentException("Negative position " + position);
+        }
+        TerseIndex.Checkpoint checkpoint = Index.Find(position);
+        TerseInputStream stream;
+        long offset;
+        if (checkpoint == null) {
+        	stream = new TerseInputStream(File, Index.TextFlag);
+        	offset = 0;
+        } else {
+        	stream = new TerseInputStream(Restore(checkpoint));
+        	offset = checkpoint.OutputOffset;
+        }
+        stream.decompresser.setCodePage(Index.CodePage());
+        try {
+        	stream.skip(position - offset);
+        } catch (IOException | RuntimeException e) {
+        	stream.close();
+        	throw e;
+        }
+        return stream;
+    }
+
+    /*
+     * Read up to len bytes at position. Returns the number of bytes read,
+     * which is only less than len at the end of the content, or -1 if
+     * position is at or past the end.
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= size()) {
+        	return -1;
+        }
+        try (InputStream in = openAt(position)) {
+        	int count = 0;
+        	while (count < len) {
+        		int n = in.read(b, off + count, len - count);
+        		if (n < 0) {
+        			break;
+        		}
+        		count += n;
+        	}
+        	return count;
+        }
+    }
+
+    /*
+     * A decompresser reading from the checkpoint's position in the file,
+     * with the checkpoint's state.
+     */
+    private TerseDecompresser Restore(TerseIndex.Checkpoint checkpoint) throws IOException {
+        FileChannel channel = FileChannel.open(File, StandardOpenOption.READ);
+        try {
+        	TerseHeader header = TerseHeader.CheckHeader(ByteBuffer.wrap(Index.Header));
+        	channel.position(checkpoint.CompressedBit / 8);
+        	TerseBlockReader reader = new TerseBlockReader(Channels.newInputStream(channel));
+        	if (checkpoint.CompressedBit % 8 != 0) {
+        		/* the code starts in the second half of a byte */
+        		if (!reader.Fill(1)) {
+        			throw new IOException("Unexpected end of file at checkpoint");
+        		}
+        		reader.savedBits = reader.buffer.get() & 0x0F;
+        		reader.bitsAvailable = 4;
+        	}
+        	TerseDecompresser decompresser = header.SpackFlag
+        			? new SpackDecompresser(reader, null, header)
+        			: new NonSpackDecompresser(reader, null, header);
+        	decompresser.TextFlag = Index.TextFlag;
+        	decompresser.OutputTotal = checkpoint.OutputOffset;
+        	decompresser.RestoreState(TerseIndex.OpenState(checkpoint));
+        	return decompresser;
+        } catch (IOException | RuntimeException e) {
+        	channel.close();
+        	throw e;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+
+/*
+ * Read the codes straight from a memory mapped file.
+ * The file is mapped in windows so that files larger than 2GB can be read.
+ * When a window runs out the next one is mapped starting at the first unread
+ * byte, so nothing needs to be carried over between windows.
+ *
+ * A window is unmapped as soon as the next one replaces it, and the last one
+ * when the reader is closed, rather than whenever the garbage collector gets
+ * to them. Otherwise a large file leaves a mapping per window behind, and on
+ * Windows the file can't be deleted or replaced while they exist. There is no
+ * public API for this: if the JDK internals used by Unmap can't be reached
+ * the windows are left to the garbage collector as before.
+ */
+class MappedTerseBlockReader extends TerseBlockReader
+{
+	private static final Consumer<ByteBuffer> UNMAPPER = FindUnmapper();
+
+	FileChannel channel;
+	long size;
+	long windowSize;
+	long windowStart = 0;
+
+	MappedTerseBlockReader(FileChannel channel) throws IOException
+	{
+		this(channel, Constants.MAPWINDOWSIZE);
+	}
+
+	MappedTerseBlockReader(FileChannel channel, long windowSize) throws IOException
+	{
+		super(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), windowSize)));
+		this.channel = channel;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+	}
+
+	@Override
+	boolean Fill(int n) throws IOException {
+		if (buffer.remaining() >= n)
+		{
+			return true;
+		}
+		long next = windowStart + buffer.position();
+		if (next + buffer.remaining() < size && channel.isOpen())
+		{
+			windowStart = next;
+			ByteBuffer finished = buffer;
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, next, Math.min(size - next, Math.max(windowSize, n)));
+			Unmap(finished);
+		}
+		return buffer.remaining() >= n;
+	}
+
+	@Override
+	public void close() throws Exception {
+		channel.close();
+		/* nothing can read the old window after this, it looks like the end of the file */
+		ByteBuffer finished = buffer;
+		buffer = ByteBuffer.allocate(0);
+		Unmap(finished);
+	}
+
+	/*
+	 * Release a window now. It must not be used again: reading an unmapped
+	 * buffer crashes the JVM.
+	 */
+	static void Unmap(ByteBuffer window) {
+		if (window.isDirect())
+		{
+			UNMAPPER.accept(window);
+		}
+	}
+
+	/*
+	 * Unsafe.invokeCleaner on Java 9 and later, the buffer's Cleaner on Java 8,
+	 * or nothing
+	 */
+	private static Consumer<ByteBuffer> FindUnmapper() {
+		try
+		{
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			final Object unsafe = theUnsafe.get(null);
+			return window -> Invoke(invokeCleaner, unsafe, window);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			/* not Java 9 or later */
+		}
+		try
+		{
+			final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			return window -> {
+				Object windowCleaner = Invoke(cleaner, window);
+				if (windowCleaner != null)
+				{
+					Invoke(clean, windowCleaner);
+				}
+			};
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			/* leave the windows to the garbage collector */
+			return window -> { };
+		}
+	}
+
+	private static Object Invoke(Method method, Object target, Object... args) {
+		try
+		{
+			return method.invoke(target, args);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			/* the window is left to the garbage collector */
+			return null;
+		}
+	}
+}
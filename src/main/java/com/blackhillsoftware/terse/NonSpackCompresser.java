@@ -0,0 +1,145 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+class NonSpackCompresser extends TerseCompresser {
+
+	NonSpackCompresser(InputStream instream, OutputStream outputStream, TerseHeader header)
+	{
+		super(instream, outputStream, header);
+	}
+
+    private int [] Father = new int[Constants.TREESIZE];
+    private int [] CharExt = new int[Constants.TREESIZE];
+    private int [] Backward = new int[Constants.TREESIZE];
+    private int [] Forward = new int[Constants.TREESIZE];
+
+    /*
+     * Hash chains used to find the node for a (father, character) pair.
+     * A node is in the hash from the time its extension character is known
+     * until it is recycled.
+     */
+    private int [] HashHead = new int[Constants.HASHSIZE+1];
+    private int [] HashNext = new int[Constants.TREESIZE];
+
+    private static int Hash(int father, int ext) {
+        return (father * 31 + ext) & Constants.HASHSIZE;
+    }
+
+    private int HashFind(int father, int ext) {
+        for (int n = HashHead[Hash(father, ext)]; n != 0; n = HashNext[n]) {
+            if (Father[n] == father && CharExt[n] == ext) {
+                return n;
+            }
+        }
+        return Constants.NONE;
+    }
+
+    private void HashAdd(int n) {
+        int bucket = Hash(Father[n], CharExt[n]);
+        HashNext[n] = HashHead[bucket];
+        HashHead[bucket] = n;
+    }
+
+    private void HashRemove(int n) {
+        int bucket = Hash(Father[n], CharExt[n]);
+        if (HashHead[bucket] == n) {
+            HashHead[bucket] = HashNext[n];
+            return;
+        }
+        for (int p = HashHead[bucket]; p != 0; p = HashNext[p]) {
+            if (HashNext[p] == n) {
+                HashNext[p] = HashNext[n];
+                return;
+            }
+        }
+    }
+
+    /*
+     * Encode the input using a non spack (PACK) encode.
+     * This is LZW: each code is the longest string in the dictionary, and the
+     * string plus the first character of the next code becomes a new entry.
+     * The dictionary and the LRU list of nodes are maintained exactly as
+     * NonSpackDecompresser.decode maintains them, so the node numbers agree.
+     */
+    public void encode() throws IOException {
+
+        int  H1 = 0, H2 = 0;
+        int d = 0, y = 0, q = 0, r = 0, h = 0, c = 0, n = 0;
+        int pending = 0;
+
+        H2 = 1 + Constants.AscToEbcDef[' '];
+
+        for (H1 = 258; H1 < 4096; H1++) {
+          Father [H1] = H2;
+          CharExt[H1] = 1 + Constants.AscToEbcDef[' '];
+          HashAdd(H1);
+          H2 = H1;
+        }
+
+        for (H1 = 258; H1 < 4095; H1++) {
+          Backward[H1+1] = H1  ;
+          Forward [H1  ] = H1+1;
+        }
+
+        Backward [0] = 4095;
+        Forward [0] = 258;
+        Backward [258] = 0;
+        Forward [4095] = 0;
+
+        c = GetChar();
+
+        while (c != Constants.ENDOFFILE) {
+            // recycle the least recently used node
+            y = Backward[0];
+            q = Backward[y];
+            Backward[0] = q;
+            Forward [q] = 0;
+            HashRemove(y);
+
+            // the node from the previous code is completed by this character
+            if (pending != 0) {
+                CharExt[pending] = c;
+                HashAdd(pending);
+            }
+
+            // find the longest match
+            d = c;
+            c = GetChar();
+            while (c != Constants.ENDOFFILE) {
+                n = HashFind(d, c);
+                if (n == Constants.NONE) {
+                    break;
+                }
+                d = n;
+                c = GetChar();
+            }
+            output.PutBlok(d);
+
+            // move the nodes used by this code to the front of the list
+            h = y;
+            n = d;
+            while (n > 257) {
+                q = Forward [n];
+                r = Backward[n];
+                Forward [r] = q;
+                Backward[q] = r;
+                Forward [n] = h;
+                Backward[h] = n;
+                h = n;
+                n = Father[n];
+            }
+            q = Forward[0];
+            Forward [y] = q;
+            Backward[q] = y;
+            Forward [0] = h;
+            Backward[h] = 0;
+
+            Father[y] = d;
+            pending = y;
+        }
+        output.PutBlok(Constants.ENDOFFILE);
+    }
+}
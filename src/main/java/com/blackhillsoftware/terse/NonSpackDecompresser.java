@@ -1,8 +1,11 @@
 package com.blackhillsoftware.terse;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 class NonSpackDecompresser extends TerseDecompresser {
 		
@@ -10,44 +13,70 @@ class NonSpackDecompresser extends TerseDecompresser {
 	{
 		super(instream, outputStream, header);
 	}
+
+	NonSpackDecompresser(TerseBlockReader input, OutputStream outputStream, TerseHeader header)
+	{
+		super(input, outputStream, header);
+	}
 	
+    /*
+     * Decode state, kept between calls to DecodeSome
+     */
+    private int [] Father;
+    private int [] CharExt;
+    private int [] Backward;
+    private int [] Forward;
+
+    private long [] PhraseLength; /* only kept for DecodeMetrics */
+
+    private int [] Codes;
+    private int CodeCount = 0, CodeNext = 0;
+    private int x = 0;
+    private boolean Started = false;
+
     /* 
      * Decode the file on the other end of the input stream using a non spack decode.
      * Write the output to the output stream.
      * Assume that both streams are initialized and ready to be read from/written to.
      */
-    public void decode() throws IOException {
-
-        int [] Father = new int[Constants.TREESIZE];
-        int [] CharExt = new int[Constants.TREESIZE];
-        int [] Backward = new int[Constants.TREESIZE];
-        int [] Forward = new int[Constants.TREESIZE];
-    	      
-        int  H1 = 0, H2 = 0;
-        int x = 0, d = 0, y = 0, q = 0, r = 0, e = 0, p = 0, h = 0;
+    boolean DecodeSome() throws IOException {
+        StartClock();
 
-        H2 = 1 + Constants.AscToEbcDef[' '];
-
-        for (H1 = 258; H1 < 4096; H1++) {
-          Father [H1] = H2;
-          CharExt[H1] = 1 + Constants.AscToEbcDef[' '];
-          H2 = H1;
+        if (!Started) {
+            Start();
         }
-
-        for (H1 = 258; H1 < 4095; H1++) {
-          Backward[H1+1] = H1  ;
-          Forward [H1  ] = H1+1;
+        if (CodeCount < 0) {
+            return false;
         }
 
-        Backward [0] = 4095;
-        Forward [0] = 258;
-        Backward [258] = 0;
-        Forward [4095] = 0;
-       
-        x=0;
-        d = input.GetBlok();
+        int [] Father = this.Father;
+        int [] CharExt = this.CharExt;
+        int [] Backward = this.Backward;
+        int [] Forward = this.Forward;
+        int [] Codes = this.Codes;
+        int CodeCount = this.CodeCount, CodeNext = this.CodeNext;
+        long [] PhraseLength = this.PhraseLength;
+
+        int x = this.x, d = 0, y = 0, q = 0, r = 0, e = 0, p = 0, h = 0, code = 0;
 
-        while (d != Constants.ENDOFFILE) {
+        while (true) {
+            if (Pause) {
+                break;
+            }
+            if (CodeNext == CodeCount) {
+                CodeCount = input.GetBloks(Codes, 0, Codes.length);
+                CodeNext = 0;
+                if (CodeCount == 0) {
+                    CodeCount = -1;
+                    break;
+                }
+            }
+            d = Codes[CodeNext++];
+            if (d == Constants.ENDOFFILE) {
+                CodeCount = -1;
+                break;
+            }
+            code = d;
             h = 0;
             y = Backward[0];
             q = Backward[y];
@@ -84,7 +113,98 @@ class NonSpackDecompresser extends TerseDecompresser {
                 p = e;
             }
             Father[y] = d;
-            d = input.GetBlok();
+            if (PhraseLength != null) {
+                long length = code > 257 ? PhraseLength[code] : 1;
+                Metrics.Phrase(length);
+                PhraseLength[y] = length + 1;
+            }
         }
+
+        this.x = x;
+        this.CodeCount = CodeCount;
+        this.CodeNext = CodeNext;
+        return CodeCount >= 0;
+    }
+
+    void ResetDictionary() {
+        Started = false;
+        CodeCount = 0;
+        CodeNext = 0;
+        x = 0;
+    }
+
+    void SaveDictionary(DataOutputStream out) throws IOException {
+        out.writeInt(x);
+        for (int [] array : new int [][] { Father, CharExt, Backward, Forward }) {
+            for (int value : array) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    void RestoreDictionary(DataInputStream in) throws IOException {
+        if (Father == null) {
+            Start();
+        }
+        Started = true;
+        PhraseLength = null;
+        CodeCount = 0;
+        CodeNext = 0;
+        x = in.readInt();
+        for (int [] array : new int [][] { Father, CharExt, Backward, Forward }) {
+            for (int i = 0; i < array.length; i++) {
+                array[i] = in.readInt();
+            }
+        }
+    }
+
+    int UnreadCodes() {
+        return CodeCount > 0 ? CodeCount - CodeNext : 0;
+    }
+
+    private void Start() {
+        Started = true;
+        if (Father == null) {
+            Father = new int[Constants.TREESIZE];
+            CharExt = new int[Constants.TREESIZE];
+            Backward = new int[Constants.TREESIZE];
+            Forward = new int[Constants.TREESIZE];
+            Codes = new int[Constants.CODEBATCH];
+        } else {
+            /* reused after reset, start from the same state as new arrays */
+            Arrays.fill(Father, 0);
+            Arrays.fill(CharExt, 0);
+            Arrays.fill(Backward, 0);
+            Arrays.fill(Forward, 0);
+        }
+
+        if (Metrics == null) {
+            PhraseLength = null;
+        } else if (PhraseLength == null) {
+            PhraseLength = new long[Constants.TREESIZE];
+        }
+
+        int  H1 = 0, H2 = 0;
+
+        H2 = 1 + Constants.AscToEbcDef[' '];
+
+        for (H1 = 258; H1 < 4096; H1++) {
+          Father [H1] = H2;
+          CharExt[H1] = 1 + Constants.AscToEbcDef[' '];
+          if (PhraseLength != null) {
+            PhraseLength[H1] = H1 - 256; /* the initial nodes are strings of spaces */
+          }
+          H2 = H1;
+        }
+
+        for (H1 = 258; H1 < 4095; H1++) {
+          Backward[H1+1] = H1  ;
+          Forward [H1  ] = H1+1;
+        }
+
+        Backward [0] = 4095;
+        Forward [0] = 258;
+        Backward [258] = 0;
+        Forward [4095] = 0;
     }
 }
@@ -0,0 +1,319 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * Decode with the per-record work - translation, line separators and RDWs -
+ * done on a ForkJoinPool.
+ *
+ * The dictionary decode runs on the calling thread as usual, but PutChar
+ * only collects the characters. When a batch is full it is cut at the end
+ * of the last complete record and given to the pool, where a Formatter
+ * builds the records the same way FrameChar would. The results are written
+ * in the order the batches were cut, so the output is the same as a single
+ * threaded decode.
+ *
+ * A batch can only be cut between records, so a file with one huge record
+ * gets no help. With a MemoryLimit, a record too big for a batch ends the
+ * parallel formatting and the rest of the file is framed on the decoder
+ * thread instead of growing the batch. RECFM=FB binary data has no records to speak of and can be
+ * cut anywhere. Up to 2 batches per pool thread are in flight, a slow pool
+ * holds up the decoder instead of buffering the whole file.
+ */
+class ParallelFormat implements CharSink
+{
+	private static final int BATCHSIZE = 0x40000; /* 256k characters */
+
+	/* The formatted output of one batch */
+	private static final class Result
+	{
+		final Output output;
+		final int[] chars;
+		long records;     /* records completed */
+		long size;        /* host bytes in an incomplete record at the end */
+
+		Result(int[] chars, int length)
+		{
+			this.chars = chars;
+			this.output = new Output(length + length / 8);
+		}
+	}
+
+	/* Lets the bytes be written out without copying them again */
+	private static final class Output extends ByteArrayOutputStream
+	{
+		Output(int size)
+		{
+			super(size);
+		}
+
+		void writeTo(TerseDecompresser decompresser) throws IOException
+		{
+			decompresser.write(buf, 0, count);
+		}
+	}
+
+	private final TerseDecompresser decompresser;
+	private final ForkJoinPool pool;
+	private final int maxOutstanding;
+	private final Deque<ForkJoinTask<Result>> outstanding = new ArrayDeque<>();
+	private final Deque<int[]> free = new ArrayDeque<>();
+
+	private final boolean text;     /* the text path through FrameChar */
+	private final boolean variable;
+	private final int recordLength;
+
+	private int[] batch = new int[BATCHSIZE];
+	private int count = 0;
+	private int boundary = 0;       /* the end of the last complete record in batch */
+	private long recordChars = 0;   /* characters so far in a text RECFM=FB record */
+	private boolean stopped = false;
+
+	ParallelFormat(TerseDecompresser decompresser, ForkJoinPool pool)
+	{
+		this.decompresser = decompresser;
+		this.pool = pool;
+		this.maxOutstanding = Math.max(pool.getParallelism() * 2, 2);
+		this.text = decompresser.HostFlag && decompresser.TextFlag;
+		this.variable = decompresser.VariableFlag;
+		this.recordLength = decompresser.RecordLength;
+	}
+
+    /*
+     * Whether the decode can be split into batches: nothing has been decoded
+     * yet, records aren't going to a handler and the records have an end.
+     */
+    static boolean Splittable(TerseDecompresser decompresser) {
+        if (decompresser.Records != null || decompresser.Filtering() || decompresser.outputPos > 0 || decompresser.recordSize > 0) {
+        	return false;
+        }
+        /* text RECFM=FB records end at the record length */
+        return !(decompresser.HostFlag && decompresser.TextFlag && !decompresser.VariableFlag
+        		&& decompresser.RecordLength <= 0);
+    }
+
+    /*
+     * Decode the whole file
+     */
+    void run() throws IOException {
+        Throwable failure = null;
+        decompresser.pipeline = this;
+        try {
+        	while (decompresser.DecodeSome()) {
+        		decompresser.Pause = false;
+        	}
+        } catch (Throwable t) {
+        	failure = t;
+        } finally {
+        	decompresser.pipeline = null;
+        }
+        try {
+        	/* everything decoded before a failure is still output, like a single threaded decode */
+        	if (!stopped) {
+        		while (!outstanding.isEmpty()) {
+        			writeResult();
+        		}
+        		/* the rest goes through the decompresser so finish() sees the last record */
+        		for (int i = 0; i < count; i++) {
+        			decompresser.FrameChar(batch[i]);
+        		}
+        	}
+        } catch (Throwable t) {
+        	if (failure == null) {
+        		failure = t;
+        	}
+        } finally {
+        	for (ForkJoinTask<Result> task : outstanding) {
+        		task.cancel(false);
+        	}
+        	outstanding.clear();
+        }
+        if (failure != null) {
+        	rethrow(failure);
+        }
+    }
+
+    /*
+     * Called by TerseDecompresser.PutChar on the decoder thread
+     */
+    public void PutChar(int X) throws IOException {
+        if (count == batch.length) {
+        	if (boundary > 0) {
+        		send();
+        	} else if (decompresser.MemoryLimit > 0 && batch.length * 8L > decompresser.MemoryLimit) {
+        		/* one record bigger than a batch, and no memory to hold it */
+        		Serial(X);
+        		return;
+        	} else {
+        		/* one record bigger than a batch */
+        		batch = Arrays.copyOf(batch, batch.length * 2);
+        	}
+        }
+        batch[count++] = X;
+        if (EndsRecord(X)) {
+        	boundary = count;
+        }
+    }
+
+    /*
+     * Frame the rest of the file on the decoder thread, starting with
+     * what is left in the batch
+     */
+    private void Serial(int X) throws IOException {
+        decompresser.pipeline = null;
+        while (!outstanding.isEmpty()) {
+        	writeResult();
+        }
+        for (int i = 0; i < count; i++) {
+        	decompresser.FrameChar(batch[i]);
+        }
+        count = 0;
+        decompresser.FrameChar(X);
+    }
+
+    /*
+     * Whether the framer is between records after X, the same tests as FrameChar
+     */
+    private boolean EndsRecord(int X) {
+        if (text) {
+        	if (variable) {
+        		return X == Constants.RECORDMARK || X == 0;
+        	}
+        	if (X != 0 && ++recordChars == recordLength) {
+        		recordChars = 0;
+        		return true;
+        	}
+        	return false;
+        }
+        return !variable || X == Constants.RECORDMARK;
+    }
+
+    /*
+     * Give the complete records in the batch to the pool and start a new
+     * batch with the rest.
+     */
+    private void send() throws IOException {
+        int remainder = count - boundary;
+        int[] next = free.poll();
+        if (next == null || next.length < remainder) {
+        	next = new int[Math.max(BATCHSIZE, remainder * 2)];
+        }
+        System.arraycopy(batch, boundary, next, 0, remainder);
+        while (outstanding.size() >= maxOutstanding) {
+        	writeResult();
+        }
+        final int[] chars = batch;
+        final int length = boundary;
+        outstanding.add(pool.submit(() -> Format(chars, length)));
+        batch = next;
+        count = remainder;
+        boundary = 0;
+    }
+
+    /*
+     * Write the oldest result and account for its records
+     */
+    private void writeResult() throws IOException {
+        try {
+        	Result result = get(outstanding.removeFirst());
+        	result.output.writeTo(decompresser);
+        	decompresser.RecordCount += result.records;
+        	decompresser.recordSize = (result.records > 0 ? 0 : decompresser.recordSize) + result.size;
+        	free.push(result.chars);
+        } catch (IOException | RuntimeException | Error e) {
+        	stopped = true;
+        	throw e;
+        }
+    }
+
+    private static Result get(ForkJoinTask<Result> task) throws IOException {
+        try {
+        	return task.get();
+        } catch (InterruptedException e) {
+        	Thread.currentThread().interrupt();
+        	throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+        	throw rethrow(e.getCause());
+        }
+    }
+
+    private static IOException rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) {
+        	throw (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+        	throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+        	throw (Error) t;
+        }
+        throw new IOException(t);
+    }
+
+    /*
+     * Pool thread: build the records for one batch
+     */
+    private Result Format(int[] chars, int length) throws IOException {
+        Result result = new Result(chars, length);
+        Formatter formatter = new Formatter(decompresser, result.output);
+        for (int i = 0; i < length; i++) {
+        	formatter.FrameChar(chars[i]);
+        }
+        formatter.write(formatter.outputBuffer, 0, formatter.outputPos);
+        result.records = formatter.RecordCount;
+        result.size = formatter.recordSize;
+        return result;
+    }
+
+    /*
+     * The framing half of a decompresser, with the settings of the real one
+     */
+    private static final class Formatter extends TerseDecompresser {
+        Formatter(TerseDecompresser settings, Output output) {
+        	super((TerseBlockReader) null, output, Header(settings));
+        	this.TextFlag = settings.TextFlag;
+        	this.MemoryLimit = settings.MemoryLimit;
+        	setCodePage(settings.codePage);
+        }
+
+        private static TerseHeader Header(TerseDecompresser settings) {
+        	TerseHeader header = new TerseHeader();
+        	header.RecordLength = settings.RecordLength;
+        	header.HostFlag = settings.HostFlag;
+        	header.RecfmV = settings.VariableFlag;
+        	return header;
+        }
+
+        @Override
+        boolean DecodeSome() {
+        	return false;
+        }
+
+        @Override
+        void ResetDictionary() {
+        }
+
+        @Override
+        void SaveDictionary(DataOutputStream out) {
+        }
+
+        @Override
+        void RestoreDictionary(DataInputStream in) {
+        }
+
+        @Override
+        int UnreadCodes() {
+        	return 0;
+        }
+    }
+}
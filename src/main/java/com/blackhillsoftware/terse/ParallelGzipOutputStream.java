@@ -0,0 +1,255 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * A gzip output stream which compresses on a ForkJoinPool, the way pigz does.
+ *
+ * The data is cut into blocks of BLOCKSIZE bytes. Each block is deflated
+ * on its own, primed with the last 32k of the block before as the
+ * dictionary, and ends with a sync flush so it finishes on a byte
+ * boundary. Put back together in order the blocks make one ordinary deflate
+ * stream, the last one ending with the final block, and the result is a
+ * single gzip member any gunzip can read. The CRC is calculated on the
+ * writing thread as the data arrives.
+ *
+ * Up to 2 blocks per pool thread are in flight, so a slow pool holds up
+ * the writer rather than buffering the whole file. The underlying stream
+ * is written by the thread calling write and close.
+ */
+class ParallelGzipOutputStream extends OutputStream
+{
+	static final int BLOCKSIZE = 0x20000;    /* 128k, as pigz */
+	private static final int DICTIONARYSIZE = 0x8000; /* 32k, the deflate window */
+
+	private final OutputStream out;
+	private final int level;
+	private final ForkJoinPool pool;
+	private final int maxOutstanding;
+	private final Deque<ForkJoinTask<byte[]>> outstanding = new ArrayDeque<>();
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+	private final CRC32 crc = new CRC32();
+	private long size = 0;
+	private byte[] block = new byte[BLOCKSIZE];
+	private int count = 0;
+	private byte[] dictionary = null;
+	private boolean closed = false;
+	private volatile boolean ended = false; /* the pooled deflaters have been ended */
+
+	ParallelGzipOutputStream(OutputStream out, int level, ForkJoinPool pool) throws IOException
+	{
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+		{
+			throw new IllegalArgumentException("Compression level must be -1 (the default) or 0 to 9");
+		}
+		this.out = out;
+		this.level = level;
+		this.pool = pool;
+		this.maxOutstanding = Math.max(pool.getParallelism() * 2, 2);
+		WriteHeader();
+	}
+
+	ParallelGzipOutputStream(OutputStream out) throws IOException
+	{
+		this(out, Deflater.DEFAULT_COMPRESSION, ForkJoinPool.commonPool());
+	}
+
+    /*
+     * The 10 byte gzip header, no file name or time
+     */
+    private void WriteHeader() throws IOException {
+        out.write(new byte[] {
+        		0x1F, (byte) 0x8B,  /* magic */
+        		Deflater.DEFLATED,
+        		0,                  /* flags */
+        		0, 0, 0, 0,         /* modification time */
+        		(byte) (level == Deflater.BEST_COMPRESSION ? 2 : level == Deflater.BEST_SPEED ? 4 : 0),
+        		(byte) 255          /* unknown OS */
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+        	throw new IOException("Stream closed");
+        }
+        crc.update(b, off, len);
+        size += len;
+        while (len > 0) {
+        	if (count == block.length) {
+        		Send(false);
+        	}
+        	int n = Math.min(len, block.length - count);
+        	System.arraycopy(b, off, block, count, n);
+        	count += n;
+        	off += n;
+        	len -= n;
+        }
+    }
+
+    /*
+     * Give the current block to the pool and start a new one
+     */
+    private void Send(final boolean last) throws IOException {
+        while (outstanding.size() >= maxOutstanding) {
+        	WriteBlock();
+        }
+        final byte[] data = block;
+        final int length = count;
+        final byte[] primer = dictionary;
+        outstanding.add(pool.submit(() -> Deflate(data, length, primer, last)));
+        if (length >= DICTIONARYSIZE) {
+        	dictionary = Arrays.copyOfRange(data, length - DICTIONARYSIZE, length);
+        } else if (length > 0) {
+        	/* only the last block can be short */
+        	dictionary = Arrays.copyOf(data, length);
+        }
+        block = new byte[BLOCKSIZE];
+        count = 0;
+    }
+
+    /*
+     * Pool thread: deflate one block
+     */
+    private byte[] Deflate(byte[] data, int length, byte[] primer, boolean last) {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+        	deflater = new Deflater(level, true);
+        }
+        try {
+        	if (primer != null) {
+        		deflater.setDictionary(primer);
+        	}
+        	deflater.setInput(data, 0, length);
+        	ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        	byte[] buffer = new byte[0x10000];
+        	if (last) {
+        		deflater.finish();
+        		while (!deflater.finished()) {
+        			int n = deflater.deflate(buffer);
+        			compressed.write(buffer, 0, n);
+        		}
+        	} else {
+        		int n;
+        		do {
+        			n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        			compressed.write(buffer, 0, n);
+        		} while (n == buffer.length);
+        	}
+        	return compressed.toByteArray();
+        } finally {
+        	deflater.reset();
+        	deflaters.offer(deflater);
+        	if (ended) {
+        		/* close gave up on this block and has already ended the pool */
+        		EndDeflaters();
+        	}
+        }
+    }
+
+    /*
+     * Either close sees a deflater offered before it set ended, or the task
+     * offering it sees ended and comes here itself
+     */
+    private void EndDeflaters() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+        	deflater.end();
+        }
+    }
+
+    /*
+     * Write the oldest compressed block
+     */
+    private void WriteBlock() throws IOException {
+        byte[] compressed;
+        try {
+        	compressed = outstanding.removeFirst().get();
+        } catch (InterruptedException e) {
+        	Thread.currentThread().interrupt();
+        	throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+        	Throwable cause = e.getCause();
+        	if (cause instanceof RuntimeException) {
+        		throw (RuntimeException) cause;
+        	}
+        	if (cause instanceof Error) {
+        		throw (Error) cause;
+        	}
+        	throw new IOException(cause);
+        }
+        out.write(compressed);
+    }
+
+    /*
+     * Write out what has been compressed so far. The current block is
+     * only compressed when it is full or the stream is closed, a sync
+     * flush after every small write would spoil the compression.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!outstanding.isEmpty()) {
+        	WriteBlock();
+        }
+        out.flush();
+    }
+
+    /*
+     * Compress the rest, write the trailer and close the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+        	return;
+        }
+        closed = true;
+        try {
+        	Send(true);
+        	while (!outstanding.isEmpty()) {
+        		WriteBlock();
+        	}
+        	WriteTrailer();
+        } finally {
+        	for (ForkJoinTask<byte[]> task : outstanding) {
+        		task.cancel(false);
+        	}
+        	outstanding.clear();
+        	/* a block already being deflated can't be cancelled, it ends its own deflater */
+        	ended = true;
+        	EndDeflaters();
+        	out.close();
+        }
+    }
+
+    /*
+     * CRC-32 and size modulo 2^32, both little endian
+     */
+    private void WriteTrailer() throws IOException {
+        long value = crc.getValue();
+        long length = size & 0xFFFFFFFFL;
+        byte[] trailer = new byte[8];
+        for (int i = 0; i < 4; i++) {
+        	trailer[i] = (byte) (value >> (8 * i));
+        	trailer[i + 4] = (byte) (length >> (8 * i));
+        }
+        out.write(trailer);
+    }
+}
@@ -0,0 +1,395 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Run a decode as a pipeline of 4 threads:
+ *
+ *   reader   - reads the input and unpacks the 12 bit codes (TerseBlockReader)
+ *   decoder  - the dictionary decode, on the calling thread. Instead of
+ *              PutChar doing the work it passes the characters on in batches
+ *   framer   - PutChar's work: translation and building records
+ *   writer   - writes the output stream
+ *
+ * Each pair of stages is connected by a queue of batches, and the batches
+ * are handed back on a free queue once they have been used, so there are
+ * at most DEPTH batches in flight between two stages and a fast stage
+ * waits for a slow one. The decoder thread only touches the dictionary and
+ * the framer only touches the output buffer, so they can share the
+ * decompresser object.
+ *
+ * An exception in any stage stops the others and is thrown from decode().
+ * Exceptions from reading the input travel down the code queue, so they
+ * arrive at the decoder after the codes read before them, the same as a
+ * single threaded decode.
+ */
+class PipelinedDecode implements CharSink
+{
+	private static final int DEPTH = 4;
+	private static final long POLLMILLIS = 100;
+
+	/* A batch of codes, characters or bytes, or the end of a stream */
+	private static final class Batch
+	{
+		int[] ints;
+		byte[] bytes;
+		int length;
+		boolean end;
+		Throwable error;
+	}
+
+	private final TerseDecompresser decompresser;
+
+	private final BlockingQueue<Batch> codes = new ArrayBlockingQueue<>(DEPTH + 1);
+	private final BlockingQueue<Batch> freeCodes = new ArrayBlockingQueue<>(DEPTH);
+	private final BlockingQueue<Batch> chars = new ArrayBlockingQueue<>(DEPTH + 1);
+	private final BlockingQueue<Batch> freeChars = new ArrayBlockingQueue<>(DEPTH);
+	private final BlockingQueue<Batch> bytes = new ArrayBlockingQueue<>(DEPTH + 1);
+	private final BlockingQueue<Batch> freeBytes = new ArrayBlockingQueue<>(DEPTH);
+
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private volatile boolean done = false;
+
+	private Batch charBatch;
+	private int charCount = 0;
+
+	PipelinedDecode(TerseDecompresser decompresser)
+	{
+		this.decompresser = decompresser;
+		for (int i = 0; i < DEPTH; i++)
+		{
+			Batch codeBatch = new Batch();
+			codeBatch.ints = new int[Constants.CODEBATCH];
+			freeCodes.add(codeBatch);
+			Batch charBatch = new Batch();
+			charBatch.ints = new int[Constants.CODEBATCH];
+			freeChars.add(charBatch);
+			Batch byteBatch = new Batch();
+			byteBatch.bytes = new byte[Constants.OUTPUTBUFFERSIZE];
+			freeBytes.add(byteBatch);
+		}
+	}
+
+	/* Put on every queue to stop the stages */
+	private static final Batch STOP = new Batch();
+
+	private static Batch End(Throwable error)
+	{
+		Batch end = new Batch();
+		end.end = true;
+		end.error = error;
+		return end;
+	}
+
+    /*
+     * Queue operations which give up if another stage has failed, or
+     * the decode has finished.
+     */
+    private Batch take(BlockingQueue<Batch> queue) throws IOException {
+        try {
+        	while (true) {
+        		Batch batch = queue.poll(POLLMILLIS, TimeUnit.MILLISECONDS);
+        		if (batch == STOP) {
+        			queue.offer(STOP);
+        			throw new StoppedException();
+        		}
+        		if (batch != null) {
+        			return batch;
+        		}
+        		checkStopped();
+        	}
+        } catch (InterruptedException e) {
+        	Thread.currentThread().interrupt();
+        	throw new InterruptedIOException();
+        }
+    }
+
+    private void put(BlockingQueue<Batch> queue, Batch batch) throws IOException {
+        try {
+        	while (!queue.offer(batch, POLLMILLIS, TimeUnit.MILLISECONDS)) {
+        		checkStopped();
+        	}
+        } catch (InterruptedException e) {
+        	Thread.currentThread().interrupt();
+        	throw new InterruptedIOException();
+        }
+    }
+
+    private void checkStopped() throws IOException {
+        if (failure.get() != null || done) {
+        	throw new StoppedException();
+        }
+    }
+
+    /* Stops a stage because another one failed, not a failure itself */
+    private static class StoppedException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private void fail(Throwable t) {
+        if (!(t instanceof StoppedException) && failure.compareAndSet(null, t)) {
+        	wake();
+        }
+    }
+
+    /*
+     * Wake up any stage waiting on a queue, so it sees that we are stopping
+     * now instead of at its next poll.
+     */
+    private void wake() {
+        for (BlockingQueue<Batch> queue : Arrays.asList(codes, freeCodes, chars, freeChars, bytes, freeBytes)) {
+        	queue.clear();
+        	queue.offer(STOP);
+        }
+    }
+
+    private static IOException rethrow(Throwable t) throws IOException {
+        if (t instanceof IOException) {
+        	throw (IOException) t;
+        }
+        if (t instanceof RuntimeException) {
+        	throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+        	throw (Error) t;
+        }
+        throw new IOException(t);
+    }
+
+    /*
+     * Decode the whole file
+     */
+    void run() throws IOException {
+        final TerseBlockReader reader = decompresser.input;
+        final OutputStream output = decompresser.stream;
+
+        Thread readerThread = new Thread(new Runnable() {
+        	@Override
+        	public void run() {
+        		readCodes(reader);
+        	}
+        }, "terse-reader");
+        Thread framerThread = new Thread(new Runnable() {
+        	@Override
+        	public void run() {
+        		frameChars();
+        	}
+        }, "terse-framer");
+        Thread writerThread = new Thread(new Runnable() {
+        	@Override
+        	public void run() {
+        		writeBytes(output);
+        	}
+        }, "terse-writer");
+        Thread[] threads = { readerThread, framerThread, writerThread };
+        for (Thread thread : threads) {
+        	thread.setDaemon(true);
+        }
+
+        decompresser.input = new QueuedBlockReader();
+        decompresser.stream = new QueuedOutputStream();
+        decompresser.pipeline = this;
+        try {
+        	charBatch = take(freeChars);
+        	for (Thread thread : threads) {
+        		thread.start();
+        	}
+        	while (decompresser.DecodeSome()) {
+        		decompresser.Pause = false;
+        	}
+        	sendChars();
+        	put(chars, End(null));
+        	framerThread.join();
+        	writerThread.join();
+        } catch (Throwable t) {
+        	fail(t);
+        } finally {
+        	done = true;
+        	wake();
+        	try {
+        		for (Thread thread : threads) {
+        			thread.join();
+        		}
+        	} catch (InterruptedException e) {
+        		Thread.currentThread().interrupt();
+        		fail(e);
+        	}
+        	decompresser.input = reader;
+        	decompresser.stream = output;
+        	decompresser.pipeline = null;
+        }
+        if (failure.get() != null) {
+        	rethrow(failure.get());
+        }
+    }
+
+    /*
+     * Reader stage
+     */
+    private void readCodes(TerseBlockReader reader) {
+        try {
+        	try {
+        		while (true) {
+        			Batch batch = take(freeCodes);
+        			batch.length = reader.GetBloks(batch.ints, 0, batch.ints.length);
+        			if (batch.length == 0) {
+        				break;
+        			}
+        			put(codes, batch);
+        		}
+        		put(codes, End(null));
+        	} catch (StoppedException e) {
+        		return;
+        	} catch (Throwable t) {
+        		/* the decoder sees the error after the codes before it */
+        		put(codes, End(t));
+        	}
+        } catch (Throwable t) {
+        	fail(t);
+        }
+    }
+
+    /*
+     * Decoder stage, replaces the TerseBlockReader
+     */
+    private class QueuedBlockReader extends TerseBlockReader {
+        private Batch current = null;
+        private int next = 0;
+        private boolean eof = false;
+        private Throwable error = null;
+
+        QueuedBlockReader() {
+        	super(ByteBuffer.allocate(0));
+        }
+
+        @Override
+        int GetBloks(int[] out, int offset, int length) throws IOException {
+        	int count = 0;
+        	while (count < length) {
+        		if (current == null || next == current.length) {
+        			if (current != null) {
+        				freeCodes.offer(current);
+        				current = null;
+        			}
+        			if (eof) {
+        				break;
+        			}
+        			Batch batch = take(codes);
+        			if (batch.end) {
+        				eof = true;
+        				error = batch.error;
+        				break;
+        			}
+        			current = batch;
+        			next = 0;
+        		}
+        		int n = Math.min(length - count, current.length - next);
+        		System.arraycopy(current.ints, next, out, offset + count, n);
+        		next += n;
+        		count += n;
+        	}
+        	if (count == 0 && error != null) {
+        		Throwable t = error;
+        		error = null;
+        		rethrow(t);
+        	}
+        	return count;
+        }
+
+        @Override
+        public void close() {
+        	/* the real reader is closed by the decompresser */
+        }
+    }
+
+    /*
+     * Decoder stage, called by TerseDecompresser.PutChar
+     */
+    public void PutChar(int X) throws IOException {
+        if (charCount == charBatch.ints.length) {
+        	sendChars();
+        }
+        charBatch.ints[charCount++] = X;
+    }
+
+    private void sendChars() throws IOException {
+        if (charCount == 0) {
+        	return;
+        }
+        charBatch.length = charCount;
+        put(chars, charBatch);
+        charBatch = take(freeChars);
+        charCount = 0;
+    }
+
+    /*
+     * Framer stage
+     */
+    private void frameChars() {
+        try {
+        	while (true) {
+        		Batch batch = take(chars);
+        		if (batch.end) {
+        			break;
+        		}
+        		int[] ints = batch.ints;
+        		for (int i = 0; i < batch.length; i++) {
+        			decompresser.FrameChar(ints[i]);
+        		}
+        		freeChars.offer(batch);
+        	}
+        	put(bytes, End(null));
+        } catch (Throwable t) {
+        	fail(t);
+        }
+    }
+
+    /*
+     * Framer stage, replaces the output stream
+     */
+    private class QueuedOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+        	write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+        	while (len > 0) {
+        		Batch batch = take(freeBytes);
+        		int n = Math.min(len, batch.bytes.length);
+        		System.arraycopy(b, off, batch.bytes, 0, n);
+        		batch.length = n;
+        		put(bytes, batch);
+        		off += n;
+        		len -= n;
+        	}
+        }
+    }
+
+    /*
+     * Writer stage
+     */
+    private void writeBytes(OutputStream output) {
+        try {
+        	while (true) {
+        		Batch batch = take(bytes);
+        		if (batch.end) {
+        			break;
+        		}
+        		output.write(batch.bytes, 0, batch.length);
+        		freeBytes.offer(batch);
+        	}
+        } catch (Throwable t) {
+        	fail(t);
+        }
+    }
+}
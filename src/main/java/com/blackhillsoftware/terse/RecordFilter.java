@@ -0,0 +1,44 @@
+package com.blackhillsoftware.terse;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Chooses the records TerseDecompresser writes, see setFilter. Records it
+ * rejects are dropped before they are translated or written.
+ */
+interface RecordFilter
+{
+    /*
+     * number counts from 1, and counts every record including the ones which
+     * are rejected. The record is the host data from position to limit, before
+     * translation and without an RDW. It is a view of the decompresser's buffer
+     * and is only valid until this method returns.
+     */
+    boolean accept(long number, ByteBuffer record);
+
+    /*
+     * Records with one of the values at offset, e.g. Include(1, new byte[] { 30 })
+     * for SMF type 30 records. A record too short to hold a value doesn't match it.
+     */
+    static RecordFilter Include(final int offset, final byte[]... values) {
+        if (offset < 0) {
+        	throw new IllegalArgumentException("Negative offset: " + offset);
+        }
+        return (number, record) -> {
+        	int position = record.position() + offset;
+        	for (byte[] value : values) {
+        		if (record.limit() - position < value.length) {
+        			continue;
+        		}
+        		int i = 0;
+        		while (i < value.length && record.get(position + i) == value[i]) {
+        			i++;
+        		}
+        		if (i == value.length) {
+        			return true;
+        		}
+        	}
+        	return false;
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+ * Receives the host records from TerseDecompresser.decodeRecords, one call
+ * per record.
+ */
+interface RecordHandler
+{
+    /*
+     * number counts from 1. The record is the bytes from position to limit,
+     * without an RDW or line separator. It is a view of the decompresser's
+     * buffer and is only valid until this method returns.
+     */
+    void record(long number, ByteBuffer record) throws IOException;
+}
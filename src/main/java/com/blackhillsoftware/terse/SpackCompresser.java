@@ -0,0 +1,269 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+class SpackCompresser extends TerseCompresser {
+
+	SpackCompresser(InputStream instream, OutputStream outputStream, TerseHeader header)
+	{
+		super(instream, outputStream, header);
+	}
+
+    /*
+     * The longest match we will look for, and the size of the lookahead window.
+     */
+    private static final int MAXMATCH = 0x8000;
+
+    /*
+     * The deepest node we will write. SpackDecompresser.PutChars stacks one
+     * entry per level of the tree, so anything deeper would overflow its stack.
+     */
+    private static final int MAXDEPTH = Constants.STACKSIZE - 1;
+
+    /*
+     * The dictionary, maintained exactly as SpackDecompresser maintains it.
+     */
+    private int[] Left = new int[Constants.TREESIZE+1];
+    private int[] Right = new int[Constants.TREESIZE+1];
+    private int[] Back = new int[Constants.TREESIZE+1];
+    private int[] NextCount = new int[Constants.TREESIZE+1];
+    private int TreeAvail;
+
+    /*
+     * Extra information about each node used to find matches: the length of
+     * the string, the depth of the tree and the first character, plus a list
+     * of the nodes which have this node as their Left.
+     */
+    private int[] Length = new int[Constants.TREESIZE+1];
+    private int[] Depth = new int[Constants.TREESIZE+1];
+    private int[] First = new int[Constants.TREESIZE+1];
+    private int[] LeftOf = new int[Constants.TREESIZE+1];
+    private int[] NextLeftOf = new int[Constants.TREESIZE+1];
+    private int[] PrevLeftOf = new int[Constants.TREESIZE+1];
+
+    private int[] Window = new int[MAXMATCH * 2];
+    private int windowPos = 0;
+    private int windowEnd = 0;
+    private boolean inputEnded = false;
+
+    private int[] Stack = new int[Constants.STACKSIZE+1];
+    private int[] Candidates = new int[Constants.TREESIZE+1];
+
+    private void TreeInit() {
+        int init_index = Constants.BASE;
+        while (init_index <= Constants.CODESIZE) {
+            Left[init_index]  = Constants.NONE;
+            Right[init_index] = init_index;
+            Length[init_index] = 1;
+            First[init_index] = init_index;
+            init_index++;
+        }
+        for (init_index = Constants.CODESIZE+1; init_index <= Constants.TREESIZE-1; init_index++) {
+            NextCount[init_index]  = init_index+1;
+            Left[init_index]  = Constants.NONE;
+            Right[init_index] = Constants.NONE;
+        }
+        NextCount[Constants.TREESIZE] = Constants.NONE;
+        NextCount[Constants.BASE] = Constants.BASE;
+        Back[Constants.BASE] = Constants.BASE;
+        for (init_index = 1; init_index <= Constants.CODESIZE; init_index++) {
+            NextCount[init_index] = Constants.NONE;
+        }
+        for (init_index = 0; init_index <= Constants.TREESIZE; init_index++) {
+            LeftOf[init_index] = Constants.NONE;
+        }
+        TreeAvail = Constants.CODESIZE+1;
+    }
+
+    private int GetTreeNode() {
+        int node = TreeAvail;
+        TreeAvail = NextCount[node];
+        return node;
+    }
+
+    private void BumpRef(int bref) {
+        if (NextCount[bref] < 0) {
+            NextCount[bref]--;
+        } else {
+            int forwards = NextCount[bref];
+            int prev = Back[bref];
+            NextCount[prev] = forwards;
+            Back[forwards] = prev;
+            NextCount[bref] = -1;
+        }
+    }
+
+    private void LruKill() {
+        int lru_p = NextCount[0];
+        int lru_q = NextCount[lru_p];
+        int lru_r = Back[lru_p];
+        Back[lru_q] = lru_r;
+        NextCount[lru_r] = lru_q;
+        UnlinkLeftOf(lru_p);
+        DeleteRef(Left[lru_p]);
+        DeleteRef(Right[lru_p]);
+        NextCount[lru_p] = TreeAvail;
+        TreeAvail = lru_p;
+    }
+
+    private void DeleteRef(int dref) {
+        if (NextCount[dref] == -1) {
+            LruAdd(dref);
+        } else {
+            NextCount[dref]++;
+        }
+    }
+
+    private void LruAdd(int lru_next) {
+        int lru_back = Back[Constants.BASE];
+        NextCount[lru_next] = Constants.BASE;
+        Back[Constants.BASE] = lru_next;
+        Back[lru_next] = lru_back;
+        NextCount[lru_back] = lru_next;
+    }
+
+    private void LinkLeftOf(int node) {
+        int left = Left[node];
+        int next = LeftOf[left];
+        NextLeftOf[node] = next;
+        PrevLeftOf[node] = Constants.NONE;
+        if (next != Constants.NONE) {
+            PrevLeftOf[next] = node;
+        }
+        LeftOf[left] = node;
+    }
+
+    private void UnlinkLeftOf(int node) {
+        int next = NextLeftOf[node];
+        int prev = PrevLeftOf[node];
+        if (prev == Constants.NONE) {
+            LeftOf[Left[node]] = next;
+        } else {
+            NextLeftOf[prev] = next;
+        }
+        if (next != Constants.NONE) {
+            PrevLeftOf[next] = prev;
+        }
+    }
+
+    /*
+     * Make sure the window holds MAXMATCH characters, or everything up to
+     * the end of the input.
+     */
+    private void FillWindow() throws IOException {
+        if (windowEnd - windowPos >= MAXMATCH || inputEnded) {
+            return;
+        }
+        System.arraycopy(Window, windowPos, Window, 0, windowEnd - windowPos);
+        windowEnd -= windowPos;
+        windowPos = 0;
+        while (windowEnd < Window.length) {
+            int c = GetChar();
+            if (c == Constants.ENDOFFILE) {
+                inputEnded = true;
+                break;
+            }
+            Window[windowEnd++] = c;
+        }
+    }
+
+    /*
+     * Does the string for node X match the window at position pos?
+     * The caller has checked that the whole string fits in the window.
+     */
+    private boolean Matches(int X, int pos) {
+        int head = 0;
+        while (true) {
+            while (X > Constants.CODESIZE) {
+                Stack[++head] = Right[X];
+                X = Left[X];
+            }
+            if (Window[pos++] != X) {
+                return false;
+            }
+            if (head == 0) {
+                return true;
+            }
+            X = Stack[head--];
+        }
+    }
+
+    /*
+     * Find the longest string in the dictionary matching the window.
+     * Every node that matches has a Left that matches, so search outward
+     * from the single character through the LeftOf lists.
+     */
+    private int LongestMatch() {
+        int available = windowEnd - windowPos;
+        int best = Window[windowPos];
+        int count = 0;
+        Candidates[count++] = best;
+        while (count > 0) {
+            int matched = Candidates[--count];
+            int offset = windowPos + Length[matched];
+            for (int node = LeftOf[matched]; node != Constants.NONE; node = NextLeftOf[node]) {
+                int right = Right[node];
+                if (Length[node] <= available
+                        && Depth[node] <= MAXDEPTH
+                        && First[right] == Window[offset]
+                        && Matches(right, offset)) {
+                    Candidates[count++] = node;
+                    if (Length[node] > Length[best]) {
+                        best = node;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Encode the input using the spack algorithm.
+     * Each code is followed by a new dictionary entry made from the previous
+     * code and this code, and nodes are recycled least recently used first,
+     * just as SpackDecompresser.decode does.
+     */
+    public void encode() throws IOException {
+
+        int N = 0, G = 0, H = 0;
+
+        TreeInit();
+        NextCount[Constants.TREESIZE-1] = Constants.NONE;
+
+        FillWindow();
+        if (windowPos < windowEnd)
+        {
+            H = LongestMatch();
+            windowPos += Length[H];
+            output.PutBlok(H);
+            FillWindow();
+
+            while (windowPos < windowEnd) {
+
+                if (TreeAvail == Constants.NONE) {
+                    LruKill();
+                }
+
+                G = LongestMatch();
+                windowPos += Length[G];
+                output.PutBlok(G);
+
+                N = GetTreeNode();
+                Left[N] = H;
+                Right[N] = G;
+                Length[N] = Length[H] + Length[G];
+                Depth[N] = 1 + Math.max(Depth[H], Depth[G]);
+                First[N] = First[H];
+                LinkLeftOf(N);
+                BumpRef(H);
+                BumpRef(G);
+                LruAdd(N);
+                H = G;
+                FillWindow();
+            }
+        }
+        output.PutBlok(Constants.ENDOFFILE);
+    }
+}
@@ -1,8 +1,11 @@
 package com.blackhillsoftware.terse;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 class SpackDecompresser extends TerseDecompresser {
 	
@@ -10,78 +13,193 @@ class SpackDecompresser extends TerseDecompresser {
 	{
 		super(instream, outputStream, header);
 	}
+
+	SpackDecompresser(TerseBlockReader input, OutputStream outputStream, TerseHeader header)
+	{
+		super(input, outputStream, header);
+	}
 	
-    private int node =0;
+    /*
+     * The dictionary is held in parallel arrays indexed by node rather than
+     * an array of node objects. All the values fit in a short: node numbers
+     * are 12 bits, NONE is -1 and reference counts are stored as negative
+     * NextCount values.
+     */
+    private short[] Left = new short[Constants.TREESIZE+1];
+    private short[] Right = new short[Constants.TREESIZE+1];
+    private short[] Back = new short[Constants.TREESIZE+1];
+    private short[] NextCount = new short[Constants.TREESIZE+1];
 
     private int TreeAvail;
 
-    private TreeRecord Tree[] = new TreeRecord[Constants.TREESIZE+1];
-
     StackType Stack = new StackType();
 
-    private void PutChars(int X) throws IOException {
+    /*
+     * Optional cache of expanded phrases, so a phrase which is used again can be
+     * written with one copy instead of walking the tree. PhraseCacheSize is the
+     * maximum number of bytes to cache, 0 turns the cache off.
+     * A phrase is cached the second time it is used. Phrases containing record
+     * marks or longer than MAXCACHEDPHRASE aren't cached. An entry is dropped when LruKill recycles its node;
+     * nodes never change while they are in use, so nothing else invalidates it.
+     */
+    int PhraseCacheSize = 0;
+    long PhraseCacheHits = 0;
+    long PhraseCacheMisses = 0;
+
+    private static final int MAXCACHEDPHRASE = 0x1000;
+    private static final byte UNCACHEABLE = 2;
+
+    private byte[][] CachedPhrase;
+    private byte[] PhraseUses;
+    private byte[] PhraseScratch;
+    private int CachedBytes = 0;
+
+    private long[] PhraseLength; /* only kept for DecodeMetrics */
+
+    private long Length(int X) {
+        return X > Constants.CODESIZE ? PhraseLength[X] : 1;
+    }
+
+    private boolean PutChars(int X) throws IOException {
+        if (CachedPhrase == null || X <= Constants.CODESIZE) {
+            return PutTreeChars(X);
+        }
+        byte[] phrase = CachedPhrase[X];
+        if (phrase != null) {
+            PhraseCacheHits++;
+            PutBytes(phrase, 0, phrase.length);
+            return true;
+        }
+        PhraseCacheMisses++;
+        int length;
+        if (PhraseUses[X] != 1 || (length = ExpandPhrase(X)) < 0) {
+            if (PhraseUses[X] == 0) {
+                PhraseUses[X] = 1;
+            } else {
+                PhraseUses[X] = UNCACHEABLE;
+            }
+            return PutTreeChars(X);
+        }
+        PutBytes(PhraseScratch, 0, length);
+        if (CachedBytes + length <= PhraseCacheSize) {
+            CachedPhrase[X] = Arrays.copyOf(PhraseScratch, length);
+            CachedBytes += length;
+        }
+        return true;
+    }
+
+    /*
+     * Expand a phrase into PhraseScratch, using cached parts where possible.
+     * Returns the length, or -1 if the phrase contains a record mark or is too
+     * long to cache.
+     */
+    private int ExpandPhrase(int X) {
+        int length = 0;
+        Stack.Head = 0;
+
+        while (true) {
+            byte[] phrase;
+            while (X > Constants.CODESIZE && (phrase = CachedPhrase[X]) == null) {
+                Stack.Head++;
+                Stack.Data[Stack.Head] = Right[X];
+                X = Left[X];
+            }
+            if (X > Constants.CODESIZE) {
+                phrase = CachedPhrase[X];
+                if (length + phrase.length > MAXCACHEDPHRASE) {
+                    return -1;
+                }
+                System.arraycopy(phrase, 0, PhraseScratch, length, phrase.length);
+                length += phrase.length;
+            } else {
+                if (X == Constants.RECORDMARK || length == MAXCACHEDPHRASE) {
+                    return -1;
+                }
+                PhraseScratch[length++] = (byte) (X - 1);
+            }
+
+            if (Stack.Head > 0) {
+                X = Stack.Data[Stack.Head];
+                Stack.Head--;
+            } else
+                break;
+        }
+        return length;
+    }
+
+    /*
+     * Walk the tree writing the characters of a phrase. If a pull reader asks us to
+     * Pause part way through, the rest of the phrase is left on the stack and the
+     * walk is finished by ContinueTreeChars. Returns false if the phrase isn't complete.
+     */
+    private boolean PutTreeChars(int X) throws IOException {
         Stack.Head = 0;
+        return WalkTree(X);
+    }
+
+    private boolean ContinueTreeChars() throws IOException {
+        int X = Stack.Data[Stack.Head];
+        Stack.Head--;
+        return WalkTree(X);
+    }
 
+    private boolean WalkTree(int X) throws IOException {
         while (true) {
             while (X > Constants.CODESIZE) {
                 Stack.Head++;
-                Stack.Data[Stack.Head] = Tree[X].Right;
-                X = Tree[X].Left;
+                Stack.Data[Stack.Head] = Right[X];
+                X = Left[X];
             }
             PutChar( X );
 
             if (Stack.Head > 0) {
+                if (Pause) {
+                    return false;
+                }
                 X = Stack.Data[Stack.Head];
                 Stack.Head--;
             } else
                 break;
         }
-
+        return true;
     }
     
     private void TreeInit() {
 
-        for (int i =0; i < Tree.length; i ++) {
-            Tree[i] = new TreeRecord();
-        }
-
         int init_index = Constants.BASE;
         while (init_index <= Constants.CODESIZE) {
-            Tree[init_index].Left  = Constants.NONE;
-            Tree[init_index].Right = init_index++;
+            Left[init_index]  = Constants.NONE;
+            Right[init_index] = (short) init_index++;
         }
         for (init_index = Constants.CODESIZE+1; init_index <= Constants.TREESIZE-1; init_index++) {
-            Tree[init_index].NextCount  = init_index+1;
-            Tree[init_index].Left  = Constants.NONE;
-            Tree[init_index].Right = Constants.NONE;
+            NextCount[init_index]  = (short) (init_index+1);
+            Left[init_index]  = Constants.NONE;
+            Right[init_index] = Constants.NONE;
         }
-        Tree[Constants.TREESIZE].NextCount = Constants.NONE;
-        Tree[Constants.BASE].NextCount = Constants.BASE;
-        Tree[Constants.BASE].Back = Constants.BASE;
+        NextCount[Constants.TREESIZE] = Constants.NONE;
+        NextCount[Constants.BASE] = Constants.BASE;
+        Back[Constants.BASE] = Constants.BASE;
         for (init_index = 1; init_index <= Constants.CODESIZE; init_index++) {
-            Tree[init_index].NextCount = Constants.NONE;
+            NextCount[init_index] = Constants.NONE;
         }
         TreeAvail = Constants.CODESIZE+1;
     }
     
     private int GetTreeNode() {
-        node = TreeAvail;
-        TreeAvail = Tree[node].NextCount;
+        int node = TreeAvail;
+        TreeAvail = NextCount[node];
         return node;
     }
 
-
-    private int forwards = 0, prev = 0;
-
     private void BumpRef(int bref) {
-        if (Tree[bref].NextCount < 0) {
-            Tree[bref].NextCount--;
+        if (NextCount[bref] < 0) {
+            NextCount[bref]--;
         } else {
-            forwards = Tree[bref].NextCount;
-            prev = Tree[bref].Back;
-            Tree[prev].NextCount = forwards;
-            Tree[forwards].Back = prev;
-            Tree[bref].NextCount = -1;
+            short forwards = NextCount[bref];
+            short prev = Back[bref];
+            NextCount[prev] = forwards;
+            Back[forwards] = prev;
+            NextCount[bref] = -1;
         }
     }
     
@@ -91,53 +209,133 @@ class SpackDecompresser extends TerseDecompresser {
      * The precise use of all of them is unknown!!
      */
 
-    private int lru_p = 0, lru_q = 0, lru_r = 0;
-
     private void LruKill() {
-        lru_p = Tree[0].NextCount;
-        lru_q = Tree[lru_p].NextCount;
-        lru_r = Tree[lru_p].Back;
-        Tree[lru_q].Back = lru_r;
-        Tree[lru_r].NextCount = lru_q;
-        DeleteRef(Tree[lru_p].Left);
-        DeleteRef(Tree[lru_p].Right);
-        Tree[lru_p].NextCount = TreeAvail;
+        short lru_p = NextCount[0];
+        short lru_q = NextCount[lru_p];
+        short lru_r = Back[lru_p];
+        Back[lru_q] = lru_r;
+        NextCount[lru_r] = lru_q;
+        DeleteRef(Left[lru_p]);
+        DeleteRef(Right[lru_p]);
+        if (Metrics != null) {
+            Metrics.Evictions++;
+        }
+        if (CachedPhrase != null) {
+            if (CachedPhrase[lru_p] != null) {
+                CachedBytes -= CachedPhrase[lru_p].length;
+                CachedPhrase[lru_p] = null;
+            }
+            PhraseUses[lru_p] = 0;
+        }
+        NextCount[lru_p] = (short) TreeAvail;
         TreeAvail = lru_p;
     }
 
     private void DeleteRef(int dref) {
-        if (Tree[dref].NextCount == -1) {
+        if (NextCount[dref] == -1) {
             LruAdd(dref);
         } else {
-            Tree[dref].NextCount++;
+            NextCount[dref]++;
         }
     }
 
-
-    private int lru_back=0;
-
     private void LruAdd(int lru_next) {
-        lru_back = Tree[Constants.BASE].Back;
-        Tree[lru_next].NextCount = Constants.BASE;
-        Tree[Constants.BASE].Back = lru_next;
-        Tree[lru_next].Back = lru_back;
-        Tree[lru_back].NextCount = lru_next;
+        short lru_back = Back[Constants.BASE];
+        NextCount[lru_next] = Constants.BASE;
+        Back[Constants.BASE] = (short) lru_next;
+        Back[lru_next] = lru_back;
+        NextCount[lru_back] = (short) lru_next;
     }
 	
+    /*
+     * Decode state, kept between calls to DecodeSome
+     */
+    private boolean Started = false;
+    private boolean PhrasePending = false; /* the rest of a phrase is on the stack */
+    private boolean NodePending = false; /* and then the node for H, G has to be added */
+    private int H = 0, G = 0;
+    private int [] Codes;
+    private int CodeCount = 0, CodeNext = 0;
+
+    void ResetDictionary() {
+        Started = false;
+        PhrasePending = false;
+        NodePending = false;
+        H = 0;
+        G = 0;
+        CodeCount = 0;
+        CodeNext = 0;
+        /* the same state as new arrays, TreeInit only sets some of them */
+        Arrays.fill(Left, (short) 0);
+        Arrays.fill(Right, (short) 0);
+        Arrays.fill(Back, (short) 0);
+        Arrays.fill(NextCount, (short) 0);
+        if (CachedPhrase != null) {
+            Arrays.fill(CachedPhrase, null);
+            Arrays.fill(PhraseUses, (byte) 0);
+        }
+        CachedBytes = 0;
+        PhraseCacheHits = 0;
+        PhraseCacheMisses = 0;
+    }
+
+    void SaveDictionary(DataOutputStream out) throws IOException {
+        out.writeInt(TreeAvail);
+        out.writeInt(H);
+        out.writeInt(G);
+        out.writeBoolean(PhrasePending);
+        out.writeBoolean(NodePending);
+        out.writeInt(Stack.Head);
+        for (int i = 1; i <= Stack.Head; i++) {
+            out.writeInt(Stack.Data[i]);
+        }
+        for (short[] array : new short[][] { Left, Right, Back, NextCount }) {
+            for (short value : array) {
+                out.writeShort(value);
+            }
+        }
+    }
+
+    void RestoreDictionary(DataInputStream in) throws IOException {
+        Started = true;
+        CachedPhrase = null; /* the phrase cache starts empty */
+        PhraseLength = null;
+        if (Codes == null) {
+            Codes = new int[Constants.CODEBATCH];
+        }
+        CodeCount = 0;
+        CodeNext = 0;
+        TreeAvail = in.readInt();
+        H = in.readInt();
+        G = in.readInt();
+        PhrasePending = in.readBoolean();
+        NodePending = in.readBoolean();
+        Stack.Head = in.readInt();
+        for (int i = 1; i <= Stack.Head; i++) {
+            Stack.Data[i] = in.readInt();
+        }
+        for (short[] array : new short[][] { Left, Right, Back, NextCount }) {
+            for (int i = 0; i < array.length; i++) {
+                array[i] = in.readShort();
+            }
+        }
+    }
+
+    int UnreadCodes() {
+        return CodeCount > 0 ? CodeCount - CodeNext : 0;
+    }
+
     /*
      * Decode logic for a file compressed with the spack algorithm
      * Inputstream should wrap the compressed data, outputstream is where we write
      * the decompressed data to.
      */
 
-    public void decode() throws IOException {
+    boolean DecodeSome() throws IOException {
+        StartClock();
               
-        TreeAvail = 0;
-        int N = 0, G = 0, H = 0;
+        int G = 0, H = this.H;
        
-        TreeInit();
-        Tree[Constants.TREESIZE-1].NextCount = Constants.NONE;
-
         // Testing showed that SPACK wrote an extra newline at the end of a VB text file,
         // compared to PACK.
         // On investigation, I found that the SPACK code passed the 0x000 end of file
@@ -158,31 +356,113 @@ class SpackDecompresser extends TerseDecompresser {
         // Terse will not process an empty file so we probably don't have to distinguish
         // between an empty file and 1 record with no data. 
         
-        H = input.GetBlok();
-
-        if (H != Constants.ENDOFFILE)
-        {
-	        PutChars( H );
-            G = input.GetBlok();
-
-        	while (G != Constants.ENDOFFILE) {
-	            
-	        	if (TreeAvail == Constants.NONE) {
-	                LruKill();
-	            }
-	        	
-                PutChars(G);
-	            N = GetTreeNode();
-	            Tree[N].Left = H;
-	            Tree[N].Right = G;
-	            BumpRef(H);
-	            BumpRef(G);
-	            LruAdd(N);
-	            H = G;
-	            G = input.GetBlok();	    
-	        }
+        if (!Started) {
+            Started = true;
+            TreeAvail = 0;
+            TreeInit();
+            NextCount[Constants.TREESIZE-1] = Constants.NONE;
+
+            if (PhraseCacheSize > 0 && CachedPhrase == null) {
+                CachedPhrase = new byte[Constants.TREESIZE+1][];
+                PhraseUses = new byte[Constants.TREESIZE+1];
+                PhraseScratch = new byte[MAXCACHEDPHRASE];
+            } else if (PhraseCacheSize <= 0) {
+                CachedPhrase = null;
+            }
+
+            if (Codes == null) {
+                Codes = new int[Constants.CODEBATCH];
+            }
+
+            if (Metrics == null) {
+                PhraseLength = null;
+            } else if (PhraseLength == null) {
+                PhraseLength = new long[Constants.TREESIZE+1];
+            }
+
+            H = input.GetBlok();
+            this.H = H;
+            if (H == Constants.ENDOFFILE) {
+                CodeNext = CodeCount = -1;
+                return false;
+            }
+            if (PhraseLength != null) {
+                Metrics.Phrase(Length(H));
+            }
+            if (!PutChars( H )) {
+                PhrasePending = true;
+                return true;
+            }
+        } else if (CodeCount < 0) {
+            return false;
+        } else if (PhrasePending) {
+            if (!ContinueTreeChars()) {
+                return true;
+            }
+            PhrasePending = false;
+            if (NodePending) {
+                NodePending = false;
+                H = AddNode(H, this.G);
+            }
         }
 
+        int [] Codes = this.Codes;
+        int CodeCount = this.CodeCount, CodeNext = this.CodeNext;
+
+    	while (true) {
+            if (Pause) {
+                break;
+            }
+            if (CodeNext == CodeCount) {
+                CodeCount = input.GetBloks(Codes, 0, Codes.length);
+                CodeNext = 0;
+                if (CodeCount == 0) {
+                    CodeCount = -1;
+                    break;
+                }
+            }
+            G = Codes[CodeNext++];
+            if (G == Constants.ENDOFFILE) {
+                CodeCount = -1;
+                break;
+            }
+            
+        	if (TreeAvail == Constants.NONE) {
+                LruKill();
+            }
+            if (PhraseLength != null) {
+                Metrics.Phrase(Length(G));
+            }
+        	
+            if (!PutChars(G)) {
+                PhrasePending = true;
+                NodePending = true;
+                this.G = G;
+                break;
+            }
+            H = AddNode(H, G);
+        }
+
+        this.H = H;
+        this.CodeCount = CodeCount;
+        this.CodeNext = CodeNext;
+        return CodeCount >= 0;
+    }
+
+    /*
+     * Add the node for the phrase H followed by the phrase G, G is the next H
+     */
+    private int AddNode(int H, int G) {
+        int N = GetTreeNode();
+        Left[N] = (short) H;
+        Right[N] = (short) G;
+        if (PhraseLength != null) {
+            PhraseLength[N] = Length(H) + Length(G);
+        }
+        BumpRef(H);
+        BumpRef(G);
+        LruAdd(N);
+        return G;
     }
 
 }
@@ -1,6 +1,7 @@
 package com.blackhillsoftware.terse;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 class TerseBlockReader implements AutoCloseable
 {
@@ -9,57 +10,200 @@ class TerseBlockReader implements AutoCloseable
 	public TerseBlockReader(InputStream instream)
 	{
 		this.stream = instream;
+		this.buffer = ByteBuffer.allocate(Constants.READBUFFERSIZE);
+		this.buffer.limit(0);
 	}
-	
+
+	/*
+	 * For subclasses which supply the data in a buffer rather than a stream
+	 */
+	TerseBlockReader(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
 	int bitsAvailable = 0;
 	int savedBits = 0;
-	int red = 0;
-	    
+	long red = 0;
+
+	/*
+	 * Stop after this many bytes of codes, as if the file ended there, see
+	 * TerseDecompresser.setHead. Limited is set if that happens.
+	 */
+	long Limit = Long.MAX_VALUE;
+	boolean Limited = false;
+
+	/* time spent reading the stream, if Timed */
+	boolean Timed = false;
+	long ReadNanos = 0;
+
+	/*
+	 * Input is read in large chunks and unpacked from this buffer. The buffer is
+	 * always ready to be read from, i.e. the unread bytes are position to limit.
+	 */
+	ByteBuffer buffer;
+
+	private int[] single = new int[1];
+
+	/*
+	 * Start reading another stream, reusing the buffer
+	 */
+	void reset(InputStream instream)
+	{
+		this.stream = instream;
+		this.buffer.clear();
+		this.buffer.limit(0);
+		this.bitsAvailable = 0;
+		this.savedBits = 0;
+		this.red = 0;
+		this.Limited = false;
+		this.ReadNanos = 0;
+	}
+
+	/*
+	 * Read the header from the start of the buffer
+	 */
+	TerseHeader ReadHeader() throws IOException
+	{
+		Fill(12); /* a native header is shorter, CheckHeader gives back the rest */
+		return TerseHeader.CheckHeader(buffer);
+	}
+
     /*
      * Read in 12 bits of data, and put them in the bottom of the returned int
      */
 
     int GetBlok() throws IOException {
-   	
-    	if (bitsAvailable == 0)
+    	if (GetBloks(single, 0, 1) == 0)
     	{
-    		int byte1 = stream.read();
-    		if (byte1 == -1)
-    		{
-    			return Constants.ENDOFFILE;
-    		}
-    		red++;
-    		int byte2 = stream.read();
-    		if (byte2 == -1)
+    		return Constants.ENDOFFILE;
+    	}
+    	return single[0];
+    }
+
+    /*
+     * Read up to length 12 bit codes into the codes array, returning the number read.
+     * Returns 0 at the end of the file. The end of file rules are the same as reading
+     * the codes one at a time: a code is only complete when we have 12 bits, 4 bits
+     * left at the end are padding, and 8 bits left at the end are an error - but we
+     * return the complete codes before reporting the error.
+     */
+
+    int GetBloks(int[] codes, int offset, int length) throws IOException {
+    	if (Limit != Long.MAX_VALUE)
+    	{
+    		// only the codes which end before the limit
+    		long allowed = ((Limit - red) * 8 + bitsAvailable) / 12;
+    		if (allowed <= 0)
     		{
-    			throw new IOException("Tried to read 12 bits but found EOF after reading 8 bits.");
+    			Limited = true;
+    			return 0;
     		}
-    		red++;
-    		// save the last 4 bits of the second byte
-    		savedBits = byte2 & 0x0F;
-    		bitsAvailable = 4;
-    		
-    		return (byte1 << 4) | (byte2 >> 4);
+    		length = (int) Math.min(length, allowed);
     	}
-    	else
+    	int count = 0;
+    	while (count < length)
     	{
-    		if (bitsAvailable != 4)
+    		if (bitsAvailable == 0)
     		{
-    			// should never happen, if it does we made an error
-    			throw new IOException("Unexpected count of bits available");
+    			// unpack whole 3 byte groups, 2 codes per group
+    			ByteBuffer b = buffer;
+    			int p = b.position();
+    			int groups = Math.min((b.limit() - p) / 3, (length - count) / 2);
+    			int o = offset + count;
+    			for (int i = 0; i < groups; i++)
+    			{
+    				int byte1 = b.get(p) & 0xFF;
+    				int byte2 = b.get(p + 1) & 0xFF;
+    				int byte3 = b.get(p + 2) & 0xFF;
+    				codes[o] = (byte1 << 4) | (byte2 >> 4);
+    				codes[o + 1] = ((byte2 & 0x0F) << 8) | byte3;
+    				p += 3;
+    				o += 2;
+    			}
+    			b.position(p);
+    			red += groups * 3;
+    			count += groups * 2;
+
+    			if (count == length)
+    			{
+    				break;
+    			}
+    			if (!Fill(2))
+    			{
+    				if (!buffer.hasRemaining() || count > 0)
+    				{
+    					return count;
+    				}
+    				throw new IOException("Tried to read 12 bits but found EOF after reading 8 bits.");
+    			}
+    			if (buffer.remaining() >= 3 && length - count >= 2)
+    			{
+    				continue;
+    			}
+
+    			// a single code, save the last 4 bits of the second byte
+    			int byte1 = buffer.get() & 0xFF;
+    			int byte2 = buffer.get() & 0xFF;
+    			red += 2;
+    			savedBits = byte2 & 0x0F;
+    			bitsAvailable = 4;
+    			codes[offset + count++] = (byte1 << 4) | (byte2 >> 4);
     		}
-    		
-    		int byte2 = stream.read();
-    		if (byte2 == -1)
+    		else
+    		{
+    			if (bitsAvailable != 4)
+    			{
+    				// should never happen, if it does we made an error
+    				throw new IOException("Unexpected count of bits available");
+    			}
+    			if (!Fill(1))
+    			{
+    				// assume the 4 bits in the last block were the last real data and
+    				// these 4 bits only exist because you can't write 1/2 a byte
+    				// i.e. this is EOF
+    				return count;
+    			}
+    			int byte2 = buffer.get() & 0xFF;
+    			red++;
+    			bitsAvailable = 0;
+    			codes[offset + count++] = (savedBits << 8) | byte2;
+    		}
+    	}
+    	return count;
+    }
+
+    /*
+     * Make sure there are at least n bytes in the buffer, reading more if necessary.
+     * Returns false if the file ends first.
+     */
+    boolean Fill(int n) throws IOException {
+    	if (buffer.remaining() >= n)
+    	{
+    		return true;
+    	}
+    	buffer.compact();
+    	long start = Timed ? System.nanoTime() : 0;
+    	try
+    	{
+	    	while (buffer.position() < n)
+	    	{
+	    		int count = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+	    		if (count == -1)
+	    		{
+	    			return false;
+	    		}
+	    		buffer.position(buffer.position() + count);
+	    	}
+	    	return true;
+    	}
+    	finally
+    	{
+    		buffer.flip();
+    		if (Timed)
     		{
-    			// assume the 4 bits in the last block were the last real data and 
-    			// these 4 bits only exist because you can't write 1/2 a byte 
-    			// i.e. this is EOF
-    			return Constants.ENDOFFILE;
+    			ReadNanos += System.nanoTime() - start;
     		}
-    		red++;
-    		bitsAvailable = 0;
-    		return (savedBits << 8) | byte2;
     	}
     }
 
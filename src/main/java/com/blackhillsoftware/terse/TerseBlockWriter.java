@@ -0,0 +1,49 @@
+package com.blackhillsoftware.terse;
+
+import java.io.*;
+
+class TerseBlockWriter implements AutoCloseable
+{
+	OutputStream stream;
+
+	public TerseBlockWriter(OutputStream outstream)
+	{
+		this.stream = outstream;
+	}
+
+	int bitsAvailable = 0;
+	int savedBits = 0;
+
+    /*
+     * Write the bottom 12 bits of the argument, the counterpart of TerseBlockReader.GetBlok.
+     * Two codes are written to every 3 bytes.
+     */
+
+    void PutBlok(int code) throws IOException {
+
+    	if (bitsAvailable == 0)
+    	{
+    		stream.write(code >> 4);
+    		// save the last 4 bits for the top of the next byte
+    		savedBits = code & 0x0F;
+    		bitsAvailable = 4;
+    	}
+    	else
+    	{
+    		stream.write((savedBits << 4) | (code >> 8));
+    		stream.write(code & 0xFF);
+    		bitsAvailable = 0;
+    	}
+    }
+
+	@Override
+	public void close() throws IOException {
+		if (bitsAvailable != 0)
+		{
+			// pad the last half byte, GetBlok treats the padding as end of file
+			stream.write(savedBits << 4);
+			bitsAvailable = 0;
+		}
+		stream.close();
+	}
+}
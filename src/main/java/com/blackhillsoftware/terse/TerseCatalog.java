@@ -0,0 +1,163 @@
+package com.blackhillsoftware.terse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Classify terse files by reading only their headers: PACK or SPACK, FB or VB,
+ * the record length, host or native, or not a terse file at all.
+ *
+ * The decompressed size can't be known without decoding, so it is estimated.
+ * Every 12 bit code expands to at least one character, so the number of codes
+ * in the file is a lower bound. The estimate is the file size times Ratio,
+ * decompressed / compressed size. The default is a guess for typical host
+ * data, -metrics on a decode of similar files gives the real ratio.
+ */
+class TerseCatalog
+{
+	int Threads = Runtime.getRuntime().availableProcessors();
+	double Ratio = 3.0;
+
+	/* One file in the catalog */
+	static class Entry
+	{
+		Path File;
+		long Size;
+		boolean Valid;
+		String Error;    /* why it isn't valid */
+		int Version;
+		boolean Spack;
+		boolean Host;
+		boolean Variable;
+		int RecordLength;
+		long MinimumSize;
+		long EstimatedSize;
+
+		String Algorithm() {
+			return Spack ? "SPACK" : "PACK";
+		}
+
+		String Recfm() {
+			return !Host ? "native" : Variable ? "VB" : "FB";
+		}
+	}
+
+    /*
+     * Read the header of one file. A file which can't be read or isn't a
+     * terse file gives an entry with Valid false.
+     */
+    Entry Scan(Path file) {
+        Entry entry = new Entry();
+        entry.File = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        	entry.Size = channel.size();
+        	ByteBuffer buffer = ByteBuffer.allocate(12);
+        	while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+        		/* a short read e.g. from a network file system */
+        	}
+        	buffer.flip();
+        	TerseHeader header = TerseHeader.CheckHeader(buffer);
+        	entry.Valid = true;
+        	entry.Version = header.VersionFlag;
+        	entry.Spack = header.SpackFlag;
+        	entry.Host = header.HostFlag;
+        	entry.Variable = header.RecfmV;
+        	entry.RecordLength = header.RecordLength;
+        	entry.MinimumSize = (entry.Size - buffer.position()) * 2 / 3;
+        	entry.EstimatedSize = Math.max(entry.MinimumSize, (long) (entry.Size * Ratio));
+        } catch (EOFException e) {
+        	entry.Valid = false;
+        	entry.Error = "File is too short for a terse header";
+        } catch (IOException e) {
+        	entry.Valid = false;
+        	entry.Error = e.getMessage() != null ? e.getMessage() : e.toString();
+        }
+        return entry;
+    }
+
+    /*
+     * Scan all the files, Threads at a time. The entries are in the same order
+     * as the files.
+     */
+    List<Entry> Scan(List<Path> files) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(Threads, 1));
+        List<Future<Entry>> results = new ArrayList<>(files.size());
+        List<Entry> entries = new ArrayList<>(files.size());
+        try {
+        	for (final Path file : files) {
+        		results.add(executor.submit(() -> Scan(file)));
+        	}
+        	for (Future<Entry> result : results) {
+        		entries.add(result.get());
+        	}
+        } finally {
+        	executor.shutdown();
+        }
+        return entries;
+    }
+
+    static void WriteCsv(List<Entry> entries, PrintStream out) {
+        out.println("file,size,valid,version,algorithm,recfm,lrecl,minimumsize,estimatedsize,error");
+        for (Entry entry : entries) {
+        	out.println(Csv(entry.File.toString()) + "," + entry.Size + "," + entry.Valid + ","
+        			+ (entry.Valid ? String.format("0x%02X,%s,%s,%d,%d,%d,",
+        					entry.Version, entry.Algorithm(), entry.Recfm(), entry.RecordLength,
+        					entry.MinimumSize, entry.EstimatedSize)
+        				: ",,,,,," + Csv(entry.Error)));
+        }
+    }
+
+    private static String Csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+        	return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    static void WriteJson(List<Entry> entries, PrintStream out) {
+        out.println("[");
+        for (int i = 0; i < entries.size(); i++) {
+        	Entry entry = entries.get(i);
+        	StringBuilder json = new StringBuilder("  {\"file\": ").append(Json(entry.File.toString()))
+        			.append(", \"size\": ").append(entry.Size)
+        			.append(", \"valid\": ").append(entry.Valid);
+        	if (entry.Valid) {
+        		json.append(", \"version\": \"").append(String.format("0x%02X", entry.Version)).append('"')
+        			.append(", \"algorithm\": \"").append(entry.Algorithm()).append('"')
+        			.append(", \"recfm\": \"").append(entry.Recfm()).append('"')
+        			.append(", \"lrecl\": ").append(entry.RecordLength)
+        			.append(", \"minimumSize\": ").append(entry.MinimumSize)
+        			.append(", \"estimatedSize\": ").append(entry.EstimatedSize);
+        	} else {
+        		json.append(", \"error\": ").append(Json(entry.Error));
+        	}
+        	out.println(json.append(i < entries.size() - 1 ? "}," : "}"));
+        }
+        out.println("]");
+    }
+
+    private static String Json(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+        	char c = value.charAt(i);
+        	if (c == '"' || c == '\\') {
+        		json.append('\\').append(c);
+        	} else if (c < 0x20) {
+        		json.append(String.format("\\u%04x", (int) c));
+        	} else {
+        		json.append(c);
+        	}
+        }
+        return json.append('"').toString();
+    }
+}
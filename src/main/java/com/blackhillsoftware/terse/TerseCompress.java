@@ -0,0 +1,105 @@
+package com.blackhillsoftware.terse;
+
+/**
+  Copyright Contributors to the TerseDecompress Project.
+  SPDX-License-Identifier: Apache-2.0
+**/
+
+import java.io.*;
+
+class TerseCompress {
+
+    private static final String DetailedHelp = new String(
+            "Usage: \"TerseCompress <input file> <output file> [-b] [-v] [-pack] [-lrecl <n>]\"\n\n"
+           +"Java TerseCompress will compress a file in the format that the terse program on z/OS can decompress\n"
+           +"Default mode is text mode, which will convert lines from ASCII to ebcdic records\n"
+           +"The -b flag turns on binary mode, no conversion will be attempted\n"
+           +"The -v flag writes RECFM=VB records. Binary VB input must have a 4 byte RDW on each record\n"
+           +"The -pack flag uses the PACK algorithm instead of SPACK\n"
+           +"The -lrecl flag sets the record length, default 80 for RECFM=FB and 32756 for RECFM=VB\n"
+          );
+
+    private static final String Version = new String ("Version 5, March 2020");
+
+	private void printUsageAndExit() {
+		System.out.println(DetailedHelp);
+		System.out.println(Version);
+        System.exit(0);
+	}
+
+    private void process (String args[]) throws Exception {
+
+    	String inputFileName = null;
+    	String outputFileName = null;
+    	boolean textMode = true;
+    	boolean variable = false;
+    	boolean spack = true;
+    	int recordLength = 0;
+
+    	if (args.length == 0)
+        {
+            printUsageAndExit();
+        }
+
+    	for (int i=0; i < args.length; i++)
+    	{
+    		if (args[i].equals("-h") || args[i].equals("--help"))
+    		{
+                printUsageAndExit();
+    		}
+    		else if (args[i].equals("-b"))
+    		{
+    			textMode = false;
+    		}
+    		else if (args[i].equals("-v"))
+    		{
+    			variable = true;
+    		}
+    		else if (args[i].equals("-pack"))
+    		{
+    			spack = false;
+    		}
+    		else if (args[i].equals("-lrecl") && i + 1 < args.length)
+    		{
+    			recordLength = Integer.parseInt(args[++i]);
+    		}
+    		// first non-flag argument is the input file name
+    		else if (inputFileName == null)
+    		{
+    			inputFileName = args[i];
+    		}
+    		// second non-flag argument is the output file name
+    		else if (outputFileName == null)
+    		{
+    			outputFileName = args[i];
+    		}
+    		else // we have more args than we know what to do with
+    		{
+                printUsageAndExit();
+    		}
+    	}
+
+    	if (recordLength == 0)
+    	{
+    		recordLength = variable ? 32756 : 80;
+    	}
+
+        try (TerseCompresser outputWriter
+        		= TerseCompresser.create(new FileInputStream(inputFileName), new FileOutputStream(outputFileName),
+        				spack, variable, recordLength))
+        {
+        	outputWriter.TextFlag = textMode;
+	        System.out.println("Attempting to compress input file (" + inputFileName +") to output file (" + outputFileName +")");
+	        outputWriter.encode();
+        }
+
+        System.out.println("Processing completed");
+    }
+
+    public static void main (String args[]) throws Exception {
+
+        TerseCompress terse = new TerseCompress();
+        terse.process(args);
+    }
+
+}
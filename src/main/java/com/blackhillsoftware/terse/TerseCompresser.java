@@ -0,0 +1,151 @@
+package com.blackhillsoftware.terse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/*
+ * The counterpart of TerseDecompresser. Reads data in the format written by
+ * TerseDecompresser and writes a host mode (version 0x02/0x05) terse file.
+ *
+ * Text mode reads lines, translates them ASCII -> EBCDIC and writes each line
+ * as a record, padded with blanks to the record length if RECFM=FB.
+ * Binary mode reads the bytes as they are for RECFM=FB, or records with a
+ * 4 byte RDW for RECFM=VB.
+ */
+abstract class TerseCompresser implements AutoCloseable
+{
+	InputStream input;
+	TerseBlockWriter output;
+
+	boolean TextFlag;
+	boolean VariableFlag;
+
+    int         RecordLength; /* host perspective record length           */
+
+    private byte[] record;
+    private int recordPos = 0;
+    private int recordEnd = 0;
+    private long recordCount = 0;
+
+    public abstract void encode() throws IOException;
+
+    public static TerseCompresser create(InputStream inputStream, OutputStream outputStream,
+    		boolean spack, boolean variable, int recordLength) throws IOException
+    {
+        TerseHeader header = TerseHeader.CreateHeader(spack, variable, recordLength);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        header.WriteHeader(output);
+
+        if (!header.SpackFlag) {
+        	return new NonSpackCompresser(inputStream, output, header);
+        } else {
+        	return new SpackCompresser(inputStream, output, header);
+        }
+    }
+
+	public TerseCompresser(InputStream instream, OutputStream outputStream, TerseHeader header)
+	{
+		this.RecordLength = header.RecordLength;
+		this.VariableFlag = header.RecfmV;
+		this.input = new BufferedInputStream(instream);
+		this.output = new TerseBlockWriter(outputStream);
+
+		this.record = new byte[Math.max(RecordLength, 0x10000)];
+	}
+
+    /*
+     * Get the next input character in the form the decoders write it:
+     * byte value + 1, RECORDMARK between VB records, and ENDOFFILE
+     * when the input is exhausted.
+     */
+
+    int GetChar() throws IOException {
+        while (recordPos == recordEnd) {
+            if (!readRecord()) {
+                return Constants.ENDOFFILE;
+            }
+            if (VariableFlag && recordCount > 1) {
+                return Constants.RECORDMARK;
+            }
+        }
+        return (record[recordPos++] & 0xFF) + 1;
+    }
+
+    /*
+     * Read the next record into the record buffer. Binary RECFM=FB data
+     * isn't split into records, it is just read a buffer at a time.
+     */
+    private boolean readRecord() throws IOException {
+        recordPos = 0;
+        recordEnd = 0;
+        if (TextFlag) {
+            int c = input.read();
+            if (c == -1) {
+                return false;
+            }
+            while (c != -1 && c != '\n') {
+                if (recordEnd == record.length) {
+                    throw new IOException("Record " + (recordCount + 1) + " is longer than record length " + RecordLength);
+                }
+                record[recordEnd++] = (byte) Constants.AscToEbc[c];
+                c = input.read();
+            }
+            // lines written on Windows end with CR LF
+            if (recordEnd > 0 && record[recordEnd - 1] == (byte) Constants.AscToEbc['\r']) {
+                recordEnd--;
+            }
+            int maximum = VariableFlag ? RecordLength - 4 : RecordLength;
+            if (recordEnd > maximum) {
+                throw new IOException("Record " + (recordCount + 1) + " is longer than record length " + RecordLength);
+            }
+            if (!VariableFlag) {
+                while (recordEnd < RecordLength) {
+                    record[recordEnd++] = (byte) Constants.AscToEbc[' '];
+                }
+            }
+        } else if (VariableFlag) {
+            int rdw1 = input.read();
+            if (rdw1 == -1) {
+                return false;
+            }
+            int rdw2 = input.read();
+            int rdw3 = input.read();
+            int rdw4 = input.read();
+            if (rdw4 == -1) {
+                throw new IOException("EOF reading RDW for record " + (recordCount + 1));
+            }
+            int length = ((rdw1 << 8) | rdw2) - 4;
+            if (length < 0 || rdw3 != 0 || rdw4 != 0) {
+                throw new IOException("Invalid RDW for record " + (recordCount + 1));
+            }
+            if (length > RecordLength - 4) {
+                throw new IOException("Record " + (recordCount + 1) + " is longer than record length " + RecordLength);
+            }
+            while (recordEnd < length) {
+                int count = input.read(record, recordEnd, length - recordEnd);
+                if (count == -1) {
+                    throw new IOException("EOF reading record " + (recordCount + 1));
+                }
+                recordEnd += count;
+            }
+        } else {
+            int count = input.read(record, 0, record.length);
+            if (count == -1) {
+                return false;
+            }
+            recordEnd = count;
+        }
+        recordCount++;
+        return true;
+    }
+
+	@Override
+	public void close() throws IOException {
+		this.output.close();
+		this.input.close();
+	}
+}
@@ -33,14 +33,68 @@ package com.blackhillsoftware.terse;
 /*****************************************************************************/
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 
 class TerseDecompress {
 
     private static final String DetailedHelp = new String(
-            "Usage: \"TerseDecompress <input file> <output file> [-b]\"\n\n"
+            "Usage: \"TerseDecompress <input file> <output file> [-b] [-codepage <cp> [-encoding <charset>]] [-pipeline | -parallelformat] [-gzip [-level <n>]] [-memorylimit <MB>] [-head <n>] [-headbytes <n>] [-headinput <n>]\n"
+           +"       [-include <pos>=<hex>[,<hex>...]] [-columns <from>-<to>[,<from>-<to>...]] [-phrasecache <KB>] [-cache <dir> [-cachesize <MB>]] [-metrics] [-jmx]\n"
+           +"       [-index <file> [-interval <MB>] | -index <file> -offset <n> [-length <n>]]\"\n\n"
            +"Java TerseDecompress will decompress a file compressed using the terse program on z/OS\n"
            +"Default mode is text mode, which will attempt ebcdic -> ASCII conversion\n"
            +"The -b flag turns on binary mode, no conversion will be attempted\n"
+           +"-codepage <cp> translates text from EBCDIC code page <cp> e.g. 037, 1047, 273, 500\n"
+           +"to UTF-8, or to the encoding given by -encoding <charset>\n"
+           +"The -pipeline flag decodes on 4 threads: reading, decoding, translating and writing\n"
+           +"The -parallelformat flag translates and builds records on all cores while one thread decodes\n"
+           +"The -gzip flag writes the output gzip compressed, compressing blocks on all cores.\n"
+           +"-level sets the compression level, 1 (fastest) to 9 (smallest), default 6\n"
+           +"The -memorylimit flag limits the output held in memory. Binary RECFM=VB records\n"
+           +"that don't fit are written in spanned segments of up to 32756 bytes\n"
+           +"-head <n> decompresses only the first <n> records, -headbytes <n> the first <n> bytes\n"
+           +"of output and -headinput <n> the first <n> bytes of the input file. Decoding stops\n"
+           +"at the first limit reached and the rest of the file is not read\n"
+           +"-include <pos>=<hex>[,<hex>...] writes only the records with one of the hex values at\n"
+           +"position <pos> (from 1, not counting the RDW) before translation, e.g. -include 2=1E,46\n"
+           +"for SMF type 30 and 70 records. -columns <from>-<to>[,...] writes only those positions\n"
+           +"of each record. Records that aren't included are never translated or written\n"
+           +"The -phrasecache flag caches up to <KB> kilobytes of expanded phrases when\n"
+           +"decompressing a SPACK file, and reports the cache hits and misses\n"
+           +"The -cache flag keeps decompressed files in <dir>, so decompressing the same file\n"
+           +"again in the same mode copies the result. -cachesize limits the directory size,\n"
+           +"default 1024 MB\n"
+           +"The -metrics flag prints bytes in and out, codes, records, phrase lengths,\n"
+           +"dictionary evictions and the time spent reading, decoding and writing.\n"
+           +"-jmx publishes the same totals as the MBean " + DecodeStatistics.OBJECTNAME + "\n"
+           +"The -index flag also writes an index of the file, with a checkpoint every <MB> of\n"
+           +"output (default 16). With -offset the index is read instead, and only <n> bytes\n"
+           +"(default the rest of the file) from offset <n> are decompressed, starting at the\n"
+           +"nearest checkpoint\n\n"
+           +"Batch mode: \"TerseDecompress -batch <input dir | glob | @listfile> <output dir> [-b]\n"
+           +"            [-threads <n>] [-virtual] [-name <pattern>] [-cache <dir> [-cachesize <MB>]]\n"
+           +"            [-gzip [-level <n>]] [-memorylimit <MB>] [-include ...] [-columns ...] [-metrics] [-jmx]\"\n"
+           +"Decompresses many files in one run, <n> at a time (default: number of processors).\n"
+           +"-virtual uses virtual threads on Java 21 and later. Output files are named by\n"
+           +"<pattern>, where {name} is the input name without its extension and {file} is\n"
+           +"the whole input name. Default {name}.txt, or {name}.bin with -b, with .gz added for -gzip\n\n"
+           +"Scan mode: \"TerseDecompress -scan <input dir | glob | @listfile> [<catalog.csv | catalog.json>]\n"
+           +"            [-threads <n>] [-ratio <r>]\"\n"
+           +"Reads only the headers and writes a catalog of the files: PACK or SPACK, FB, VB or\n"
+           +"native, the record length, or why a file isn't valid, with a decompressed size\n"
+           +"estimated as <r> times the file size (default 3). Without a catalog name the\n"
+           +"CSV is written to stdout\n\n"
+           +"Verify mode: \"TerseDecompress -verify <input file | dir | glob | @listfile> [-b] [-codepage <cp>]\n"
+           +"            [-checksum] [-threads <n>]\"\n"
+           +"Decodes without writing any output, and reports for each file the number of records\n"
+           +"and the size of the output in that mode, or why it failed. -checksum adds a CRC-32\n"
+           +"of the record data before translation. Exits with 1 if any file fails\n"
           );
 
     private static final String Version = new String ("Version 5, March 2020");
@@ -56,6 +110,35 @@ class TerseDecompress {
     	String inputFileName = null;
     	String outputFileName = null;
     	boolean textMode = true;   	
+    	int phraseCacheKB = 0;
+    	String cacheDirectory = null;
+    	long cacheMB = 1024;
+    	boolean batch = false;
+    	int threads = 0;
+    	boolean virtual = false;
+    	String namePattern = null;
+    	String codePageName = null;
+    	String encoding = null;
+    	boolean pipelined = false;
+    	boolean parallelFormat = false;
+    	boolean gzip = false;
+    	int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+    	int memoryLimitMB = 0;
+    	long headRecords = 0;
+    	long headBytes = 0;
+    	long headInput = 0;
+    	RecordFilter filter = null;
+    	int[] columns = null;
+    	boolean metrics = false;
+    	boolean scan = false;
+    	boolean verify = false;
+    	boolean checksum = false;
+    	String indexFileName = null;
+    	long intervalMB = TerseIndex.DEFAULTINTERVAL / (1024 * 1024);
+    	long offset = -1;
+    	long length = -1;
+    	double ratio = 0;
+    	boolean jmx = false;
     	
     	if (args.length == 0) 
         {
@@ -72,6 +155,122 @@ class TerseDecompress {
     		{
     			textMode = false;
     		}
+    		else if (args[i].equals("-phrasecache") && i + 1 < args.length)
+    		{
+    			phraseCacheKB = Integer.parseInt(args[++i]);
+    		}
+    		else if (args[i].equals("-cache") && i + 1 < args.length)
+    		{
+    			cacheDirectory = args[++i];
+    		}
+    		else if (args[i].equals("-cachesize") && i + 1 < args.length)
+    		{
+    			cacheMB = Long.parseLong(args[++i]);
+    		}
+    		else if (args[i].equals("-codepage") && i + 1 < args.length)
+    		{
+    			codePageName = args[++i];
+    		}
+    		else if (args[i].equals("-encoding") && i + 1 < args.length)
+    		{
+    			encoding = args[++i];
+    		}
+    		else if (args[i].equals("-pipeline"))
+    		{
+    			pipelined = true;
+    		}
+    		else if (args[i].equals("-parallelformat"))
+    		{
+    			parallelFormat = true;
+    		}
+    		else if (args[i].equals("-gzip"))
+    		{
+    			gzip = true;
+    		}
+    		else if (args[i].equals("-level") && i + 1 < args.length)
+    		{
+    			gzipLevel = Integer.parseInt(args[++i]);
+    		}
+    		else if (args[i].equals("-memorylimit") && i + 1 < args.length)
+    		{
+    			memoryLimitMB = Integer.parseInt(args[++i]);
+    		}
+    		else if (args[i].equals("-head") && i + 1 < args.length)
+    		{
+    			headRecords = Long.parseLong(args[++i]);
+    		}
+    		else if (args[i].equals("-headbytes") && i + 1 < args.length)
+    		{
+    			headBytes = Long.parseLong(args[++i]);
+    		}
+    		else if (args[i].equals("-headinput") && i + 1 < args.length)
+    		{
+    			headInput = Long.parseLong(args[++i]);
+    		}
+    		else if (args[i].equals("-include") && i + 1 < args.length)
+    		{
+    			filter = ParseInclude(args[++i]);
+    		}
+    		else if (args[i].equals("-columns") && i + 1 < args.length)
+    		{
+    			columns = ParseColumns(args[++i]);
+    		}
+    		else if (args[i].equals("-metrics"))
+    		{
+    			metrics = true;
+    		}
+    		else if (args[i].equals("-jmx"))
+    		{
+    			jmx = true;
+    		}
+    		else if (args[i].equals("-index") && i + 1 < args.length)
+    		{
+    			indexFileName = args[++i];
+    		}
+    		else if (args[i].equals("-interval") && i + 1 < args.length)
+    		{
+    			intervalMB = Long.parseLong(args[++i]);
+    		}
+    		else if (args[i].equals("-offset") && i + 1 < args.length)
+    		{
+    			offset = Long.parseLong(args[++i]);
+    		}
+    		else if (args[i].equals("-length") && i + 1 < args.length)
+    		{
+    			length = Long.parseLong(args[++i]);
+    		}
+    		else if (args[i].equals("-scan"))
+    		{
+    			scan = true;
+    		}
+    		else if (args[i].equals("-verify"))
+    		{
+    			verify = true;
+    		}
+    		else if (args[i].equals("-checksum"))
+    		{
+    			checksum = true;
+    		}
+    		else if (args[i].equals("-ratio") && i + 1 < args.length)
+    		{
+    			ratio = Double.parseDouble(args[++i]);
+    		}
+    		else if (args[i].equals("-batch"))
+    		{
+    			batch = true;
+    		}
+    		else if (args[i].equals("-threads") && i + 1 < args.length)
+    		{
+    			threads = Integer.parseInt(args[++i]);
+    		}
+    		else if (args[i].equals("-virtual"))
+    		{
+    			virtual = true;
+    		}
+    		else if (args[i].equals("-name") && i + 1 < args.length)
+    		{
+    			namePattern = args[++i];
+    		}
     		// first non-flag argument is the input file name 
     		else if (inputFileName == null)
     		{
@@ -88,18 +287,349 @@ class TerseDecompress {
     		}
     	}
 
+    	if (scan && inputFileName != null)
+    	{
+    		Scan(inputFileName, outputFileName, threads, ratio);
+    		return;
+    	}
+
+    	if (verify)
+    	{
+    		/* verify mode writes nothing, so an output name is a mistake */
+    		if (inputFileName == null || outputFileName != null)
+    		{
+    			printUsageAndExit();
+    		}
+    		CodePage verifyCodePage = codePageName != null ? CodePage.forName(codePageName, encoding) : CodePage.DEFAULT;
+    		if (!Verify(inputFileName, textMode, verifyCodePage, checksum, threads))
+    		{
+    			System.exit(1);
+    		}
+    		return;
+    	}
+
+    	if (inputFileName == null || outputFileName == null)
+    	{
+    		printUsageAndExit();
+    	}
+
+    	if (gzip && (cacheDirectory != null || indexFileName != null))
+    	{
+    		System.out.println("-gzip can't be used with -cache or -index");
+    		System.exit(1);
+    	}
+
+    	if ((filter != null || columns != null) && (cacheDirectory != null || indexFileName != null))
+    	{
+    		System.out.println("-include and -columns can't be used with -cache or -index");
+    		System.exit(1);
+    	}
+
+    	boolean head = headRecords > 0 || headBytes > 0 || headInput > 0;
+    	if (head && (batch || cacheDirectory != null || indexFileName != null))
+    	{
+    		System.out.println("-head, -headbytes and -headinput can't be used with -batch, -cache or -index");
+    		System.exit(1);
+    	}
+
+    	/* the same checks as TerseDecompresser makes, before anything is opened */
+    	if (head && (pipelined || parallelFormat))
+    	{
+    		System.out.println("-head, -headbytes and -headinput can't be used with -pipeline or -parallelformat");
+    		System.exit(1);
+    	}
+
+    	if (pipelined && parallelFormat)
+    	{
+    		System.out.println("-pipeline and -parallelformat can't be used together");
+    		System.exit(1);
+    	}
+
+    	if (memoryLimitMB > 0 && !textMode && (filter != null || columns != null))
+    	{
+    		/* a RECFM=VB file can't be filtered within a limit, and which files are isn't known yet */
+    		System.out.println("-memorylimit can't be used with -include or -columns in binary mode");
+    		System.exit(1);
+    	}
+
+    	CodePage codePage = CodePage.DEFAULT;
+    	if (codePageName != null)
+    	{
+    		codePage = CodePage.forName(codePageName, encoding);
+    	}
+
+    	DecodeStatistics statistics = null;
+    	if (metrics || jmx)
+    	{
+    		statistics = new DecodeStatistics();
+    		if (jmx)
+    		{
+    			statistics.register();
+    		}
+    	}
+
+    	if (batch)
+    	{
+    		BatchDecompress batchDecompress = new BatchDecompress();
+    		batchDecompress.TextFlag = textMode;
+    		batchDecompress.VirtualThreads = virtual;
+    		batchDecompress.TextCodePage = codePage;
+    		if (threads > 0)
+    		{
+    			batchDecompress.Threads = threads;
+    		}
+    		batchDecompress.OutputPattern = namePattern != null ? namePattern
+    				: (textMode ? "{name}.txt" : "{name}.bin") + (gzip ? ".gz" : "");
+    		batchDecompress.Gzip = gzip;
+    		batchDecompress.GzipLevel = gzipLevel;
+    		batchDecompress.MemoryLimit = (int) Math.min(memoryLimitMB * 1024L * 1024, Integer.MAX_VALUE);
+    		batchDecompress.Filter = filter;
+    		batchDecompress.Columns = columns;
+    		if (cacheDirectory != null)
+    		{
+    			batchDecompress.Cache = new DecompressCache(Paths.get(cacheDirectory), cacheMB * 1024 * 1024);
+    		}
+    		batchDecompress.Listener = statistics;
+    		long failures = batchDecompress.run(BatchDecompress.ListInputs(inputFileName), Paths.get(outputFileName));
+    		if (metrics)
+    		{
+    			System.out.println("Metrics: " + statistics.Totals());
+    		}
+    		if (failures > 0)
+    		{
+    			System.exit(1);
+    		}
+    		return;
+    	}
+
+    	if (cacheDirectory != null)
+    	{
+    		DecompressCache cache = new DecompressCache(Paths.get(cacheDirectory), cacheMB * 1024 * 1024);
+	        System.out.println("Attempting to decompress input file (" + inputFileName +") to output file (" + outputFileName +")");
+	        boolean hit = cache.decompress(Paths.get(inputFileName), Paths.get(outputFileName), textMode, codePage,
+	        		(int) Math.min(memoryLimitMB * 1024L * 1024, Integer.MAX_VALUE), statistics);
+	        System.out.println(hit ? "Copied from cache" : "Added to cache");
+	        if (metrics)
+	        {
+	        	System.out.println("Metrics: " + statistics.Totals());
+	        }
+	        System.out.println("Processing completed");
+	        return;
+    	}
+
+    	if (indexFileName != null)
+    	{
+    		Index(inputFileName, outputFileName, indexFileName, textMode, codePage, intervalMB, offset, length);
+    		return;
+    	}
 
+        OutputStream output = new FileOutputStream(outputFileName);
+        if (gzip)
+        {
+        	output = new ParallelGzipOutputStream(output, gzipLevel, ForkJoinPool.commonPool());
+        }
         try (TerseDecompresser outputWriter 
-        		= TerseDecompresser.create(new FileInputStream(inputFileName), new FileOutputStream(outputFileName)))
+        		= TerseDecompresser.create(Paths.get(inputFileName), output))
         {	 
         	outputWriter.TextFlag = textMode;
+        	outputWriter.setCodePage(codePage);
+        	outputWriter.Pipelined = pipelined;
+        	outputWriter.MemoryLimit = (int) Math.min(memoryLimitMB * 1024L * 1024, Integer.MAX_VALUE);
+        	outputWriter.setHead(headRecords, headBytes, headInput);
+        	outputWriter.setFilter(filter, columns);
+        	if (parallelFormat)
+        	{
+        		outputWriter.FormatPool = ForkJoinPool.commonPool();
+        	}
+        	outputWriter.setListener(statistics);
+        	if (outputWriter instanceof SpackDecompresser)
+        	{
+        		((SpackDecompresser) outputWriter).PhraseCacheSize = phraseCacheKB * 1024;
+        	}
 	        System.out.println("Attempting to decompress input file (" + inputFileName +") to output file (" + outputFileName +")");
 	        outputWriter.decode();
+	        if (head)
+	        {
+	        	outputWriter.finish();
+	        	System.out.println(outputWriter.Truncated
+	        			? "Stopped at the head limit after " + outputWriter.OutputTotal + " bytes of output"
+	        			: "The whole file is within the head limit");
+	        }
+	        if (phraseCacheKB > 0 && outputWriter instanceof SpackDecompresser)
+	        {
+	        	SpackDecompresser spack = (SpackDecompresser) outputWriter;
+	        	System.out.println("Phrase cache hits: " + spack.PhraseCacheHits + ", misses: " + spack.PhraseCacheMisses);
+	        }
         }	
+        if (metrics)
+        {
+        	System.out.println("Metrics: " + statistics.Totals());
+        }
 		
         System.out.println("Processing completed");
     }
 
+    /*
+     * Decompress and write an index, or with an offset use the index to
+     * decompress part of the file
+     */
+    private void Index(String inputFileName, String outputFileName, String indexFileName,
+    		boolean textMode, CodePage codePage, long intervalMB, long offset, long length) throws Exception {
+    	if (offset < 0)
+    	{
+	        System.out.println("Attempting to decompress input file (" + inputFileName +") to output file (" + outputFileName +")");
+    		TerseIndex index;
+    		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFileName)))
+    		{
+    			index = TerseIndex.Build(Paths.get(inputFileName), out, textMode, codePage, intervalMB * 1024 * 1024);
+    		}
+    		index.Save(Paths.get(indexFileName));
+    		System.out.println("Index written to " + indexFileName + " with " + index.Checkpoints.size() + " checkpoints");
+    		System.out.println("Processing completed");
+    		return;
+    	}
+
+    	IndexedTerseReader reader = new IndexedTerseReader(Paths.get(inputFileName), TerseIndex.Load(Paths.get(indexFileName)));
+    	long remaining = length < 0 ? Long.MAX_VALUE : length;
+    	try (InputStream in = reader.openAt(offset);
+    		 OutputStream out = new FileOutputStream(outputFileName))
+    	{
+    		byte[] buffer = new byte[Constants.OUTPUTBUFFERSIZE];
+    		int count;
+    		while (remaining > 0 && (count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0)
+    		{
+    			out.write(buffer, 0, count);
+    			remaining -= count;
+    		}
+    	}
+    	System.out.println("Processing completed");
+    }
+
+    /*
+     * <pos>=<hex>[,<hex>...], pos counts from 1
+     */
+    private static RecordFilter ParseInclude(String spec) {
+    	int equals = spec.indexOf('=');
+    	if (equals < 0)
+    	{
+    		throw new IllegalArgumentException("-include needs <pos>=<hex>[,<hex>...]: " + spec);
+    	}
+    	String[] hex = spec.substring(equals + 1).split(",");
+    	byte[][] values = new byte[hex.length][];
+    	for (int i = 0; i < hex.length; i++)
+    	{
+    		if (hex[i].isEmpty() || hex[i].length() % 2 != 0)
+    		{
+    			throw new IllegalArgumentException("-include values are pairs of hex digits: " + hex[i]);
+    		}
+    		values[i] = new byte[hex[i].length() / 2];
+    		for (int j = 0; j < values[i].length; j++)
+    		{
+    			values[i][j] = (byte) Integer.parseInt(hex[i].substring(j * 2, j * 2 + 2), 16);
+    		}
+    	}
+    	int position = Integer.parseInt(spec.substring(0, equals));
+    	if (position < 1)
+    	{
+    		throw new IllegalArgumentException("-include positions start from 1: " + spec);
+    	}
+    	return RecordFilter.Include(position - 1, values);
+    }
+
+    /*
+     * <from>-<to>[,<from>-<to>...], positions from 1 and inclusive, to
+     * start and end offsets for TerseDecompresser.setFilter
+     */
+    private static int[] ParseColumns(String spec) {
+    	String[] ranges = spec.split(",");
+    	int[] columns = new int[ranges.length * 2];
+    	for (int i = 0; i < ranges.length; i++)
+    	{
+    		int dash = ranges[i].indexOf('-');
+    		int from = Integer.parseInt(dash < 0 ? ranges[i] : ranges[i].substring(0, dash));
+    		int to = dash < 0 ? from : Integer.parseInt(ranges[i].substring(dash + 1));
+    		if (from < 1 || to < from)
+    		{
+    			throw new IllegalArgumentException("-columns ranges are <from>-<to>, from 1: " + ranges[i]);
+    		}
+    		columns[i * 2] = from - 1;
+    		columns[i * 2 + 1] = to;
+    	}
+    	return columns;
+    }
+
+    /*
+     * Write a catalog of the headers of many files, as JSON if the output
+     * name ends with .json otherwise CSV. No output name writes CSV to stdout.
+     */
+    private void Scan(String inputs, String outputFileName, int threads, double ratio) throws Exception {
+    	TerseCatalog catalog = new TerseCatalog();
+    	if (threads > 0)
+    	{
+    		catalog.Threads = threads;
+    	}
+    	if (ratio > 0)
+    	{
+    		catalog.Ratio = ratio;
+    	}
+    	long start = System.nanoTime();
+    	List<TerseCatalog.Entry> entries = catalog.Scan(BatchDecompress.ListInputs(inputs));
+    	double seconds = (System.nanoTime() - start) / 1e9;
+    	PrintStream out = outputFileName == null ? System.out : new PrintStream(new FileOutputStream(outputFileName), false, "UTF-8");
+    	try
+    	{
+    		if (outputFileName != null && outputFileName.toLowerCase().endsWith(".json"))
+    		{
+    			TerseCatalog.WriteJson(entries, out);
+    		}
+    		else
+    		{
+    			TerseCatalog.WriteCsv(entries, out);
+    		}
+    	}
+    	finally
+    	{
+    		out.flush();
+    		if (out != System.out)
+    		{
+    			out.close();
+    		}
+    	}
+    	if (outputFileName != null)
+    	{
+    		System.out.println(String.format("%d files scanned in %.2f seconds", entries.size(), seconds));
+    	}
+    }
+
+    /*
+     * Decode the files without writing the output. Returns false if any fail.
+     */
+    private boolean Verify(String inputs, boolean textMode, CodePage codePage, boolean checksum, int threads) throws Exception {
+    	List<Path> files = Files.isRegularFile(Paths.get(inputs))
+    			? Collections.singletonList(Paths.get(inputs))
+    			: BatchDecompress.ListInputs(inputs);
+    	long start = System.nanoTime();
+    	List<TerseVerifier.Result> results = TerseVerifier.Verify(files, textMode, codePage, checksum,
+    			threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    	double seconds = (System.nanoTime() - start) / 1e9;
+    	long failed = 0;
+    	for (TerseVerifier.Result result : results)
+    	{
+    		if (result.Valid)
+    		{
+    			System.out.println("OK " + result.File + ": " + result.Records + " records, " + result.OutputSize + " bytes"
+    					+ (result.Checksum != null ? String.format(", crc32 %08x", result.Checksum) : ""));
+    		}
+    		else
+    		{
+    			failed++;
+    			System.out.println("FAILED " + result.File + ": " + result.Error);
+    		}
+    	}
+    	System.out.println(String.format("%d files verified, %d failed, %.2f seconds", results.size() - failed, failed, seconds));
+    	return failed == 0;
+    }
+
     public static void main (String args[]) throws Exception {
 
         TerseDecompress tersed = new TerseDecompress();
@@ -1,19 +1,35 @@
 package com.blackhillsoftware.terse;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 abstract class TerseDecompresser implements AutoCloseable
 {
 	TerseBlockReader input;
-	ByteArrayOutputStream record;
-	DataOutputStream stream;
+	OutputStream stream;
+
+	/*
+	 * Records are built directly in the output buffer. Only a RECFM=VB binary
+	 * record has to be held until it is complete, so the RDW can be filled in
+	 * at recordStart. Otherwise recordStart is -1 and the buffer can be written
+	 * whenever it is full.
+	 * When records are passed to a RecordHandler every record is held, and
+	 * the buffer is reused once the handler returns.
+	 */
+	byte[] outputBuffer = new byte[Constants.OUTPUTBUFFERSIZE];
+	int outputPos = 0;
+	int recordStart = -1;
+	long recordSize = 0; /* host bytes in the current record, RECFM=FB binary data is one long record */
 	
 	boolean HostFlag; 
 	boolean TextFlag;
@@ -22,14 +38,280 @@ abstract class TerseDecompresser implements AutoCloseable
     long         OutputTotal   = 0    ; /* total number of bytes                    */
     int         RecordLength; /* host perspective record length           */
 	
-    byte[] lineseparator = System.lineSeparator().getBytes();
+    byte[] lineseparator = CodePage.DEFAULT.LineSeparator;
+
+    /*
+     * Text translation, from the CodePage. textTable if every character
+     * is one byte, otherwise textSequences.
+     */
+    CodePage codePage = CodePage.DEFAULT;
+    private int[] textTable = CodePage.DEFAULT.Single;
+    private byte[][] textSequences = null;
     
-    public abstract void decode() throws IOException;
+    /*
+     * Set by a pull reader (TerseInputStream) when it has been given enough
+     * output. DecodeSome returns at the next point it can resume from.
+     */
+    boolean Pause = false;
+    private boolean finished = false;
+
+    /*
+     * Set by decodeRecords. Records go to the handler instead of the output
+     * stream, without RDWs or line separators.
+     */
+    RecordHandler Records = null;
+    long RecordCount = 0;
+    private long recordLimit = -1; /* split RECFM=FB binary data into records */
+    private ByteBuffer recordView;
+
+    /*
+     * The most output a decode will hold in memory, 0 for no limit.
+     * Limits below OUTPUTBUFFERSIZE count as OUTPUTBUFFERSIZE.
+     * A RECFM=VB binary record is held until its RDW can be filled in. With a
+     * limit, one which doesn't fit, i.e. longer than LongestHeld, is written as
+     * spanned (VBS) segments of MAXSEGMENT bytes instead, so records which
+     * fit are written the same as without a limit. A record which is filtered
+     * or passed to a RecordHandler has to be held whole, so one longer than
+     * the limit fails.
+     */
+    int MemoryLimit = 0;
+    static final int MAXSEGMENT = 32756; /* data in one segment, the largest a RECFM=VB record can hold */
+    private long segmentEnd = Long.MAX_VALUE; /* recordSize when the current segment is full */
+    private boolean spanning = false;         /* part of the current record has been written */
+
+    /*
+     * The longest RECFM=VB binary record that is written whole with this
+     * memory limit, longer ones are spanned
+     */
+    static long LongestHeld(int memoryLimit) {
+    	return memoryLimit > 0 ? Math.max(memoryLimit, Constants.OUTPUTBUFFERSIZE) - 4 : Long.MAX_VALUE;
+    }
+
+    /*
+     * Head mode, set by setHead: stop after HeadRecords records or HeadBytes
+     * bytes of output, 0 for no limit. Truncated is set when a limit was reached.
+     */
+    long HeadRecords = 0;
+    long HeadBytes = 0;
+    boolean Truncated = false;
+    private boolean headStop = false;          /* a limit was reached, decode no further */
+    private long headEnd = Long.MAX_VALUE;     /* OutputTotal at the end of the last record */
+
+    /*
+     * Set by setFilter. Records are held untranslated until they are complete,
+     * then a record the Filter rejects is dropped, and the rest are cut down
+     * to Columns and translated.
+     */
+    RecordFilter Filter = null;
+    int[] Columns = null;  /* start and end offsets of the host data to keep, in pairs */
+    private boolean filtering = false;
+    private ByteBuffer filterView;
+    private byte[] filterScratch;
+    private static final int[] IDENTITY = new int[256]; /* the text table while filtering */
+    static {
+    	for (int i = 0; i < IDENTITY.length; i++)
+    	{
+    		IDENTITY[i] = i;
+    	}
+    }
+
+    /*
+     * Decode until the end of the data or until Pause is set.
+     * Returns false when there is nothing more to decode.
+     */
+    abstract boolean DecodeSome() throws IOException;
+
+    /*
+     * Called at the start of DecodeSome, so the time of a decode doesn't
+     * include waiting between setListener and the first call
+     */
+    void StartClock() {
+    	if (Metrics != null && Metrics.StartNanos == 0)
+    	{
+    		Metrics.StartNanos = System.nanoTime();
+    	}
+    }
+
+    /*
+     * Set by setListener. Metrics is null when nobody is listening, so the
+     * decoders only have to check it once per code.
+     */
+    DecodeListener Listener = null;
+    DecodeMetrics Metrics = null;
+
+    /*
+     * Decode on several threads, see PipelinedDecode. Off by default.
+     * Not with a FormatPool or a head limit.
+     */
+    boolean Pipelined = false;
+
+    /*
+     * Format records on this pool, see ParallelFormat. Null by default.
+     * Not with Pipelined or a head limit.
+     */
+    ForkJoinPool FormatPool = null;
+
+    CharSink pipeline = null; /* set while a pipelined or parallel decode is running */
+
+    public void decode() throws IOException {
+    	CheckModes();
+    	if (HeadMode())
+    	{
+    		/* a preview decodes too little for the other threads to help */
+    		while (DecodeSome() && !headStop)
+    		{
+    			Pause = false;
+    		}
+    		return;
+    	}
+    	if (Pipelined)
+    	{
+    		new PipelinedDecode(this).run();
+    		return;
+    	}
+    	if (FormatPool != null && ParallelFormat.Splittable(this))
+    	{
+    		new ParallelFormat(this, FormatPool).run();
+    		return;
+    	}
+    	while (DecodeSome())
+    	{
+    		Pause = false;
+    	}
+    }
     
+    /*
+     * Throw IllegalStateException for settings which can't work together,
+     * rather than quietly ignoring one of them. The command line rejects the
+     * same combinations.
+     */
+    private void CheckModes() {
+    	if (HeadMode() && (Pipelined || FormatPool != null))
+    	{
+    		throw new IllegalStateException("A head limit decodes on one thread, it can't be used with Pipelined or a FormatPool");
+    	}
+    	if (Pipelined && FormatPool != null)
+    	{
+    		throw new IllegalStateException("Pipelined and a FormatPool can't be used together");
+    	}
+    	if (MemoryLimit > 0 && filtering && VariableFlag && !TextFlag)
+    	{
+    		throw new IllegalStateException("A filtered RECFM=VB binary record is held whole, it can't be spanned to keep within a MemoryLimit");
+    	}
+    }
+
+    /*
+     * Translate text from this code page instead of the default table
+     */
+    public void setCodePage(CodePage codePage) {
+    	this.codePage = codePage;
+    	this.textTable = filtering ? IDENTITY : codePage.Single;
+    	this.textSequences = filtering ? null : codePage.Sequences;
+    	this.lineseparator = codePage.LineSeparator;
+    }
+
+    /*
+     * Decode only the start of the file: stop after records records, bytes
+     * bytes of output, or inputBytes bytes of the file including the header,
+     * whichever comes first. 0 is no limit. The rest of the file is not read.
+     * The output stops after a whole record, except that a byte limit cuts
+     * it at exactly that many bytes, and an input limit ends the record the
+     * last code is in. Binary RECFM=FB data is one stream, so a record limit
+     * is a number of bytes. A native file has no records.
+     */
+    public void setHead(long records, long bytes, long inputBytes) {
+    	this.HeadRecords = records;
+    	this.HeadBytes = bytes;
+    	this.input.Limit = inputBytes > 0 ? Math.max(inputBytes - (HostFlag ? 12 : 6), 0) : Long.MAX_VALUE;
+    }
+
+    /*
+     * Write only the records filter accepts, and only the host data in
+     * columns: start and end offsets in pairs, e.g. { 0, 8, 20, 30 } keeps
+     * bytes 0-7 and 20-29 of each record. Either can be null. The filter sees
+     * each record before translation, so a rejected record is never translated
+     * or written. Binary RECFM=FB data is split into records of the record
+     * length. A head limit counts rejected records too. A native file has no
+     * records to filter.
+     */
+    public void setFilter(RecordFilter filter, int[] columns) {
+    	if ((filter != null || columns != null) && !HostFlag)
+    	{
+    		throw new IllegalArgumentException("A native file has no records to filter");
+    	}
+    	if (columns != null)
+    	{
+    		if (columns.length % 2 != 0)
+    		{
+    			throw new IllegalArgumentException("Columns must be start and end offsets in pairs");
+    		}
+    		for (int i = 0; i < columns.length; i += 2)
+    		{
+    			if (columns[i] < (i > 0 ? columns[i - 1] : 0) || columns[i + 1] < columns[i])
+    			{
+    				throw new IllegalArgumentException("Columns must be in order and not overlap");
+    			}
+    		}
+    	}
+    	this.Filter = filter;
+    	this.Columns = columns;
+    	this.filtering = filter != null || columns != null;
+    	this.recordLimit = filtering && !VariableFlag && RecordLength > 0 ? RecordLength : -1;
+    	setCodePage(codePage);
+    }
+
+    boolean Filtering() {
+    	return filtering;
+    }
+
+    boolean HeadMode() {
+    	return HeadRecords > 0 || HeadBytes > 0 || input.Limit != Long.MAX_VALUE;
+    }
+
+    /*
+     * Whether a head limit has stopped the decode. A pull reader checks it
+     * before resuming.
+     */
+    boolean HeadReached() {
+    	return headStop;
+    }
+
+    /*
+     * Collect DecodeMetrics and give them to listener when the decode finishes.
+     * Set it before decoding, null turns it off.
+     */
+    public void setListener(DecodeListener listener) {
+    	this.Listener = listener;
+    	this.Metrics = listener != null ? new DecodeMetrics() : null;
+    	this.input.Timed = listener != null;
+    }
+
+    /*
+     * Decode the file passing each record to handler. The output stream
+     * isn't used and can be null.
+     * Binary RECFM=FB data is split into records of the record length. A file
+     * which isn't from the host has no records, and is passed on in pieces of
+     * the output buffer size.
+     */
+    public void decodeRecords(RecordHandler handler) throws IOException {
+    	if (filtering)
+    	{
+    		throw new IllegalStateException("A RecordHandler gets every record, it can do its own filtering");
+    	}
+    	Records = handler;
+    	if (!VariableFlag && !(HostFlag && TextFlag))
+    	{
+    		recordLimit = HostFlag && RecordLength > 0 ? RecordLength : Constants.OUTPUTBUFFERSIZE;
+    	}
+    	decode();
+    	finish();
+    }
+
     public static TerseDecompresser create(InputStream inputStream, OutputStream outputStream) throws IOException
     {
-        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
-        TerseHeader header_rv = TerseHeader.CheckHeader(input);
+        /* the header is read through the block reader's buffer, so no other wrapper is needed */
+        TerseBlockReader input = new TerseBlockReader(inputStream);
+        TerseHeader header_rv = input.ReadHeader();
         
         if (!header_rv.SpackFlag) {
         	return new NonSpackDecompresser(input, outputStream, header_rv);
@@ -38,35 +320,578 @@ abstract class TerseDecompresser implements AutoCloseable
         }
     }
     
+    /*
+     * Decompress a file, reading it through a memory mapped FileChannel.
+     * Anything other than a regular file e.g. a pipe is read as a stream.
+     */
+    public static TerseDecompresser create(Path inputPath, OutputStream outputStream) throws IOException
+    {
+        if (!Files.isRegularFile(inputPath)) {
+        	return create(Files.newInputStream(inputPath), outputStream);
+        }
+
+        FileChannel channel = FileChannel.open(inputPath, StandardOpenOption.READ);
+        TerseBlockReader input;
+        TerseHeader header_rv;
+        try {
+        	input = new MappedTerseBlockReader(channel);
+        	header_rv = TerseHeader.CheckHeader(input.buffer);
+        } catch (IOException e) {
+        	channel.close();
+        	throw e;
+        }
+
+        if (!header_rv.SpackFlag) {
+        	return new NonSpackDecompresser(input, outputStream, header_rv);
+        } else {
+        	return new SpackDecompresser(input, outputStream, header_rv);
+        }
+    }
+
 	public TerseDecompresser(InputStream instream, OutputStream outputStream, TerseHeader header)
+	{
+		this(new TerseBlockReader(instream), outputStream, header);
+	}
+
+	TerseDecompresser(TerseBlockReader input, OutputStream outputStream, TerseHeader header)
 	{		
 		this.RecordLength = header.RecordLength;
 		this.HostFlag = header.HostFlag; 
 		this.VariableFlag = header.RecfmV;
-		this.input = new TerseBlockReader(instream);
-		this.stream = new DataOutputStream(new BufferedOutputStream(outputStream));
-		
-		this.record = new ByteArrayOutputStream(RecordLength);
+		this.input = input;
+		this.stream = outputStream;
+	}
+
+	/*
+	 * Get ready to decompress another file, re-initialising the dictionary in
+	 * place and reusing the buffers. The file has to use the same algorithm,
+	 * PACK or SPACK, as this decompresser - DecompresserPool picks the right
+	 * kind. Settings such as TextFlag and the code page are kept.
+	 * The previous streams are not closed.
+	 */
+	public void reset(InputStream inputStream, OutputStream outputStream) throws IOException
+	{
+		long inputLimit = input.Limit;
+		if (input.getClass() == TerseBlockReader.class)
+		{
+			input.reset(inputStream);
+		}
+		else
+		{
+			/* e.g. the last file was memory mapped */
+			input = new TerseBlockReader(inputStream);
+		}
+		input.Limit = inputLimit;
+		TerseHeader header = input.ReadHeader();
+		if (header.SpackFlag != (this instanceof SpackDecompresser))
+		{
+			throw new IOException("Can't reset a " + (header.SpackFlag ? "PACK" : "SPACK")
+					+ " decompresser for a " + (header.SpackFlag ? "SPACK" : "PACK") + " file");
+		}
+		this.RecordLength = header.RecordLength;
+		this.HostFlag = header.HostFlag;
+		this.VariableFlag = header.RecfmV;
+		this.stream = outputStream;
+		setListener(Listener);
+
+		if (outputBuffer.length > Constants.OUTPUTBUFFERSIZE * 4)
+		{
+			/* don't hang on to the space for one huge record */
+			outputBuffer = new byte[Constants.OUTPUTBUFFERSIZE];
+		}
+		outputPos = 0;
+		recordStart = -1;
+		recordSize = 0;
+		OutputTotal = 0;
+		Pause = false;
+		finished = false;
+		Records = null;
+		RecordCount = 0;
+		recordLimit = -1;
+		if (filtering)
+		{
+			setFilter(Filter, Columns);
+		}
+		segmentEnd = Long.MAX_VALUE;
+		spanning = false;
+		Truncated = false;
+		headStop = false;
+		headEnd = Long.MAX_VALUE;
+		ResetDictionary();
+	}
+
+	/*
+	 * Put the decoder back to its state before the first DecodeSome
+	 */
+	abstract void ResetDictionary();
+
+	/*
+	 * Checkpoints for TerseIndex. Between calls to DecodeSome all the decode
+	 * state is in fields, so it can be saved and a new decompresser positioned
+	 * at NextCodeBit can carry on from it. Unwritten output is saved too, so a
+	 * RECFM=VB binary record which is being held is not lost.
+	 */
+	void SaveState(DataOutputStream out) throws IOException
+	{
+		out.writeLong(RecordCount);
+		out.writeLong(recordSize);
+		out.writeInt(recordStart);
+		out.writeInt(outputPos);
+		out.write(outputBuffer, 0, outputPos);
+		SaveDictionary(out);
+	}
+
+	void RestoreState(DataInputStream in) throws IOException
+	{
+		RecordCount = in.readLong();
+		recordSize = in.readLong();
+		recordStart = in.readInt();
+		outputPos = in.readInt();
+		if (outputBuffer.length < outputPos)
+		{
+			outputBuffer = new byte[outputPos];
+		}
+		in.readFully(outputBuffer, 0, outputPos);
+		RestoreDictionary(in);
+	}
+
+	/*
+	 * The position in the file of the next code to be decoded, in bits.
+	 * Codes which have been read into a batch but not decoded yet don't count.
+	 */
+	long NextCodeBit()
+	{
+		long headerBits = (HostFlag ? 12 : 6) * 8;
+		return headerBits + input.red * 8 - input.bitsAvailable - 12L * UnreadCodes();
 	}
+
+	abstract void SaveDictionary(DataOutputStream out) throws IOException;
+	abstract void RestoreDictionary(DataInputStream in) throws IOException;
+	abstract int UnreadCodes();
 	
     /* Write a new line to the output file*/
     public void endRecord() throws IOException 
     {
+    	if (headStop)
+    	{
+    		/* past a head limit, only waiting for DecodeSome to return */
+    		dropRecord();
+    		return;
+    	}
+    	RecordCount++;
+    	if (Records != null)
+    	{
+    		passRecord();
+    		return;
+    	}
+    	if (filtering && !filterRecord())
+    	{
+    		HeadRecord();
+    		return;
+    	}
     	if (VariableFlag && !TextFlag)
     	{
-    		// write a RDW
-    		int recordlength = record.size() + 4;
-    		int rdw = recordlength << 16;
-    		stream.writeInt(rdw);
+    		if (recordStart < 0)
+    		{
+    			startRdw();
+    		}
+    		// fill in the RDW, or the descriptor of the last segment
+    		fillRdw(spanning ? 0x02 : 0x00);
+    		spanning = false;
+    		segmentEnd = Long.MAX_VALUE;
     	}
-    	
-    	stream.write(record.toByteArray());
-    	record.reset();
+    	recordSize = 0;
     	
     	if (TextFlag)
     	{
-    		stream.write(lineseparator);
+    		if (outputBuffer.length - outputPos < lineseparator.length)
+    		{
+    			makeRoom(lineseparator.length);
+    		}
+    		System.arraycopy(lineseparator, 0, outputBuffer, outputPos, lineseparator.length);
+    		outputPos += lineseparator.length;
     	}    		
+    	HeadRecord();
+    }
+
+    /*
+     * Stop after this record if it is the last one a head limit allows
+     */
+    private void HeadRecord() {
+    	if (RecordCount == HeadRecords)
+    	{
+    		headEnd = OutputTotal + outputPos;
+    		headStop = true;
+    		Pause = true;
+    	}
+    }
+
+    /*
+     * Decide about the complete host record held at recordStart: drop it and
+     * return false, or cut it down to Columns and translate it, leaving the
+     * RDW or line separator to endRecord.
+     */
+    private boolean filterRecord() throws IOException {
+    	if (recordStart < 0)
+    	{
+    		startRdw();
+    	}
+    	boolean rdw = VariableFlag && !TextFlag;
+    	int data = recordStart + (rdw ? 4 : 0);
+    	if (Filter != null)
+    	{
+    		if (filterView == null || filterView.array() != outputBuffer)
+    		{
+    			filterView = ByteBuffer.wrap(outputBuffer);
+    		}
+    		filterView.clear();
+    		filterView.position(data);
+    		filterView.limit(outputPos);
+    		if (!Filter.accept(RecordCount, filterView))
+    		{
+    			dropRecord();
+    			return false;
+    		}
+    	}
+    	if (Columns != null)
+    	{
+    		/* the columns are in order, so they can be moved down in place */
+    		int length = outputPos - data;
+    		outputPos = data;
+    		for (int i = 0; i < Columns.length; i += 2)
+    		{
+    			int start = Math.min(Columns[i], length);
+    			int end = Math.min(Columns[i + 1], length);
+    			System.arraycopy(outputBuffer, data + start, outputBuffer, outputPos, end - start);
+    			outputPos += end - start;
+    		}
+    	}
+    	if (TextFlag)
+    	{
+    		Translate(data);
+    	}
+    	if (!rdw)
+    	{
+    		recordStart = -1;
+    	}
+    	return true;
+    }
+
+    /*
+     * Translate the host data from data to outputPos with the code page
+     */
+    private void Translate(int data) throws IOException {
+    	int[] table = codePage.Single;
+    	if (table != null)
+    	{
+    		for (int i = data; i < outputPos; i++)
+    		{
+    			outputBuffer[i] = (byte) table[outputBuffer[i] & 0xFF];
+    		}
+    		return;
+    	}
+    	int length = outputPos - data;
+    	if (filterScratch == null || filterScratch.length < length)
+    	{
+    		filterScratch = new byte[Math.max(length, 256)];
+    	}
+    	System.arraycopy(outputBuffer, data, filterScratch, 0, length);
+    	outputPos = data;
+    	recordStart = -1;
+    	for (int i = 0; i < length; i++)
+    	{
+    		byte[] sequence = codePage.Sequences[filterScratch[i] & 0xFF];
+    		if (outputBuffer.length - outputPos < sequence.length)
+    		{
+    			makeRoom(sequence.length);
+    		}
+    		System.arraycopy(sequence, 0, outputBuffer, outputPos, sequence.length);
+    		outputPos += sequence.length;
+    	}
+    }
+
+    /*
+     * Forget a record which is being held, nothing after a head limit is kept
+     */
+    private void dropRecord() {
+    	if (recordStart >= 0)
+    	{
+    		outputPos = recordStart;
+    		recordStart = -1;
+    	}
+    	recordSize = 0;
+    	spanning = false;
+    	segmentEnd = Long.MAX_VALUE;
+    }
+
+    /*
+     * Add a byte to the current record
+     */
+    private void PutByte(int b) throws IOException {
+    	if (recordStart < 0 && (VariableFlag && !TextFlag || Records != null || filtering))
+    	{
+    		startRdw();
+    	}
+    	if (recordSize == segmentEnd)
+    	{
+    		span();
+    	}
+    	if (outputPos == outputBuffer.length)
+    	{
+    		makeRoom(1);
+    		if (recordSize == segmentEnd)
+    		{
+    			/* makeRoom started spanning the record, with a full segment left */
+    			span();
+    		}
+    	}
+    	outputBuffer[outputPos++] = (byte) b;
+    	recordSize++;
+    }
+
+    /*
+     * Add the translation of a text byte to the current record. It is
+     * still one host byte, however many bytes it translates to.
+     */
+    private void PutText(int b) throws IOException {
+    	if (textTable != null)
+    	{
+    		PutByte(textTable[b]);
+    		return;
+    	}
+    	byte[] sequence = textSequences[b];
+    	if (recordStart < 0 && Records != null)
+    	{
+    		startRdw();
+    	}
+    	if (outputBuffer.length - outputPos < sequence.length)
+    	{
+    		makeRoom(sequence.length);
+    	}
+    	for (int i = 0; i < sequence.length; i++)
+    	{
+    		outputBuffer[outputPos++] = sequence[i];
+    	}
+    	recordSize++;
+    }
+
+    /*
+     * Give the record in the buffer to the handler, then reuse the space
+     */
+    private void passRecord() throws IOException {
+    	int start = recordStart < 0 ? outputPos : recordStart;
+    	if (recordView == null || recordView.array() != outputBuffer)
+    	{
+    		recordView = ByteBuffer.wrap(outputBuffer);
+    	}
+    	recordView.clear();
+    	recordView.position(start);
+    	recordView.limit(outputPos);
+    	Records.record(RecordCount, recordView);
+    	OutputTotal += outputPos - start;
+    	outputPos = start;
+    	recordStart = -1;
+    	recordSize = 0;
+    	if (RecordCount == HeadRecords || HeadBytes > 0 && OutputTotal >= HeadBytes)
+    	{
+    		headStop = true;
+    		Pause = true;
+    	}
+    }
+
+    /*
+     * Write a sequence of bytes, the same as calling PutChar(b + 1) for each one.
+     * The bytes must not include record marks.
+     */
+    void PutBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (Records != null || pipeline != null || filtering) {
+            for (int i = offset; i < offset + length; i++) {
+                PutChar((bytes[i] & 0xFF) + 1);
+            }
+        } else if (HostFlag && TextFlag) {
+            for (int i = offset; i < offset + length; i++) {
+            	PutText(bytes[i] & 0xFF);
+                if (!VariableFlag && recordSize == RecordLength) {
+                    endRecord();
+                }
+            }
+        } else {
+        	if (length > 0 && recordStart < 0 && VariableFlag && !TextFlag)
+        	{
+        		startRdw();
+        	}
+        	while (length > 0)
+        	{
+        		if (recordSize == segmentEnd)
+        		{
+        			span();
+        		}
+        		if (outputPos == outputBuffer.length)
+        		{
+        			makeRoom(1);
+        		}
+        		int count = (int) Math.min(Math.min(length, outputBuffer.length - outputPos), segmentEnd - recordSize);
+        		System.arraycopy(bytes, offset, outputBuffer, outputPos, count);
+        		outputPos += count;
+        		recordSize += count;
+        		offset += count;
+        		length -= count;
+        	}
+        }
+    }
+
+    /*
+     * Leave space for the RDW at the start of a record.
+     * A record for a RecordHandler has no RDW, it just has to be held, and
+     * so does a record being filtered unless it is RECFM=VB binary.
+     */
+    private void startRdw() throws IOException {
+    	if (Records != null || filtering && !(VariableFlag && !TextFlag))
+    	{
+    		recordStart = outputPos;
+    		return;
+    	}
+    	if (outputBuffer.length - outputPos < 4)
+    	{
+    		makeRoom(4);
+    	}
+    	recordStart = outputPos;
+    	outputPos += 4;
+    }
+
+    /*
+     * Fill in the RDW at recordStart, or a segment descriptor with the
+     * segment control flags: 1 first, 3 middle, 2 last.
+     */
+    private void fillRdw(int flags) {
+    	descriptor(recordStart, outputPos - recordStart, flags);
+    	recordStart = -1;
+    }
+
+    private void descriptor(int at, int length, int flags) {
+    	outputBuffer[at] = (byte) (length >> 8);
+    	outputBuffer[at + 1] = (byte) length;
+    	outputBuffer[at + 2] = (byte) flags;
+    	outputBuffer[at + 3] = 0;
+    }
+
+    /*
+     * The current segment is full: finish it, so it can be written, and
+     * start the next one.
+     */
+    private void span() throws IOException {
+    	fillRdw(spanning ? 0x03 : 0x01);
+    	spanning = true;
+    	startRdw();
+    	segmentEnd = recordSize + MAXSEGMENT;
+    }
+
+    /*
+     * The RECFM=VB binary record being held doesn't fit in the memory limit:
+     * write all but the last 1 to MAXSEGMENT bytes of it as full segments and
+     * keep the rest as the start of the next one. Each descriptor goes over
+     * the end of the segment before, which has already been written.
+     */
+    private void spill() throws IOException {
+    	int start = recordStart;
+    	int full = (outputPos - start - 4 - 1) / MAXSEGMENT;
+    	for (int i = 0; i < full; i++)
+    	{
+    		int segment = start + i * MAXSEGMENT;
+    		descriptor(segment, MAXSEGMENT + 4, i == 0 ? 0x01 : 0x03);
+    		write(outputBuffer, segment, MAXSEGMENT + 4);
+    	}
+    	int rest = start + full * MAXSEGMENT;
+    	System.arraycopy(outputBuffer, rest, outputBuffer, 0, outputPos - rest);
+    	outputPos -= rest;
+    	recordStart = 0;
+    	spanning = true;
+    	segmentEnd = recordSize + MAXSEGMENT - (outputPos - 4);
+    }
+
+    /*
+     * Write out everything except an incomplete RECFM=VB binary record, and
+     * make sure there is room for n more bytes. The buffer only grows if a
+     * single record doesn't fit.
+     */
+    private void makeRoom(int n) throws IOException {
+    	int complete = recordStart >= 0 ? recordStart : outputPos;
+    	if (complete > 0)
+    	{
+    		write(outputBuffer, 0, complete);
+    	}
+    	System.arraycopy(outputBuffer, complete, outputBuffer, 0, outputPos - complete);
+    	outputPos -= complete;
+    	if (recordStart >= 0)
+    	{
+    		recordStart = 0;
+    	}
+    	if (outputBuffer.length - outputPos < n)
+    	{
+    		int size = Math.max(outputBuffer.length * 2, outputPos + n);
+    		if (MemoryLimit > 0)
+    		{
+    			int limit = Math.max(MemoryLimit, Constants.OUTPUTBUFFERSIZE);
+    			if (outputPos + n > limit)
+    			{
+    				if (recordStart >= 0 && VariableFlag && !TextFlag && Records == null && !filtering && !spanning)
+    				{
+    					spill();
+    					if (outputBuffer.length - outputPos >= n)
+    					{
+    						return;
+    					}
+    				}
+    				else
+    				{
+    					throw new IOException("Record " + (RecordCount + 1) + " is longer than the memory limit of " + limit + " bytes"
+    							+ (filtering || Records != null ? ", and a filtered record or one for a RecordHandler is held whole" : ""));
+    				}
+    			}
+    			size = Math.min(size, limit);
+    		}
+    		outputBuffer = Arrays.copyOf(outputBuffer, size);
+    	}
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+    	if (HeadRecords > 0 || HeadBytes > 0)
+    	{
+    		long end = HeadEnd();
+    		if (OutputTotal + length >= end)
+    		{
+    			length = (int) Math.max(end - OutputTotal, 0);
+    			headEnd = end;
+    			headStop = true;
+    			Pause = true;
+    		}
+    	}
+    	OutputTotal += length;
+    	if (Metrics == null)
+    	{
+    		stream.write(bytes, offset, length);
+    		return;
+    	}
+    	long start = System.nanoTime();
+    	stream.write(bytes, offset, length);
+    	Metrics.WriteNanos += System.nanoTime() - start;
+    }
+
+    /*
+     * Where a head limit stops the output
+     */
+    private long HeadEnd() {
+    	long end = headEnd;
+    	if (HeadBytes > 0)
+    	{
+    		end = Math.min(end, HeadBytes);
+    	}
+    	if (HeadRecords > 0 && HostFlag && !VariableFlag && !TextFlag && RecordLength > 0 && !filtering)
+    	{
+    		/* binary FB records are written as one stream */
+    		end = Math.min(end, HeadRecords * RecordLength);
+    	}
+    	return end;
     }
 
     /*
@@ -74,6 +899,14 @@ abstract class TerseDecompresser implements AutoCloseable
      */
 
     public void PutChar(int X) throws IOException {
+        if (pipeline != null) {
+            pipeline.PutChar(X);
+            return;
+        }
+        FrameChar(X);
+    }
+
+    void FrameChar(int X) throws IOException {
         if (X == 0) {
             if (HostFlag && TextFlag && VariableFlag) {
                 endRecord();
@@ -84,11 +917,11 @@ abstract class TerseDecompresser implements AutoCloseable
                     if (X == Constants.RECORDMARK) {
                         endRecord();
                     } else {
-                    	record.write(Constants.EbcToAsc[X-1]);
+                    	PutText(X-1);
                     }
                 } else {
-                	record.write(Constants.EbcToAsc[X-1]);
-                    if (record.size() == RecordLength) {
+                	PutText(X-1);
+                    if (recordSize == RecordLength) {
                         endRecord();
                     }
                 }
@@ -105,20 +938,74 @@ abstract class TerseDecompresser implements AutoCloseable
                 }
                 else
                 {
-                	record.write(X-1);
+                	PutByte(X-1);
+                	if (recordSize == recordLimit)
+                	{
+                		endRecord();
+                	}
                 }
             }
         }
     }
 
+	/*
+	 * Complete the last record and write out everything left in the buffer
+	 */
+	void finish() throws IOException {
+		if (finished)
+		{
+			return;
+		}
+		finished = true;
+		if (Records != null)
+		{
+			/* record marks separate records, so there is one after the last mark */
+			if (recordSize > 0 || VariableFlag && RecordCount > 0)
+			{
+				endRecord();
+			}
+		}
+		else
+		{
+			if (recordSize > 0 
+					|| TextFlag && VariableFlag)
+			{
+				endRecord();
+			}
+			write(outputBuffer, 0, outputPos);
+			outputPos = 0;
+		}
+		Truncated = headStop || input.Limited;
+		if (Listener != null)
+		{
+			ReportMetrics();
+		}
+	}
+
+	private void ReportMetrics()
+	{
+		DecodeMetrics metrics = Metrics;
+		metrics.TotalNanos = metrics.StartNanos != 0 ? System.nanoTime() - metrics.StartNanos : 0;
+		metrics.BytesIn = input.red + (HostFlag ? 12 : 6);
+		metrics.BytesOut = OutputTotal;
+		metrics.ReadNanos = input.ReadNanos;
+		metrics.MappedDecodes = input instanceof MappedTerseBlockReader ? 1 : 0;
+		metrics.Records = RecordCount;
+		if (HostFlag && !VariableFlag && !TextFlag && Records == null && RecordLength > 0 && !filtering)
+		{
+			/* unfiltered binary FB records are written as one stream */
+			metrics.Records = (OutputTotal + RecordLength - 1) / RecordLength;
+		}
+		Listener.decodeFinished(metrics);
+	}
+
 	@Override
 	public void close() throws Exception {
-		if (record.size() > 0 
-				|| TextFlag && VariableFlag)
+		finish();
+		if (this.stream != null)
 		{
-			endRecord();
+			this.stream.close();
 		}
-		this.stream.close();
 		this.input.close();
 	}
 }
@@ -1,10 +1,14 @@
 package com.blackhillsoftware.terse;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /*
- * Data structure used only when checking the header initially
+ * Data structure used when checking the header initially, and when writing
+ * the header of a compressed file
  */
 
 class TerseHeader {
@@ -123,5 +127,67 @@ class TerseHeader {
 
     }
 
+    /*
+     * Check the header at the current position of a buffer, e.g. a memory mapped file.
+     * The buffer is left positioned after the header.
+     */
+
+    static TerseHeader CheckHeader(ByteBuffer buffer) throws IOException
+    {
+        byte[] bytes = new byte[Math.min(buffer.remaining(), 12)];
+        buffer.get(bytes);
+        DataInputStream datastream = new DataInputStream(new ByteArrayInputStream(bytes));
+        TerseHeader header = CheckHeader(datastream);
+        // give back anything after a short header
+        buffer.position(buffer.position() - datastream.available());
+        return header;
+    }
+
+    /*
+     * Build a host mode header for a file written by TerseCompresser.
+     * The record length goes in RecordLen1 if it fits, otherwise in RecordLen2.
+     */
+
+    static TerseHeader CreateHeader(boolean spack, boolean variable, int recordLength) throws IOException
+    {
+        if (recordLength <= 0)
+        {
+            throw new IOException("Record length must be greater than 0");
+        }
+
+        TerseHeader header = new TerseHeader();
+
+        header.VersionFlag = spack ? 0x05 : 0x02;
+        header.VariableFlag = variable ? 0x01 : 0x00;
+        if (recordLength <= 0xFFFF)
+        {
+            header.RecordLen1 = recordLength;
+        }
+        else
+        {
+            header.RecordLen2 = recordLength;
+        }
+        header.RecordLength = recordLength;
+        header.RecfmV = variable;
+        header.SpackFlag = spack;
+        header.HostFlag = true;
+
+        return header;
+    }
+
+    /*
+     * Write the 12 byte host header, the counterpart of CheckHeader
+     */
+
+    void WriteHeader(DataOutputStream datastream) throws IOException
+    {
+        datastream.writeByte(VersionFlag);
+        datastream.writeByte(VariableFlag);
+        datastream.writeShort(RecordLen1);
+        datastream.writeByte(Flags);
+        datastream.writeByte(Ratio);
+        datastream.writeShort(BlockSize);
+        datastream.writeInt(RecordLen2);
+    }
 
 }
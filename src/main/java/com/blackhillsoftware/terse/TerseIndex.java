@@ -0,0 +1,250 @@
+package com.blackhillsoftware.terse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * Checkpoints through the decode of a file, so a reader can start decoding
+ * near the data it wants instead of at the beginning (see IndexedTerseReader).
+ *
+ * A checkpoint is taken each time about Interval more bytes have been output.
+ * It holds the bit position of the next code, the output offset and record
+ * number, and the decompresser's state: the dictionary arrays and anything
+ * decoded but not yet written. The state is deflated, a PACK dictionary is
+ * 64KB before compression and a SPACK one 32KB.
+ *
+ * Output offsets depend on how the file is decoded, so the index is only
+ * good for the mode and code page it was built with.
+ */
+class TerseIndex
+{
+	private static final String MAGIC = "TERSEIDX1";
+	static final long DEFAULTINTERVAL = 16 * 1024 * 1024;
+
+	/* One checkpoint */
+	static class Checkpoint
+	{
+		long OutputOffset;
+		long RecordNumber;   /* records completed before the checkpoint */
+		long CompressedBit;
+		byte[] State;
+	}
+
+	long Interval;
+	boolean TextFlag;
+	String CodePageName;
+	byte[] LineSeparator;
+
+	/* to check the index belongs to the file */
+	long FileSize;
+	byte[] Header;
+
+	long TotalOutput;
+	long TotalRecords;
+	List<Checkpoint> Checkpoints = new ArrayList<>();
+
+    /*
+     * Decode the file to build its index, writing the output to output
+     * at the same time unless it is null. The output is not closed.
+     */
+    static TerseIndex Build(Path inputPath, OutputStream output, boolean textMode, CodePage codePage, long interval) throws IOException {
+        if (interval <= 0) {
+        	throw new IllegalArgumentException("Checkpoint interval must be greater than 0");
+        }
+        TerseIndex index = new TerseIndex();
+        index.Interval = interval;
+        index.TextFlag = textMode;
+        index.CodePageName = codePage.Name;
+        index.LineSeparator = codePage.LineSeparator;
+        index.FileSize = Files.size(inputPath);
+        index.Header = ReadHeaderBytes(inputPath);
+
+        CheckpointStream stream = new CheckpointStream(output, interval);
+        TerseDecompresser decompresser = TerseDecompresser.create(inputPath, stream);
+        stream.decompresser = decompresser;
+        try {
+        	decompresser.TextFlag = textMode;
+        	decompresser.setCodePage(codePage);
+        	while (decompresser.DecodeSome()) {
+        		if (decompresser.Pause) {
+        			index.Checkpoints.add(Take(decompresser));
+        			stream.next = decompresser.OutputTotal + interval;
+        			decompresser.Pause = false;
+        		}
+        	}
+        	decompresser.finish();
+        	index.TotalOutput = decompresser.OutputTotal;
+        	index.TotalRecords = decompresser.RecordCount;
+        } finally {
+        	try {
+        		decompresser.input.close();
+        	} catch (IOException e) {
+        		throw e;
+        	} catch (Exception e) {
+        		throw new IOException(e);
+        	}
+        }
+        return index;
+    }
+
+    private static Checkpoint Take(TerseDecompresser decompresser) throws IOException {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.OutputOffset = decompresser.OutputTotal;
+        checkpoint.RecordNumber = decompresser.RecordCount;
+        checkpoint.CompressedBit = decompresser.NextCodeBit();
+        ByteArrayOutputStream state = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(state))) {
+        	decompresser.SaveState(out);
+        }
+        checkpoint.State = state.toByteArray();
+        return checkpoint;
+    }
+
+    /*
+     * Passes the output on and asks the decompresser to pause when it is
+     * time for a checkpoint. OutputTotal is then the offset of the checkpoint.
+     */
+    private static class CheckpointStream extends OutputStream {
+        OutputStream output;
+        TerseDecompresser decompresser;
+        long count = 0;
+        long next;
+
+        CheckpointStream(OutputStream output, long interval) {
+        	this.output = output;
+        	this.next = interval;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+        	write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+        	if (output != null) {
+        		output.write(b, off, len);
+        	}
+        	count += len;
+        	if (count >= next) {
+        		decompresser.Pause = true;
+        	}
+        }
+    }
+
+    static byte[] ReadHeaderBytes(Path inputPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+        	ByteBuffer buffer = ByteBuffer.allocate(12);
+        	while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+        		/* keep reading */
+        	}
+        	return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /*
+     * The last checkpoint at or before position, or null to start at the beginning
+     */
+    Checkpoint Find(long position) {
+        int low = 0, high = Checkpoints.size() - 1;
+        Checkpoint found = null;
+        while (low <= high) {
+        	int middle = (low + high) >>> 1;
+        	Checkpoint checkpoint = Checkpoints.get(middle);
+        	if (checkpoint.OutputOffset <= position) {
+        		found = checkpoint;
+        		low = middle + 1;
+        	} else {
+        		high = middle - 1;
+        	}
+        }
+        return found;
+    }
+
+    /*
+     * The state saved in a checkpoint, to restore a decompresser from
+     */
+    static DataInputStream OpenState(Checkpoint checkpoint) {
+        return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(checkpoint.State)));
+    }
+
+    CodePage CodePage() {
+        if (CodePageName.equals(CodePage.DEFAULT.Name)) {
+        	return CodePage.DEFAULT;
+        }
+        int slash = CodePageName.indexOf('/');
+        return CodePage.forName(CodePageName.substring(0, slash), CodePageName.substring(slash + 1));
+    }
+
+    void Save(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+        	out.writeUTF(MAGIC);
+        	out.writeLong(Interval);
+        	out.writeBoolean(TextFlag);
+        	out.writeUTF(CodePageName);
+        	out.writeInt(LineSeparator.length);
+        	out.write(LineSeparator);
+        	out.writeLong(FileSize);
+        	out.writeInt(Header.length);
+        	out.write(Header);
+        	out.writeLong(TotalOutput);
+        	out.writeLong(TotalRecords);
+        	out.writeInt(Checkpoints.size());
+        	for (Checkpoint checkpoint : Checkpoints) {
+        		out.writeLong(checkpoint.OutputOffset);
+        		out.writeLong(checkpoint.RecordNumber);
+        		out.writeLong(checkpoint.CompressedBit);
+        		out.writeInt(checkpoint.State.length);
+        		out.write(checkpoint.State);
+        	}
+        }
+    }
+
+    static TerseIndex Load(Path path) throws IOException {
+        try (InputStream file = Files.newInputStream(path);
+        	 DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+        	if (!MAGIC.equals(in.readUTF())) {
+        		throw new IOException(path + " is not a terse index");
+        	}
+        	TerseIndex index = new TerseIndex();
+        	index.Interval = in.readLong();
+        	index.TextFlag = in.readBoolean();
+        	index.CodePageName = in.readUTF();
+        	index.LineSeparator = new byte[in.readInt()];
+        	in.readFully(index.LineSeparator);
+        	index.FileSize = in.readLong();
+        	index.Header = new byte[in.readInt()];
+        	in.readFully(index.Header);
+        	index.TotalOutput = in.readLong();
+        	index.TotalRecords = in.readLong();
+        	int count = in.readInt();
+        	for (int i = 0; i < count; i++) {
+        		Checkpoint checkpoint = new Checkpoint();
+        		checkpoint.OutputOffset = in.readLong();
+        		checkpoint.RecordNumber = in.readLong();
+        		checkpoint.CompressedBit = in.readLong();
+        		checkpoint.State = new byte[in.readInt()];
+        		in.readFully(checkpoint.State);
+        		index.Checkpoints.add(checkpoint);
+        	}
+        	return index;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * Read the decompressed data from a tersed file as an InputStream.
+ *
+ * Nothing is decoded until it is read. Each time we run out of data the
+ * decompresser decodes until it has written one output buffer's worth,
+ * then pauses - in the middle of a phrase if necessary - until it is asked
+ * for more. Memory use is a few output buffers however big the file is,
+ * except that a RECFM=VB binary record is always held complete so its RDW
+ * can be filled in.
+ */
+class TerseInputStream extends InputStream
+{
+	TerseDecompresser decompresser;
+
+	private byte[] pending = new byte[Constants.OUTPUTBUFFERSIZE];
+	private int pendingPos = 0;
+	private int pendingEnd = 0;
+	private boolean eof = false;
+
+	public TerseInputStream(InputStream inputStream, boolean textMode) throws IOException
+	{
+		this.decompresser = TerseDecompresser.create(inputStream, new Receiver());
+		this.decompresser.TextFlag = textMode;
+	}
+
+	public TerseInputStream(Path inputPath, boolean textMode) throws IOException
+	{
+		this.decompresser = TerseDecompresser.create(inputPath, new Receiver());
+		this.decompresser.TextFlag = textMode;
+	}
+
+    /*
+     * Read the output of a decompresser which has already been set up,
+     * e.g. restored from a checkpoint by IndexedTerseReader.
+     */
+    TerseInputStream(TerseDecompresser decompresser)
+    {
+        this.decompresser = decompresser;
+        this.decompresser.stream = new Receiver();
+    }
+
+    /*
+     * The decompresser's output stream. Takes what the decompresser writes
+     * and asks it to pause.
+     */
+    private class Receiver extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (pending.length - pendingEnd < len) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingEnd + len));
+            }
+            System.arraycopy(b, off, pending, pendingEnd, len);
+            pendingEnd += len;
+            decompresser.Pause = true;
+        }
+    }
+
+    /*
+     * Decode more data. Returns false at the end of the data.
+     */
+    private boolean more() throws IOException {
+        pendingPos = 0;
+        pendingEnd = 0;
+        while (pendingEnd == 0) {
+            if (eof) {
+                return false;
+            }
+            decompresser.Pause = false;
+            if (!decompresser.DecodeSome() || decompresser.HeadReached()) {
+                decompresser.finish();
+                eof = true;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pendingPos == pendingEnd && !more()) {
+            return -1;
+        }
+        return pending[pendingPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (pendingPos == pendingEnd && !more()) {
+            return -1;
+        }
+        int count = Math.min(len, pendingEnd - pendingPos);
+        System.arraycopy(pending, pendingPos, b, off, count);
+        pendingPos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (pendingPos == pendingEnd && !more()) {
+                break;
+            }
+            int count = (int) Math.min(n - skipped, pendingEnd - pendingPos);
+            pendingPos += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return pendingEnd - pendingPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            decompresser.input.close();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.blackhillsoftware.terse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/*
+ * Check that a file decodes cleanly without writing the output anywhere.
+ *
+ * The verifier takes the characters from the dictionary decode in place of
+ * FrameChar, and only counts: records, and the size the output would have
+ * in the same mode and code page, including RDWs and line separators. No
+ * records are built and nothing is translated. The sizes and counts are
+ * the same as a real decode gives.
+ *
+ * The optional checksum is a CRC-32 of the host data, the record contents
+ * before translation without RDWs or record marks, so it doesn't depend on
+ * the mode or code page.
+ */
+class TerseVerifier implements CharSink
+{
+	/* What was found for one file */
+	static class Result
+	{
+		Path File;
+		boolean Valid;
+		String Error;     /* why it didn't decode */
+		long Records;
+		long OutputSize;  /* bytes a decode in the same mode would write */
+		long HostBytes;   /* record contents before translation */
+		Long Checksum;    /* CRC-32 of the host bytes if requested */
+	}
+
+	private final TerseDecompresser decompresser;
+	private final boolean text;       /* the text path through FrameChar */
+	private final int[] sequenceLength;
+	private final int recordOverhead; /* RDW or line separator */
+	private final long longestHeld;   /* longer records are written in segments, see MemoryLimit */
+
+	private long records = 0;
+	private long recordSize = 0;
+	private long outputSize = 0;
+	private long hostBytes = 0;
+
+	private final CRC32 crc;
+	private final byte[] pending;
+	private int pendingCount = 0;
+
+	TerseVerifier(TerseDecompresser decompresser, boolean checksum)
+	{
+		this.decompresser = decompresser;
+		this.text = decompresser.HostFlag && decompresser.TextFlag;
+		byte[][] sequences = decompresser.codePage.Sequences;
+		if (sequences != null)
+		{
+			sequenceLength = new int[sequences.length];
+			for (int i = 0; i < sequences.length; i++)
+			{
+				sequenceLength[i] = sequences[i].length;
+			}
+		}
+		else
+		{
+			sequenceLength = null;
+		}
+		this.recordOverhead = (decompresser.VariableFlag && !decompresser.TextFlag ? 4 : 0)
+				+ (decompresser.TextFlag ? decompresser.lineseparator.length : 0);
+		this.longestHeld = decompresser.VariableFlag && !decompresser.TextFlag
+				? TerseDecompresser.LongestHeld(decompresser.MemoryLimit) : Long.MAX_VALUE;
+		this.crc = checksum ? new CRC32() : null;
+		this.pending = checksum ? new byte[Constants.OUTPUTBUFFERSIZE] : null;
+	}
+
+    /*
+     * Decode the whole file, counting the output instead of writing it
+     */
+    Result run() throws IOException {
+        decompresser.pipeline = this;
+        try {
+        	while (decompresser.DecodeSome()) {
+        		decompresser.Pause = false;
+        	}
+        } finally {
+        	decompresser.pipeline = null;
+        }
+        /* the same as TerseDecompresser.finish() */
+        if (recordSize > 0 || decompresser.TextFlag && decompresser.VariableFlag) {
+        	EndRecord();
+        }
+        if (decompresser.HostFlag && !decompresser.VariableFlag && !decompresser.TextFlag
+        		&& decompresser.RecordLength > 0) {
+        	/* binary FB records are written as one stream */
+        	records = (hostBytes + decompresser.RecordLength - 1) / decompresser.RecordLength;
+        }
+        Result result = new Result();
+        result.Valid = true;
+        result.Records = records;
+        result.OutputSize = outputSize;
+        result.HostBytes = hostBytes;
+        if (crc != null) {
+        	crc.update(pending, 0, pendingCount);
+        	pendingCount = 0;
+        	result.Checksum = crc.getValue();
+        }
+        return result;
+    }
+
+    /*
+     * The counting version of FrameChar
+     */
+    public void PutChar(int X) throws IOException {
+        if (X == 0) {
+        	if (text && decompresser.VariableFlag) {
+        		EndRecord();
+        	}
+        } else if (text) {
+        	if (decompresser.VariableFlag && X == Constants.RECORDMARK) {
+        		EndRecord();
+        	} else {
+        		Byte(X - 1, sequenceLength != null ? sequenceLength[X - 1] : 1);
+        		if (!decompresser.VariableFlag && recordSize == decompresser.RecordLength) {
+        			EndRecord();
+        		}
+        	}
+        } else if (X == Constants.RECORDMARK) {
+        	if (decompresser.VariableFlag) {
+        		EndRecord();
+        	}
+        } else {
+        	Byte(X - 1, 1);
+        }
+    }
+
+    private void Byte(int b, int length) {
+        recordSize++;
+        hostBytes++;
+        outputSize += length;
+        if (crc != null) {
+        	if (pendingCount == pending.length) {
+        		crc.update(pending, 0, pendingCount);
+        		pendingCount = 0;
+        	}
+        	pending[pendingCount++] = (byte) b;
+        }
+    }
+
+    private void EndRecord() {
+        records++;
+        outputSize += recordOverhead;
+        if (recordSize > longestHeld) {
+        	/* a descriptor for each segment after the first */
+        	outputSize += 4 * ((recordSize - 1) / TerseDecompresser.MAXSEGMENT);
+        }
+        recordSize = 0;
+    }
+
+    /*
+     * Verify one file. A file which doesn't decode gives a result with
+     * Valid false and the reason, rather than an exception.
+     */
+    static Result Verify(Path file, boolean textMode, CodePage codePage, boolean checksum) {
+        Result result;
+        TerseDecompresser decompresser = null;
+        try {
+        	/* memory mapped, the same as a decode from the command line */
+        	decompresser = TerseDecompresser.create(file, null);
+        	result = Verify(decompresser, textMode, codePage, checksum);
+        } catch (IOException | RuntimeException e) {
+        	result = new Result();
+        	result.Valid = false;
+        	result.Error = e.getMessage() != null ? e.getMessage() : e.toString();
+        } finally {
+        	if (decompresser != null) {
+        		try {
+        			decompresser.input.close();
+        		} catch (Exception e) {
+        			/* we only read it */
+        		}
+        	}
+        }
+        result.File = file;
+        return result;
+    }
+
+    /*
+     * Verify the file on in, throwing the exception a decode would.
+     * The stream is not closed.
+     */
+    static Result Verify(InputStream in, boolean textMode, CodePage codePage, boolean checksum) throws IOException {
+        return Verify(TerseDecompresser.create(in, null), textMode, codePage, checksum);
+    }
+
+    private static Result Verify(TerseDecompresser decompresser, boolean textMode, CodePage codePage, boolean checksum) throws IOException {
+        decompresser.TextFlag = textMode;
+        decompresser.setCodePage(codePage);
+        return new TerseVerifier(decompresser, checksum).run();
+    }
+
+    /*
+     * Verify all the files, threads at a time. The results are in the same
+     * order as the files.
+     */
+    static List<Result> Verify(List<Path> files, final boolean textMode, final CodePage codePage,
+    		final boolean checksum, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        List<Future<Result>> futures = new ArrayList<>(files.size());
+        List<Result> results = new ArrayList<>(files.size());
+        try {
+        	for (final Path file : files) {
+        		futures.add(executor.submit(() -> Verify(file, textMode, codePage, checksum)));
+        	}
+        	for (Future<Result> future : futures) {
+        		results.add(future.get());
+        	}
+        } finally {
+        	executor.shutdown();
+        }
+        return results;
+    }
+}
@@ -1,9 +0,0 @@
-package com.blackhillsoftware.terse;
-
-class TreeRecord {
-
-    int Left;
-    int Right;
-    int Back;
-    int NextCount;
-}
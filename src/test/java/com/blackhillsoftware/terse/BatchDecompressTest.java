@@ -0,0 +1,111 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Decompress a directory of files, one of which is broken.
+ */
+public class BatchDecompressTest
+    extends TestCase
+{
+    private Path inputs;
+    private Path outputs;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        inputs = Files.createTempDirectory("batchin");
+        outputs = inputs.resolve("out");
+        for (int i = 0; i < 6; i++)
+        {
+            StringBuilder lines = new StringBuilder();
+            for (int j = 0; j < 500 * (i + 1); j++)
+            {
+                lines.append("FILE ").append(i).append(" LINE ").append(j).append('\n');
+            }
+            Files.write(inputs.resolve("file" + i + ".trs"),
+                    TerseCompresserTest.compress(lines.toString().getBytes("US-ASCII"), i % 2 == 0, true, 255, true));
+        }
+        Files.write(inputs.resolve("broken.trs"), new byte[] { 0x07, 0x01, 0x02 });
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        delete(inputs.toFile());
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (File child : files)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void assertBatch(BatchDecompress batch, List<Path> files) throws Exception
+    {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        batch.Log = new PrintStream(log, true);
+        batch.Threads = 3;
+
+        assertEquals(1, batch.run(files, outputs));
+        assertEquals(6, batch.Succeeded.get());
+        assertTrue(log.toString().contains("FAILED " + inputs.resolve("broken.trs")));
+        assertFalse(Files.exists(outputs.resolve("broken.txt")));
+
+        for (int i = 0; i < 6; i++)
+        {
+            byte[] expected = TerseCompresserTest.decompress(Files.readAllBytes(inputs.resolve("file" + i + ".trs")), true);
+            assertTrue(Arrays.equals(expected, Files.readAllBytes(outputs.resolve("file" + i + ".txt"))));
+        }
+    }
+
+    public void testDirectory() throws Exception
+    {
+        List<Path> files = BatchDecompress.ListInputs(inputs.toString());
+        assertEquals(7, files.size());
+        assertBatch(new BatchDecompress(), files);
+    }
+
+    public void testGlobAndVirtualThreads() throws Exception
+    {
+        List<Path> files = BatchDecompress.ListInputs(inputs.resolve("*.trs").toString());
+        assertEquals(7, files.size());
+        BatchDecompress batch = new BatchDecompress();
+        batch.VirtualThreads = true;
+        assertBatch(batch, files);
+    }
+
+    public void testListFile() throws Exception
+    {
+        Path list = Files.createTempFile("batchlist", ".txt");
+        try
+        {
+            StringBuilder names = new StringBuilder();
+            for (Path file : BatchDecompress.ListInputs(inputs.resolve("*.trs").toString()))
+            {
+                names.append(file).append('\n');
+            }
+            Files.write(list, names.toString().getBytes("UTF-8"));
+            assertEquals(7, BatchDecompress.ListInputs("@" + list).size());
+        }
+        finally
+        {
+            Files.delete(list);
+        }
+    }
+}
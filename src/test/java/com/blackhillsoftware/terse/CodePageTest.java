@@ -0,0 +1,100 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+/**
+ * Text decoded with a code page is the same as translating it with the Java charset.
+ */
+public class CodePageTest
+    extends TestCase
+{
+    private static final String[] LINES = {
+        "PLAIN ASCII TEXT 0123456789",
+        "Accents: éèàüöäß É Å",
+        "Symbols: [ ] { } \\ | ^ ~ ¬ ¢ $ # @ !",
+        "",
+        "  LAST LINE  "
+    };
+
+    private static String decode(byte[] tersed, CodePage codePage) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.TextFlag = true;
+            decompresser.setCodePage(codePage);
+            decompresser.decode();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] terse(Charset ebcdic, int fixedLength) throws Exception
+    {
+        ByteArrayOutputStream host = new ByteArrayOutputStream();
+        for (int i = 0; i < 200; i++)
+        {
+            byte[] record = LINES[i % LINES.length].getBytes(ebcdic);
+            if (fixedLength > 0)
+            {
+                byte[] padded = new byte[fixedLength];
+                java.util.Arrays.fill(padded, (byte) 0x40);
+                System.arraycopy(record, 0, padded, 0, record.length);
+                host.write(padded);
+            }
+            else
+            {
+                host.write((record.length + 4) >> 8);
+                host.write(record.length + 4);
+                host.write(0);
+                host.write(0);
+                host.write(record);
+            }
+        }
+        return TerseCompresserTest.compress(host.toByteArray(), true, fixedLength == 0, fixedLength == 0 ? 255 : fixedLength, false);
+    }
+
+    public void testCodePages() throws Exception
+    {
+        for (String name : new String[] { "037", "CP1047", "273", "IBM500" })
+        {
+            CodePage codePage = CodePage.forName(name, "UTF-8");
+            assertNull(codePage.Single);
+            Charset ebcdic = Charset.forName(name.startsWith("IBM") ? name : "IBM" + name.replace("CP", ""));
+
+            StringBuilder variable = new StringBuilder();
+            StringBuilder fixed = new StringBuilder();
+            for (int i = 0; i < 200; i++)
+            {
+                String line = new String(LINES[i % LINES.length].getBytes(ebcdic), ebcdic);
+                variable.append(line).append(System.lineSeparator());
+                // padded to 50 characters, not 50 UTF-8 bytes
+                fixed.append(String.format("%-50s", line)).append(System.lineSeparator());
+            }
+            assertEquals(name, variable.toString(), decode(terse(ebcdic, 0), codePage));
+            assertEquals(name, fixed.toString(), decode(terse(ebcdic, 50), codePage));
+        }
+    }
+
+    public void testSingleByteTarget() throws Exception
+    {
+        CodePage codePage = CodePage.forName("1047", "ISO-8859-1");
+        assertNotNull(codePage.Single);
+        assertSame(codePage, CodePage.forName("1047", "ISO-8859-1"));
+
+        Charset ebcdic = Charset.forName("IBM1047");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(terse(ebcdic, 0)), out))
+        {
+            decompresser.TextFlag = true;
+            decompresser.setCodePage(codePage);
+            decompresser.decode();
+        }
+        String decoded = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+        assertTrue(decoded.startsWith(LINES[0] + System.lineSeparator() + LINES[1]));
+    }
+}
@@ -0,0 +1,160 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * The metrics match what was decoded.
+ */
+public class DecodeMetricsTest
+    extends TestCase
+{
+    private static DecodeMetrics decode(byte[] tersed, boolean text, boolean pipelined, ByteArrayOutputStream out) throws Exception
+    {
+        final DecodeMetrics[] result = new DecodeMetrics[1];
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.Pipelined = pipelined;
+            decompresser.setListener(metrics -> result[0] = metrics);
+            decompresser.decode();
+        }
+        assertNotNull(result[0]);
+        return result[0];
+    }
+
+    public void testBinary() throws Exception
+    {
+        Random random = new Random(15);
+        byte[] data = new byte[1000000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i % 5000 < 2000 ? random.nextInt(256) : i % 13);
+        }
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = TerseCompresserTest.compress(data, spack, false, 1000, false);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DecodeMetrics metrics = decode(tersed, false, false, out);
+            assertEquals(tersed.length, metrics.BytesIn);
+            assertEquals(out.size(), metrics.BytesOut);
+            assertEquals(data.length, metrics.BytesOut);
+            assertEquals(1000, metrics.Records);
+            /* every character of FB binary data is a byte of output */
+            assertEquals(data.length, metrics.PhraseCharacters);
+            long codes = 0;
+            for (long count : metrics.PhraseLengths)
+            {
+                codes += count;
+            }
+            assertEquals(metrics.Codes, codes);
+            assertTrue(metrics.Codes > 1000 && metrics.Codes < data.length);
+            assertEquals(spack, metrics.Evictions > 0);
+
+            DecodeMetrics pipelined = decode(tersed, false, true, new ByteArrayOutputStream());
+            assertEquals(metrics.Codes, pipelined.Codes);
+            assertEquals(metrics.BytesOut, pipelined.BytesOut);
+            assertEquals(metrics.Evictions, pipelined.Evictions);
+            assertEquals(metrics.LongestPhrase, pipelined.LongestPhrase);
+        }
+    }
+
+    public void testTextRecords() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            lines.append("LINE ").append(i).append('\n');
+        }
+        byte[] data = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = TerseCompresserTest.compress(data, spack, true, 255, true);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DecodeMetrics metrics = decode(tersed, true, false, out);
+            assertEquals(5000, metrics.Records);
+            assertEquals(out.size(), metrics.BytesOut);
+        }
+    }
+
+    public void testStatistics() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(new byte[100000], true, false, 100, false);
+        DecodeStatistics statistics = new DecodeStatistics();
+        ObjectName name = statistics.register();
+        try
+        {
+            for (int i = 0; i < 3; i++)
+            {
+                try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), new ByteArrayOutputStream()))
+                {
+                    decompresser.setListener(statistics);
+                    decompresser.decode();
+                }
+            }
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(3L, server.getAttribute(name, "Decodes"));
+            assertEquals(300000L, server.getAttribute(name, "BytesOut"));
+            assertEquals(3L * tersed.length, server.getAttribute(name, "BytesIn"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, statistics.getDecodes());
+        }
+        finally
+        {
+            statistics.unregister();
+        }
+    }
+
+    public void testTiming() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(new byte[100000], true, false, 100, false);
+        final DecodeMetrics[] result = new DecodeMetrics[1];
+
+        /* the time before decoding starts doesn't count */
+        long start = System.nanoTime();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), new ByteArrayOutputStream()))
+        {
+            decompresser.setListener(metrics -> result[0] = metrics);
+            Thread.sleep(500);
+            decompresser.decode();
+        }
+        assertTrue(result[0].TotalNanos > 0);
+        assertTrue(result[0].TotalNanos < System.nanoTime() - start - 500000000L);
+        assertEquals(0, result[0].MappedDecodes);
+        assertTrue(result[0].toString(), result[0].toString().contains(" ms, decode"));
+
+        /* a mapped file has no read time to report */
+        File file = File.createTempFile("metrics", ".trs");
+        try
+        {
+            Files.write(file.toPath(), tersed);
+            try (TerseDecompresser decompresser = TerseDecompresser.create(file.toPath(), new ByteArrayOutputStream()))
+            {
+                decompresser.setListener(metrics -> result[0] = metrics);
+                decompresser.decode();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+        assertEquals(1, result[0].MappedDecodes);
+        assertEquals(0, result[0].ReadNanos);
+        assertTrue(result[0].toString(), result[0].toString().contains("read n/a (mapped input)"));
+
+        DecodeStatistics statistics = new DecodeStatistics();
+        statistics.decodeFinished(result[0]);
+        assertEquals(1, statistics.getMappedDecodes());
+        assertEquals(1, statistics.Totals().MappedDecodes);
+    }
+}
@@ -0,0 +1,119 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * decodeRecords gives back the records that were compressed.
+ */
+public class DecodeRecordsTest
+    extends TestCase
+{
+    private static List<byte[]> decodeRecords(byte[] tersed, boolean text) throws Exception
+    {
+        final List<byte[]> records = new ArrayList<>();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), null))
+        {
+            decompresser.TextFlag = text;
+            decompresser.decodeRecords(new RecordHandler()
+            {
+                @Override
+                public void record(long number, ByteBuffer record)
+                {
+                    assertEquals(records.size() + 1, number);
+                    byte[] copy = new byte[record.remaining()];
+                    record.get(copy);
+                    records.add(copy);
+                }
+            });
+        }
+        return records;
+    }
+
+    private static List<byte[]> randomRecords(int count, boolean fixed)
+    {
+        Random random = new Random(count);
+        List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            byte[] record = new byte[fixed ? 500 : random.nextInt(3000)];
+            for (int j = 0; j < record.length; j++)
+            {
+                record[j] = (byte) (j < 8 ? i : random.nextInt(5));
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    private void assertRecords(List<byte[]> expected, List<byte[]> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertTrue("Record " + (i + 1), Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+
+    public void testBinaryVariable() throws Exception
+    {
+        List<byte[]> records = randomRecords(2000, false);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (byte[] record : records)
+        {
+            data.write((record.length + 4) >> 8);
+            data.write(record.length + 4);
+            data.write(0);
+            data.write(0);
+            data.write(record);
+        }
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = TerseCompresserTest.compress(data.toByteArray(), spack, true, 32756, false);
+            assertRecords(records, decodeRecords(tersed, false));
+        }
+    }
+
+    public void testBinaryFixed() throws Exception
+    {
+        List<byte[]> records = randomRecords(2000, true);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (byte[] record : records)
+        {
+            data.write(record);
+        }
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = TerseCompresserTest.compress(data.toByteArray(), spack, false, 500, false);
+            assertRecords(records, decodeRecords(tersed, false));
+        }
+    }
+
+    public void testText() throws Exception
+    {
+        List<byte[]> lines = new ArrayList<>();
+        List<byte[]> padded = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+        {
+            String line = i % 10 == 0 ? "" : "LINE " + i + " OF THE FILE";
+            text.append(line).append('\n');
+            lines.add(line.getBytes(StandardCharsets.US_ASCII));
+            padded.add(String.format("%-80s", line).getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.US_ASCII);
+        for (boolean spack : new boolean[] { false, true })
+        {
+            assertRecords(lines, decodeRecords(TerseCompresserTest.compress(data, spack, true, 255, true), true));
+            assertRecords(padded, decodeRecords(TerseCompresserTest.compress(data, spack, false, 80, true), true));
+        }
+    }
+}
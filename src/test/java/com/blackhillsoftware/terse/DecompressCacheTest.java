@@ -0,0 +1,197 @@
+package com.blackhillsoftware.terse;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Decompressing through the cache gives the same output as decompressing directly.
+ */
+public class DecompressCacheTest
+    extends TestCase
+{
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("tersecache");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for (File file : directory.toFile().listFiles())
+        {
+            file.delete();
+        }
+        directory.toFile().delete();
+    }
+
+    private Path tersed(String name, String text) throws Exception
+    {
+        Path file = directory.resolve(name + ".trs");
+        Files.write(file, TerseCompresserTest.compress(text.getBytes("US-ASCII"), true, true, 255, true));
+        return file;
+    }
+
+    private static String lines(int count, String word)
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            lines.append(word).append(' ').append(i).append('\n');
+        }
+        return lines.toString();
+    }
+
+    public void testHitAndMode() throws Exception
+    {
+        DecompressCache cache = new DecompressCache(directory.resolve("cache"), 1 << 20);
+        Path input = tersed("a", lines(1000, "HELLO"));
+        Path output = directory.resolve("a.txt");
+
+        assertFalse(cache.decompress(input, output, true));
+        byte[] expected = Files.readAllBytes(output);
+        assertTrue(Arrays.equals(expected, TerseCompresserTest.decompress(Files.readAllBytes(input), true)));
+
+        Files.delete(output);
+        assertTrue(cache.decompress(input, output, true));
+        assertTrue(Arrays.equals(expected, Files.readAllBytes(output)));
+
+        // binary mode is a different result
+        assertFalse(cache.decompress(input, output, false));
+        assertTrue(Arrays.equals(TerseCompresserTest.decompress(Files.readAllBytes(input), false),
+                Files.readAllBytes(output)));
+
+        assertEquals(1, cache.Hits.get());
+        assertEquals(2, cache.Misses.get());
+        for (File file : directory.resolve("cache").toFile().listFiles())
+        {
+            file.delete();
+        }
+    }
+
+    public void testMemoryLimit() throws Exception
+    {
+        // one RECFM=VB record too long for a limit of 64k, from a line of text
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 70000; i++)
+        {
+            line.append((char) ('A' + i % 7));
+        }
+        line.append('\n');
+        Path input = directory.resolve("long.trs");
+        Files.write(input, TerseCompresserTest.compress(line.toString().getBytes("US-ASCII"), true, true, 1 << 20, true));
+        Path output = directory.resolve("long.bin");
+        DecompressCache cache = new DecompressCache(directory.resolve("cache"), 1 << 20);
+
+        assertFalse(cache.decompress(input, output, false, CodePage.DEFAULT, 0, null));
+        byte[] record = Files.readAllBytes(output);
+        assertEquals(70004, record.length);
+
+        // spanned segments are a different result
+        assertFalse(cache.decompress(input, output, false, CodePage.DEFAULT, 1, null));
+        assertEquals(record.length + 8, Files.size(output));
+        assertTrue(cache.decompress(input, output, false, CodePage.DEFAULT, 1, null));
+        assertEquals(record.length + 8, Files.size(output));
+        assertTrue(cache.decompress(input, output, false, CodePage.DEFAULT, 0, null));
+        assertTrue(Arrays.equals(record, Files.readAllBytes(output)));
+
+        // and so is each limit, even one the record fits in
+        assertFalse(cache.decompress(input, output, false, CodePage.DEFAULT, 1 << 20, null));
+        assertTrue(Arrays.equals(record, Files.readAllBytes(output)));
+        for (File file : directory.resolve("cache").toFile().listFiles())
+        {
+            file.delete();
+        }
+    }
+
+    public void testListener() throws Exception
+    {
+        Path input = tersed("metrics", lines(1000, "METRICS"));
+        Path output = directory.resolve("metrics.txt");
+        DecompressCache cache = new DecompressCache(directory.resolve("cache"), 1 << 20);
+        DecodeStatistics statistics = new DecodeStatistics();
+
+        // a miss is decoded and reported, a hit is only copied
+        assertFalse(cache.decompress(input, output, true, CodePage.DEFAULT, 0, statistics));
+        assertEquals(1, statistics.getDecodes());
+        assertEquals(Files.size(output), statistics.getBytesOut());
+        assertTrue(cache.decompress(input, output, true, CodePage.DEFAULT, 0, statistics));
+        assertEquals(1, statistics.getDecodes());
+        for (File file : directory.resolve("cache").toFile().listFiles())
+        {
+            file.delete();
+        }
+    }
+
+    public void testEviction() throws Exception
+    {
+        Path cacheDirectory = directory.resolve("cache");
+        DecompressCache cache = new DecompressCache(cacheDirectory, 10000);
+        Path output = directory.resolve("out.txt");
+        for (int i = 0; i < 5; i++)
+        {
+            // about 6000 bytes each, so only one fits
+            cache.decompress(tersed("f" + i, lines(600, "FILE" + i)), output, true);
+            assertEquals(1, cacheDirectory.toFile().listFiles().length);
+        }
+        // the last one is still there
+        assertTrue(cache.decompress(directory.resolve("f4.trs"), output, true));
+        assertFalse(cache.decompress(directory.resolve("f0.trs"), output, true));
+        for (File file : cacheDirectory.toFile().listFiles())
+        {
+            file.delete();
+        }
+    }
+
+    public void testConcurrentWriters() throws Exception
+    {
+        final Path cacheDirectory = directory.resolve("cache");
+        final Path input = tersed("c", lines(20000, "CONCURRENT"));
+        final byte[] expected = TerseCompresserTest.decompress(Files.readAllBytes(input), true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+            {
+                final Path output = directory.resolve("c" + i + ".txt");
+                results.add(executor.submit(new Callable<byte[]>()
+                {
+                    @Override
+                    public byte[] call() throws Exception
+                    {
+                        // separate instances, as if they were separate processes
+                        new DecompressCache(cacheDirectory, 1 << 30).decompress(input, output, true);
+                        return Files.readAllBytes(output);
+                    }
+                }));
+            }
+            for (Future<byte[]> result : results)
+            {
+                assertTrue(Arrays.equals(expected, result.get()));
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals(1, cacheDirectory.toFile().listFiles().length);
+        for (File file : cacheDirectory.toFile().listFiles())
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * A reset or pooled decompresser gives the same output as a new one.
+ */
+public class DecompresserPoolTest
+    extends TestCase
+{
+    private static List<byte[]> samples() throws Exception
+    {
+        Random random = new Random(14);
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 12; i++)
+        {
+            StringBuilder lines = new StringBuilder();
+            int count = 1 + random.nextInt(3000);
+            for (int j = 0; j < count; j++)
+            {
+                lines.append("FILE ").append(i).append(" LINE ").append(random.nextInt(500)).append('\n');
+            }
+            byte[] data = lines.toString().getBytes(StandardCharsets.US_ASCII);
+            samples.add(TerseCompresserTest.compress(data, i % 2 == 0, i % 3 == 0, 80, true));
+        }
+        return samples;
+    }
+
+    public void testReset() throws Exception
+    {
+        List<byte[]> samples = samples();
+        for (boolean spack : new boolean[] { false, true })
+        {
+            TerseDecompresser decompresser = null;
+            for (byte[] tersed : samples)
+            {
+                if ((tersed[0] == 0x05) != spack)
+                {
+                    continue;
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (decompresser == null)
+                {
+                    decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out);
+                }
+                else
+                {
+                    decompresser.reset(new ByteArrayInputStream(tersed), out);
+                }
+                decompresser.TextFlag = true;
+                decompresser.decode();
+                decompresser.finish();
+                assertTrue(Arrays.equals(TerseCompresserTest.decompress(tersed, true), out.toByteArray()));
+            }
+        }
+    }
+
+    public void testWrongAlgorithm() throws Exception
+    {
+        List<byte[]> samples = samples();
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(samples.get(0)), new ByteArrayOutputStream());
+        try
+        {
+            decompresser.reset(new ByteArrayInputStream(samples.get(1)), new ByteArrayOutputStream());
+            fail();
+        }
+        catch (java.io.IOException e)
+        {
+            assertTrue(e.getMessage().startsWith("Can't reset"));
+        }
+    }
+
+    public void testConcurrent() throws Exception
+    {
+        final List<byte[]> samples = samples();
+        final DecompresserPool pool = new DecompresserPool(4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++)
+            {
+                final byte[] tersed = samples.get(i % samples.size());
+                results.add(executor.submit(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    pool.decompress(new ByteArrayInputStream(tersed), out, true);
+                    return Arrays.equals(TerseCompresserTest.decompress(tersed, true), out.toByteArray());
+                }));
+            }
+            for (Future<Boolean> result : results)
+            {
+                assertTrue(result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertTrue(pool.idleCount() > 0 && pool.idleCount() <= 8);
+    }
+}
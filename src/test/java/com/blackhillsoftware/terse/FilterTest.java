@@ -0,0 +1,198 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Filtered records are dropped before translation, and the rest are cut down to the columns and
+ * written the same way as without a filter.
+ */
+public class FilterTest
+    extends TestCase
+{
+    private static byte[] decode(byte[] tersed, boolean text, CodePage codePage, RecordFilter filter, int[] columns,
+            boolean pipelined) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.setCodePage(codePage);
+            decompresser.setFilter(filter, columns);
+            decompresser.Pipelined = pipelined;
+            decompresser.decode();
+            decompresser.finish();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] text(int count)
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            lines.append((char) ('A' + i % 3)).append(" RECORD ").append(i).append(" éè ").append(i % 7).append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] rdws(Random random, int count, byte[][] records)
+    {
+        ByteArrayOutputStream rdws = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++)
+        {
+            byte[] record = new byte[random.nextInt(300) + (i % 5 == 0 ? 0 : 2)];
+            for (int j = 0; j < record.length; j++)
+            {
+                record[j] = (byte) random.nextInt(6);
+            }
+            if (record.length > 1)
+            {
+                record[1] = (byte) (i % 4 == 0 ? 30 : 70 + i % 3);
+            }
+            records[i] = record;
+            rdws.write((record.length + 4) >> 8);
+            rdws.write(record.length + 4);
+            rdws.write(0);
+            rdws.write(0);
+            rdws.write(record, 0, record.length);
+        }
+        return rdws.toByteArray();
+    }
+
+    public void testAcceptAll() throws Exception
+    {
+        RecordFilter all = (number, record) -> true;
+        byte[] text = text(20000);
+        byte[][] records = new byte[3000][];
+        byte[] variable = rdws(new Random(25), records.length, records);
+        byte[] fixed = Arrays.copyOf(variable, 80 * 3000 + 17);
+        CodePage utf8 = CodePage.forName("1047", "UTF-8");
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[][] tersed = {
+                    TerseCompresserTest.compress(text, spack, true, 255, true),
+                    TerseCompresserTest.compress(text, spack, false, 40, true),
+                    TerseCompresserTest.compress(variable, spack, true, 310, false),
+                    TerseCompresserTest.compress(fixed, spack, false, 80, false) };
+            for (int i = 0; i < tersed.length; i++)
+            {
+                boolean textMode = i < 2;
+                for (CodePage codePage : new CodePage[] { CodePage.DEFAULT, utf8 })
+                {
+                    byte[] expected = decode(tersed[i], textMode, codePage, null, null, false);
+                    assertTrue(Arrays.equals(expected, decode(tersed[i], textMode, codePage, all, null, false)));
+                    assertTrue(Arrays.equals(expected, decode(tersed[i], textMode, codePage, null, new int[] { 0, 100000 }, false)));
+                    assertTrue(Arrays.equals(expected, decode(tersed[i], textMode, codePage, all, null, true)));
+                }
+            }
+        }
+    }
+
+    public void testInclude() throws Exception
+    {
+        byte[][] records = new byte[5000][];
+        byte[] tersed = TerseCompresserTest.compress(rdws(new Random(26), records.length, records), true, true, 310, false);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (byte[] record : records)
+        {
+            if (record.length > 1 && (record[1] == 30 || record[1] == 71))
+            {
+                int length = Math.min(record.length, 10) - 2;
+                expected.write((length + 4) >> 8);
+                expected.write(length + 4);
+                expected.write(0);
+                expected.write(0);
+                expected.write(record, 2, length);
+            }
+        }
+        byte[] output = decode(tersed, false, CodePage.DEFAULT, RecordFilter.Include(1, new byte[] { 30 }, new byte[] { 71 }),
+                new int[] { 2, 10 }, false);
+        assertTrue(Arrays.equals(expected.toByteArray(), output));
+    }
+
+    public void testTextColumns() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(text(10000), false, true, 255, true);
+        CodePage codePage = CodePage.forName("1047", "UTF-8");
+        String separator = new String(codePage.LineSeparator, StandardCharsets.UTF_8);
+        byte[] ebcdicB = "B".getBytes("IBM1047");
+        /* the filter sees the host data, before translation */
+        RecordFilter b = (number, record) -> record.get(record.position()) == ebcdicB[0];
+        String output = new String(decode(tersed, true, codePage, b, new int[] { 0, 1, 9, 16 }, false), StandardCharsets.UTF_8);
+        StringBuilder expected = new StringBuilder();
+        for (String line : new String(decode(tersed, true, codePage, null, null, false), StandardCharsets.UTF_8).split(separator))
+        {
+            if (line.startsWith("B"))
+            {
+                expected.append(line.substring(0, 1)).append(line.substring(9, Math.min(line.length(), 16))).append(separator);
+            }
+        }
+        assertEquals(expected.toString(), output);
+    }
+
+    public void testFixedBinary() throws Exception
+    {
+        byte[] data = new byte[100 * 50];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i / 50);
+        }
+        byte[] tersed = TerseCompresserTest.compress(data, true, false, 50, false);
+        DecodeStatistics statistics = new DecodeStatistics();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.setFilter((number, record) -> number % 10 == 0, new int[] { 0, 3 });
+            decompresser.setListener(statistics);
+            decompresser.decode();
+        }
+        byte[] expected = new byte[10 * 3];
+        for (int i = 0; i < expected.length; i++)
+        {
+            expected[i] = (byte) ((i / 3 + 1) * 10 - 1);
+        }
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+        /* the records decoded, like the other formats, not the 30 bytes written divided by the lrecl */
+        assertEquals(100, statistics.getRecords());
+    }
+
+    public void testInvalid() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(text(10), true, true, 255, true);
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), null);
+        try
+        {
+            decompresser.setFilter(null, new int[] { 5, 10, 8, 12 });
+            fail("overlapping columns");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* expected */
+        }
+        try
+        {
+            RecordFilter.Include(-1, new byte[] { 30 });
+            fail("negative offset");
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* expected */
+        }
+        decompresser.setFilter(null, new int[] { 0, 10 });
+        try
+        {
+            decompresser.decodeRecords((number, record) -> { });
+            fail("a filter with a record handler");
+        }
+        catch (IllegalStateException e)
+        {
+            /* expected */
+        }
+    }
+}
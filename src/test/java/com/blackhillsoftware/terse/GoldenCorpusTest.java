@@ -0,0 +1,314 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Decodes a generated corpus of PACK and SPACK files - FB and VB, text and binary data,
+ * host and native headers - and checks the output against stored SHA-256 digests.
+ *
+ * With -Dgolden.throughput=true (mvn test -P perf) it also times each case and fails if
+ * one is more than golden.tolerance (default 0.5) slower than the baseline in
+ * golden.baseline. Throughput depends on the machine, so record a baseline on the machine
+ * that runs the check with -Dgolden.record=true.
+ */
+public class GoldenCorpusTest
+    extends TestCase
+{
+    private static final int CORPUS_BYTES = 2 * 1024 * 1024;
+    private static final String DIGESTS = "golden-digests.txt";
+
+    /** One file of the corpus and the mode it is decoded in */
+    static class Case
+    {
+        final String name;
+        final byte[] tersed;
+        final boolean text;
+
+        Case(String name, byte[] tersed, boolean text)
+        {
+            this.name = name;
+            this.tersed = tersed;
+            this.text = text;
+        }
+    }
+
+    private static final String[] WORDS = {
+        "//", "JOB", "EXEC", "PGM=IEBGENER", "DD", "DSN=PROD.DATA", "DISP=SHR", "SYSOUT=*",
+        "IEF142I", "STEP", "WAS", "EXECUTED", "-", "COND", "CODE", "0000", "IEF373I",
+        "RECFM=VB", "LRECL=255", "SPACE=(TRK,(1,1))", "VOL=SER=WRK002", "*", "0", "1"
+    };
+
+    static byte[] textRecord(Random random, boolean fixed, int sequence)
+    {
+        StringBuilder line = new StringBuilder();
+        int target = fixed ? 72 : random.nextInt(120);
+        while (true)
+        {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            if (line.length() + word.length() + 1 > target)
+            {
+                break;
+            }
+            line.append(word).append(' ');
+        }
+        if (fixed)
+        {
+            while (line.length() < 72)
+            {
+                line.append(' ');
+            }
+            line.append(String.format("%08d", sequence));
+        }
+        byte[] record = new byte[line.length()];
+        for (int i = 0; i < record.length; i++)
+        {
+            record[i] = (byte) Constants.AscToEbc[line.charAt(i)];
+        }
+        return record;
+    }
+
+    static byte[] binaryRecord(Random random, boolean fixed, int sequence)
+    {
+        byte[] record = new byte[fixed ? 1024 : 20 + random.nextInt(2000)];
+        record[0] = (byte) sequence;
+        record[1] = (byte) (sequence >> 8);
+        for (int i = 4; i < record.length; i++)
+        {
+            // runs of zeros, small counters and the odd random byte
+            int kind = (i / 16) % 4;
+            record[i] = (byte) (kind == 0 ? 0 : kind == 3 ? random.nextInt(256) : random.nextInt(10));
+        }
+        return record;
+    }
+
+    /**
+     * Host data of about CORPUS_BYTES, with RDWs for VB
+     */
+    static byte[] hostData(boolean text, boolean variable)
+    {
+        Random random = new Random(text ? (variable ? 1 : 2) : (variable ? 3 : 4));
+        ByteArrayOutputStream host = new ByteArrayOutputStream(CORPUS_BYTES + 64 * 1024);
+        for (int sequence = 1; host.size() < CORPUS_BYTES; sequence++)
+        {
+            byte[] record = text ? textRecord(random, !variable, sequence) : binaryRecord(random, !variable, sequence);
+            if (variable)
+            {
+                host.write((record.length + 4) >> 8);
+                host.write(record.length + 4);
+                host.write(0);
+                host.write(0);
+            }
+            host.write(record, 0, record.length);
+        }
+        return host.toByteArray();
+    }
+
+    /**
+     * The code stream of a host file behind a native header, 0x01 or 0x07
+     */
+    static byte[] nativeFile(byte[] host, int version)
+    {
+        byte[] file = new byte[host.length - 12 + 6];
+        file[0] = (byte) version;
+        file[1] = (byte) 0x89;
+        file[2] = 0x69;
+        file[3] = (byte) 0xA5;
+        file[4] = host[2];
+        file[5] = host[3];
+        System.arraycopy(host, 12, file, 6, host.length - 12);
+        return file;
+    }
+
+    static List<Case> cases() throws Exception
+    {
+        List<Case> cases = new ArrayList<>();
+        for (boolean spack : new boolean[] { false, true })
+        {
+            String algorithm = spack ? "spack" : "pack";
+            for (boolean variable : new boolean[] { false, true })
+            {
+                String recfm = variable ? "vb" : "fb";
+                byte[] text = TerseCompresserTest.compress(hostData(true, variable), spack, variable, variable ? 255 : 80, false);
+                byte[] binary = TerseCompresserTest.compress(hostData(false, variable), spack, variable, variable ? 2100 : 1024, false);
+                cases.add(new Case(algorithm + "-" + recfm + "-text", text, true));
+                cases.add(new Case(algorithm + "-" + recfm + "-text-binarymode", text, false));
+                cases.add(new Case(algorithm + "-" + recfm + "-binary", binary, false));
+                if (spack && !variable)
+                {
+                    // native headers are always SPACK
+                    for (int version : new int[] { 0x01, 0x07 })
+                    {
+                        String name = String.format("native%02x", version);
+                        cases.add(new Case(name + "-binary", nativeFile(binary, version), false));
+                        cases.add(new Case(name + "-textmode", nativeFile(text, version), true));
+                    }
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static void decode(Case c, OutputStream out) throws Exception
+    {
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(c.tersed), out))
+        {
+            decompresser.TextFlag = c.text;
+            decompresser.decode();
+        }
+    }
+
+    static String digest(byte[] data) throws Exception
+    {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+        {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * The stored digests: name, output size and SHA-256 of the output
+     */
+    private static Map<String, String[]> storedDigests() throws IOException
+    {
+        Map<String, String[]> digests = new LinkedHashMap<>();
+        try (InputStream in = GoldenCorpusTest.class.getResourceAsStream("/" + DIGESTS))
+        {
+            assertNotNull(DIGESTS + " is missing", in);
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                text.write(buffer, 0, n);
+            }
+            for (String line : new String(text.toByteArray(), StandardCharsets.US_ASCII).split("\n"))
+            {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#"))
+                {
+                    String[] fields = line.split("\\s+");
+                    digests.put(fields[0], new String[] { fields[1], fields[2] });
+                }
+            }
+        }
+        return digests;
+    }
+
+    public void testDigests() throws Exception
+    {
+        Map<String, String[]> expected = storedDigests();
+        List<Case> cases = cases();
+        assertEquals(expected.keySet().size(), cases.size());
+        for (Case c : cases)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            decode(c, out);
+            String[] digest = expected.get(c.name);
+            assertNotNull("No digest for " + c.name, digest);
+            assertEquals(c.name, Long.parseLong(digest[0]), out.size());
+            assertEquals(c.name, digest[1], digest(out.toByteArray()));
+        }
+    }
+
+    /** Discards the output */
+    private static class NullOutputStream extends OutputStream
+    {
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    }
+
+    /**
+     * MB/s of output, the best of several timed decodes
+     */
+    private static double throughput(Case c, long outputSize) throws Exception
+    {
+        OutputStream out = new NullOutputStream();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++)
+        {
+            long start = System.nanoTime();
+            decode(c, out);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return outputSize / (best / 1e9) / (1024 * 1024);
+    }
+
+    public void testThroughput() throws Exception
+    {
+        if (!Boolean.getBoolean("golden.throughput"))
+        {
+            return;
+        }
+        Path baselineFile = Paths.get(System.getProperty("golden.baseline", "src/test/resources/golden-throughput.properties"));
+        double tolerance = Double.parseDouble(System.getProperty("golden.tolerance", "0.5"));
+        boolean record = Boolean.getBoolean("golden.record");
+
+        Properties baseline = new Properties();
+        if (!record)
+        {
+            try (Reader in = Files.newBufferedReader(baselineFile, StandardCharsets.UTF_8))
+            {
+                baseline.load(in);
+            }
+        }
+        Map<String, String[]> digests = storedDigests();
+        List<Case> cases = cases();
+        // warm up every decoder path before timing any of them
+        for (int i = 0; i < 5; i++)
+        {
+            for (Case c : cases)
+            {
+                decode(c, new NullOutputStream());
+            }
+        }
+        Properties measured = new Properties();
+        List<String> regressions = new ArrayList<>();
+        for (Case c : cases)
+        {
+            double mbs = throughput(c, Long.parseLong(digests.get(c.name)[0]));
+            measured.setProperty(c.name, String.format("%.1f", mbs));
+            String expected = baseline.getProperty(c.name);
+            System.out.println(String.format("%-32s %8.1f MB/s%s", c.name, mbs, expected != null ? " (baseline " + expected + ")" : ""));
+            if (expected != null && mbs < Double.parseDouble(expected) * (1 - tolerance))
+            {
+                regressions.add(String.format("%s %.1f MB/s, baseline %s", c.name, mbs, expected));
+            }
+        }
+        if (record)
+        {
+            try (Writer out = Files.newBufferedWriter(baselineFile, StandardCharsets.UTF_8))
+            {
+                measured.store(out, "MB/s of output for each GoldenCorpusTest case");
+            }
+        }
+        assertTrue("Slower than the baseline by more than " + tolerance + ": " + regressions, regressions.isEmpty());
+    }
+}
@@ -0,0 +1,240 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+ * Head mode gives the start of the full output, and stops reading the file once a limit is reached.
+ */
+public class HeadTest
+    extends TestCase
+{
+    private static class CountingInputStream extends FilterInputStream
+    {
+        long count = 0;
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0)
+            {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    private static byte[] decode(byte[] tersed, boolean text, long records, long bytes, long inputBytes,
+            boolean[] truncated, long[] read) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(tersed));
+        try (TerseDecompresser decompresser = TerseDecompresser.create(in, out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.setHead(records, bytes, inputBytes);
+            decompresser.decode();
+            decompresser.finish();
+            truncated[0] = decompresser.Truncated;
+        }
+        read[0] = in.count;
+        return out.toByteArray();
+    }
+
+    private static byte[] text()
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 200000; i++)
+        {
+            lines.append("LINE ").append(i).append(" OF ").append(i % 13).append('\n');
+        }
+        return lines.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /*
+     * The length of the first n lines of text output
+     */
+    private static int lines(byte[] output, int n)
+    {
+        byte[] separator = CodePage.DEFAULT.LineSeparator;
+        int position = 0;
+        for (int line = 0; line < n; line++)
+        {
+            while (!Arrays.equals(Arrays.copyOfRange(output, position, position + separator.length), separator))
+            {
+                position++;
+            }
+            position += separator.length;
+        }
+        return position;
+    }
+
+    public void testRecords() throws Exception
+    {
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = TerseCompresserTest.compress(text(), spack, true, 255, true);
+            byte[] full = TerseCompresserTest.decompress(tersed, true);
+            boolean[] truncated = new boolean[1];
+            long[] read = new long[1];
+            for (int n : new int[] { 1, 7, 1000 })
+            {
+                byte[] head = decode(tersed, true, n, 0, 0, truncated, read);
+                assertTrue(Arrays.equals(Arrays.copyOf(full, lines(full, n)), head));
+                assertTrue(truncated[0]);
+                assertTrue(read[0] < tersed.length / 2);
+            }
+            byte[] all = decode(tersed, true, 1000000, 0, 0, truncated, read);
+            assertTrue(Arrays.equals(full, all));
+            assertFalse(truncated[0]);
+        }
+    }
+
+    public void testVariableBinary() throws Exception
+    {
+        Random random = new Random(24);
+        ByteArrayOutputStream rdws = new ByteArrayOutputStream();
+        int[] ends = new int[5000];
+        for (int i = 0; i < ends.length; i++)
+        {
+            int length = random.nextInt(400);
+            rdws.write((length + 4) >> 8);
+            rdws.write(length + 4);
+            rdws.write(0);
+            rdws.write(0);
+            for (int j = 0; j < length; j++)
+            {
+                rdws.write(random.nextInt(8));
+            }
+            ends[i] = rdws.size();
+        }
+        byte[] full = rdws.toByteArray();
+        byte[] tersed = TerseCompresserTest.compress(full, true, true, 404, false);
+        boolean[] truncated = new boolean[1];
+        long[] read = new long[1];
+        for (int n : new int[] { 1, 10, 3000 })
+        {
+            assertTrue(Arrays.equals(Arrays.copyOf(full, ends[n - 1]), decode(tersed, false, n, 0, 0, truncated, read)));
+        }
+    }
+
+    public void testFixedBinary() throws Exception
+    {
+        byte[] data = new byte[800000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i % 251 + i / 9000);
+        }
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = TerseCompresserTest.compress(data, spack, false, 80, false);
+            boolean[] truncated = new boolean[1];
+            long[] read = new long[1];
+            assertTrue(Arrays.equals(Arrays.copyOf(data, 80 * 25), decode(tersed, false, 25, 0, 0, truncated, read)));
+            assertTrue(truncated[0]);
+            assertTrue(Arrays.equals(Arrays.copyOf(data, 12345), decode(tersed, false, 0, 12345, 0, truncated, read)));
+            assertTrue(truncated[0]);
+
+            /* the output of the first codes, which is the start of the file */
+            byte[] head = decode(tersed, false, 0, 0, 5000, truncated, read);
+            assertTrue(truncated[0]);
+            assertTrue(head.length > 0 && head.length < data.length);
+            assertTrue(Arrays.equals(Arrays.copyOf(data, head.length), head));
+            assertTrue(read[0] <= tersed.length);
+        }
+    }
+
+    public void testBytes() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(text(), true, true, 255, true);
+        byte[] full = TerseCompresserTest.decompress(tersed, true);
+        boolean[] truncated = new boolean[1];
+        long[] read = new long[1];
+        for (int n : new int[] { 1, 100, Constants.OUTPUTBUFFERSIZE, 300000 })
+        {
+            assertTrue(Arrays.equals(Arrays.copyOf(full, n), decode(tersed, true, 0, n, 0, truncated, read)));
+        }
+        /* whichever limit comes first */
+        assertTrue(Arrays.equals(Arrays.copyOf(full, 50), decode(tersed, true, 100, 50, 0, truncated, read)));
+        assertTrue(Arrays.equals(Arrays.copyOf(full, lines(full, 2)), decode(tersed, true, 2, 5000, 0, truncated, read)));
+    }
+
+    public void testRecordHandler() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(text(), false, true, 255, true);
+        final long[] count = new long[1];
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), null))
+        {
+            decompresser.TextFlag = true;
+            decompresser.setHead(42, 0, 0);
+            decompresser.decodeRecords((number, record) -> count[0]++);
+            assertTrue(decompresser.Truncated);
+            assertEquals(42, decompresser.RecordCount);
+        }
+        assertEquals(42, count[0]);
+    }
+
+    public void testInputStream() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(text(), true, true, 255, true);
+        byte[] full = TerseCompresserTest.decompress(tersed, true);
+        TerseInputStream in = new TerseInputStream(new ByteArrayInputStream(tersed), true);
+        in.decompresser.setHead(500, 0, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) > 0)
+        {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        assertTrue(Arrays.equals(Arrays.copyOf(full, lines(full, 500)), out.toByteArray()));
+    }
+
+    public void testNotWithThreads() throws Exception
+    {
+        /* refused rather than quietly decoded on one thread */
+        byte[] tersed = TerseCompresserTest.compress(text(), true, true, 255, true);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try
+        {
+            for (boolean pipelined : new boolean[] { false, true })
+            {
+                TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), new ByteArrayOutputStream());
+                decompresser.TextFlag = true;
+                decompresser.setHead(10, 0, 0);
+                decompresser.Pipelined = pipelined;
+                decompresser.FormatPool = pipelined ? null : pool;
+                try
+                {
+                    decompresser.decode();
+                    fail();
+                }
+                catch (IllegalStateException e)
+                {
+                    assertEquals("A head limit decodes on one thread, it can't be used with Pipelined or a FormatPool", e.getMessage());
+                }
+                assertEquals(0, decompresser.RecordCount);
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Reading codes from a memory mapped file must give the same codes as reading a stream,
+ * however the file is split into windows.
+ */
+public class MappedTerseBlockReaderTest
+    extends TestCase
+{
+    private File file;
+    private byte[] tersed;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        // small enough that mapping it a byte at a time doesn't exhaust the map count
+        byte[] data = new byte[2000];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) random.nextInt(16);
+        }
+        tersed = TerseCompresserTest.compress(data, true, false, 1024, false);
+        file = File.createTempFile("terse", ".trs");
+        Files.write(file.toPath(), tersed);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        file.delete();
+    }
+
+    private static int[] readAll(TerseBlockReader reader) throws Exception
+    {
+        int[] codes = new int[0];
+        int[] batch = new int[1000];
+        int count;
+        while ((count = reader.GetBloks(batch, 0, batch.length)) > 0)
+        {
+            codes = Arrays.copyOf(codes, codes.length + count);
+            System.arraycopy(batch, 0, codes, codes.length - count, count);
+        }
+        return codes;
+    }
+
+    public void testWindows() throws Exception
+    {
+        int[] expected = readAll(new TerseBlockReader(new ByteArrayInputStream(tersed)));
+        for (long windowSize : new long[] { 1, 2, 3, 7, 64, Constants.MAPWINDOWSIZE })
+        {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 TerseBlockReader reader = new MappedTerseBlockReader(channel, windowSize))
+            {
+                assertTrue("Window size " + windowSize, Arrays.equals(expected, readAll(reader)));
+            }
+        }
+    }
+
+    public void testDecode() throws Exception
+    {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), expected))
+        {
+            decompresser.decode();
+        }
+        ByteArrayOutputStream mapped = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(file.toPath(), mapped))
+        {
+            decompresser.decode();
+        }
+        assertTrue(Arrays.equals(expected.toByteArray(), mapped.toByteArray()));
+    }
+
+    /*
+     * The number of mappings of the file, or -1 if the system doesn't say
+     */
+    private int mappings() throws Exception
+    {
+        File maps = new File("/proc/self/maps");
+        if (!maps.exists())
+        {
+            return -1;
+        }
+        int count = 0;
+        for (String line : Files.readAllLines(maps.toPath()))
+        {
+            if (line.endsWith(file.getCanonicalPath()))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testUnmapped() throws Exception
+    {
+        byte[] data = new byte[300000];
+        Random random = new Random(2);
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) random.nextInt(256);
+        }
+        byte[] big = TerseCompresserTest.compress(data, true, false, 1024, false);
+        Files.write(file.toPath(), big);
+        int[] expected = readAll(new TerseBlockReader(new ByteArrayInputStream(big)));
+        TerseBlockReader reader = new MappedTerseBlockReader(FileChannel.open(file.toPath(), StandardOpenOption.READ), 5000);
+        assertTrue(Arrays.equals(expected, readAll(reader)));
+        // the windows which have been read are gone, not waiting for a garbage collection
+        assertTrue(mappings() <= 1);
+        reader.close();
+        assertTrue(mappings() <= 0);
+
+        // after close the reader is at the end of the file, and the file can be replaced
+        assertEquals(0, reader.GetBloks(new int[10], 0, 10));
+        Files.write(file.toPath(), tersed);
+    }
+}
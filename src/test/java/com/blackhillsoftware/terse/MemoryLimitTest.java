@@ -0,0 +1,276 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+ * With a memory limit RECFM=VB records which don't fit are written in spanned segments,
+ * the rest are written as usual, and nothing holds more than the limit.
+ */
+public class MemoryLimitTest
+    extends TestCase
+{
+    private static byte[] decode(byte[] tersed, int memoryLimit, ForkJoinPool pool, int[] bufferSize) throws Exception
+    {
+        return decode(tersed, memoryLimit, pool, false, bufferSize);
+    }
+
+    private static byte[] decode(byte[] tersed, int memoryLimit, ForkJoinPool pool, boolean pipelined, int[] bufferSize) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.MemoryLimit = memoryLimit;
+            decompresser.FormatPool = pool;
+            decompresser.Pipelined = pipelined;
+            decompresser.decode();
+            decompresser.finish();
+            bufferSize[0] = decompresser.outputBuffer.length;
+        }
+        return out.toByteArray();
+    }
+
+    /*
+     * Put spanned segments back together, checking the segment flags
+     */
+    private static List<byte[]> records(byte[] output)
+    {
+        List<byte[]> records = new ArrayList<>();
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        boolean spanning = false;
+        for (int i = 0; i < output.length; )
+        {
+            int length = ((output[i] & 0xFF) << 8) | (output[i + 1] & 0xFF);
+            int flags = output[i + 2];
+            assertTrue(length >= 4 && (flags == 0 || length <= TerseDecompresser.MAXSEGMENT + 4));
+            assertEquals(spanning, flags == 2 || flags == 3);
+            record.write(output, i + 4, length - 4);
+            i += length;
+            spanning = flags == 1 || flags == 3;
+            if (!spanning)
+            {
+                records.add(record.toByteArray());
+                record.reset();
+            }
+        }
+        assertFalse(spanning);
+        return records;
+    }
+
+    /*
+     * RECFM=VB data with records of these lengths, made from lines of text
+     * because an RDW can't give a length over 64k
+     */
+    private static byte[] tersed(int[] lengths, boolean spack) throws Exception
+    {
+        Random random = new Random(21);
+        StringBuilder text = new StringBuilder();
+        for (int length : lengths)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                text.append((char) ('A' + random.nextInt(4)));
+            }
+            text.append('\n');
+        }
+        return TerseCompresserTest.compress(text.toString().getBytes("US-ASCII"), spack, true, 1 << 20, true);
+    }
+
+    /*
+     * The binary records, without RDWs
+     */
+    private static List<byte[]> expected(byte[] tersed) throws Exception
+    {
+        final List<byte[]> records = new ArrayList<>();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), null))
+        {
+            decompresser.decodeRecords(new RecordHandler()
+            {
+                @Override
+                public void record(long number, ByteBuffer record)
+                {
+                    byte[] copy = new byte[record.remaining()];
+                    record.get(copy);
+                    records.add(copy);
+                }
+            });
+        }
+        return records;
+    }
+
+    public void testLongRecords() throws Exception
+    {
+        /* a limit of 1 counts as 64k, so a record of 65532 bytes is the longest that fits */
+        int longest = Constants.OUTPUTBUFFERSIZE - 4;
+        assertEquals(longest, TerseDecompresser.LongestHeld(1));
+        /* its RDW can't say so, whatever the limit: 65531 is the longest to read back */
+        int[] lengths = new int[] { 10, 0, TerseDecompresser.MAXSEGMENT + 1, longest - 1, longest + 1, 500,
+        		3 * TerseDecompresser.MAXSEGMENT, 3 * TerseDecompresser.MAXSEGMENT + 1, 100000 };
+        int[] bufferSize = new int[1];
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = tersed(lengths, spack);
+            List<byte[]> expected = expected(tersed);
+            byte[] output = decode(tersed, 1, null, bufferSize);
+            List<byte[]> actual = records(output);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+            {
+                assertTrue(Arrays.equals(expected.get(i), actual.get(i)));
+            }
+            // the last 4 records are spanned into 3, 3, 4 and 4 segments
+            long size = 0;
+            for (int length : lengths)
+            {
+                size += length + 4;
+            }
+            assertEquals(size + 4 * 10, output.length);
+            assertEquals(output.length, TerseVerifierTest.verifySize(tersed, 1));
+            assertTrue(bufferSize[0] <= Constants.OUTPUTBUFFERSIZE);
+
+            /* the same one byte at a time */
+            assertTrue(Arrays.equals(output, decode(tersed, 1, null, true, bufferSize)));
+
+            ForkJoinPool pool = new ForkJoinPool(2);
+            try
+            {
+                assertTrue(Arrays.equals(output, decode(tersed, 1, pool, bufferSize)));
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public void testOneHugeRecord() throws Exception
+    {
+        // the code stream of 3MB of FB data, with the header changed to VB it is one record
+        byte[] tersed = TerseCompresserTest.compress(new byte[3000000], true, false, 1000, false);
+        tersed[1] = 1;
+        int[] bufferSize = new int[1];
+        for (ForkJoinPool pool : new ForkJoinPool[] { null, new ForkJoinPool(2) })
+        {
+            List<byte[]> records = records(decode(tersed, 1024 * 1024, pool, bufferSize));
+            assertEquals(1, records.size());
+            assertTrue(Arrays.equals(new byte[3000000], records.get(0)));
+            assertTrue(bufferSize[0] <= 1024 * 1024);
+            if (pool != null)
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public void testFullSegmentLeft() throws Exception
+    {
+        /* a limit which is full with exactly 3 segments, so the last one is still open */
+        int exact = 3 * TerseDecompresser.MAXSEGMENT + 4;
+        byte[] tersed = tersed(new int[] { 10, exact - 3, 100000, 200000, 20 }, false);
+        List<byte[]> expected = expected(tersed);
+        int[] bufferSize = new int[1];
+        for (boolean pipelined : new boolean[] { false, true })
+        {
+            byte[] output = decode(tersed, exact, null, pipelined, bufferSize);
+            List<byte[]> actual = records(output);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+            {
+                assertTrue(Arrays.equals(expected.get(i), actual.get(i)));
+            }
+            assertEquals(output.length, TerseVerifierTest.verifySize(tersed, exact));
+        }
+    }
+
+    public void testGenerousLimit() throws Exception
+    {
+        /* records which fit in the limit are written exactly as without one */
+        byte[] tersed = tersed(new int[] { 10, TerseDecompresser.MAXSEGMENT, TerseDecompresser.MAXSEGMENT + 1, 0, 40000,
+        		65531, 200000, 500 }, true);
+        int[] bufferSize = new int[1];
+        byte[] unlimited = decode(tersed, 0, null, bufferSize);
+        for (int limit : new int[] { 200004, 1024 * 1024 })
+        {
+            assertTrue(Arrays.equals(unlimited, decode(tersed, limit, null, bufferSize)));
+            assertTrue(Arrays.equals(unlimited, decode(tersed, limit, null, true, bufferSize)));
+            assertEquals(unlimited.length, TerseVerifierTest.verifySize(tersed, limit));
+        }
+        /* one byte less and the longest record is spanned */
+        byte[] spanned = decode(tersed, 200003, null, bufferSize);
+        assertEquals(unlimited.length + 4 * 6, spanned.length);
+        assertEquals(spanned.length, TerseVerifierTest.verifySize(tersed, 200003));
+    }
+
+    public void testFiltered() throws Exception
+    {
+        /* a filtered record is held whole, however long */
+        byte[] tersed = tersed(new int[] { 10, 100000 }, true);
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), new ByteArrayOutputStream());
+        decompresser.TextFlag = true;
+        decompresser.MemoryLimit = 1;
+        decompresser.setFilter(null, new int[] { 0, 5 });
+        try
+        {
+            decompresser.decode();
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("Record 2 is longer than the memory limit of 65536 bytes, and a filtered record or one for a RecordHandler is held whole",
+            		e.getMessage());
+        }
+
+        /* so in binary, where a limit means long records are spanned, the two are refused */
+        decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), new ByteArrayOutputStream());
+        decompresser.MemoryLimit = 1;
+        decompresser.setFilter(null, new int[] { 0, 5 });
+        try
+        {
+            decompresser.decode();
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals("A filtered RECFM=VB binary record is held whole, it can't be spanned to keep within a MemoryLimit", e.getMessage());
+        }
+        assertEquals(0, decompresser.RecordCount);
+    }
+
+    public void testRecordHandler() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(new byte[3000000], true, false, 1000, false);
+        // a record length of 2GB
+        tersed[2] = 0;
+        tersed[3] = 0;
+        ByteBuffer.wrap(tersed, 8, 4).putInt(Integer.MAX_VALUE);
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), null);
+        decompresser.MemoryLimit = 1024 * 1024;
+        try
+        {
+            decompresser.decodeRecords(new RecordHandler()
+            {
+                @Override
+                public void record(long number, ByteBuffer record)
+                {
+                    fail();
+                }
+            });
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("Record 1 is longer than the memory limit of 1048576 bytes, and a filtered record or one for a RecordHandler is held whole",
+            		e.getMessage());
+        }
+        assertTrue(decompresser.outputBuffer.length <= 1024 * 1024);
+    }
+}
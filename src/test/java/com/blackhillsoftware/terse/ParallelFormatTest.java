@@ -0,0 +1,159 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+ * Formatting on a ForkJoinPool gives the same output, record count and failures as a single threaded decode.
+ */
+public class ParallelFormatTest
+    extends TestCase
+{
+    private ForkJoinPool pool;
+
+    @Override
+    protected void setUp()
+    {
+        pool = new ForkJoinPool(4);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    private byte[] decode(byte[] tersed, boolean text, boolean parallel, long[] records) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.FormatPool = parallel ? pool : null;
+            decompresser.decode();
+            decompresser.finish();
+            records[0] = decompresser.RecordCount;
+        }
+        return out.toByteArray();
+    }
+
+    private void assertSameOutput(byte[] tersed, boolean text) throws Exception
+    {
+        long[] serialRecords = new long[1];
+        long[] parallelRecords = new long[1];
+        assertTrue(Arrays.equals(decode(tersed, text, false, serialRecords), decode(tersed, text, true, parallelRecords)));
+        assertEquals(serialRecords[0], parallelRecords[0]);
+    }
+
+    public void testOutput() throws Exception
+    {
+        Random random = new Random(18);
+        byte[] binary = new byte[2000000];
+        for (int i = 0; i < binary.length; i++)
+        {
+            binary[i] = (byte) (i % 3000 < 1000 ? random.nextInt(256) : i % 11);
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 50000; i++)
+        {
+            lines.append("RECORD ").append(i).append(" OF ").append(i % 17).append('\n');
+        }
+        byte[] text = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream rdws = new ByteArrayOutputStream();
+        for (int i = 0; i < binary.length; )
+        {
+            int length = Math.min(binary.length - i, random.nextInt(900));
+            rdws.write((length + 4) >> 8);
+            rdws.write(length + 4);
+            rdws.write(0);
+            rdws.write(0);
+            rdws.write(binary, i, length);
+            i += length;
+        }
+
+        for (boolean spack : new boolean[] { false, true })
+        {
+            assertSameOutput(TerseCompresserTest.compress(binary, spack, false, 1000, false), false);
+            assertSameOutput(TerseCompresserTest.compress(rdws.toByteArray(), spack, true, 1000, false), false);
+            assertSameOutput(TerseCompresserTest.compress(text, spack, true, 255, true), true);
+            assertSameOutput(TerseCompresserTest.compress(text, spack, false, 80, true), true);
+        }
+    }
+
+    public void testWideRecords() throws Exception
+    {
+        byte[] data = new byte[32760 * 40];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) ('A' + (i / 7) % 26);
+        }
+        assertSameOutput(TerseCompresserTest.compress(data, true, false, 32760, false), true);
+        assertSameOutput(TerseCompresserTest.compress(data, false, false, 32760, false), true);
+    }
+
+    private String outcome(byte[] tersed, boolean parallel)
+    {
+        try
+        {
+            return Arrays.toString(decode(tersed, true, parallel, new long[1]));
+        }
+        catch (Exception e)
+        {
+            return e.toString();
+        }
+    }
+
+    public void testTruncated() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+        {
+            lines.append("LINE ").append(i).append('\n');
+        }
+        byte[] tersed = TerseCompresserTest.compress(lines.toString().getBytes(StandardCharsets.US_ASCII), true, true, 255, true);
+        for (int cut = 1; cut <= 3; cut++)
+        {
+            byte[] truncated = Arrays.copyOf(tersed, tersed.length / 2 + cut);
+            assertEquals(outcome(truncated, false), outcome(truncated, true));
+        }
+    }
+
+    public void testWriteFailure() throws Exception
+    {
+        byte[] data = new byte[3000000];
+        byte[] tersed = TerseCompresserTest.compress(data, true, false, 1000, false);
+        OutputStream failing = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                throw new IOException("Disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                throw new IOException("Disk full");
+            }
+        };
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), failing);
+        decompresser.FormatPool = pool;
+        try
+        {
+            decompresser.decode();
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("Disk full", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Blocks compressed in parallel make one gzip stream which GZIPInputStream reads back.
+ */
+public class ParallelGzipOutputStreamTest
+    extends TestCase
+{
+    private ForkJoinPool pool;
+
+    @Override
+    protected void setUp()
+    {
+        pool = new ForkJoinPool(4);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    private byte[] gzip(byte[] data, int level, int chunk) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out, level, pool))
+        {
+            for (int i = 0; i < data.length; i += chunk)
+            {
+                gzip.write(data, i, Math.min(chunk, data.length - i));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped)))
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                out.write(buffer, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        Random random = new Random(19);
+        int block = ParallelGzipOutputStream.BLOCKSIZE;
+        for (int size : new int[] { 0, 1, 1000, block - 1, block, block + 1, 5 * block + 17 })
+        {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++)
+            {
+                data[i] = (byte) (i % 5000 < 2000 ? random.nextInt(256) : 'A' + i % 13);
+            }
+            for (int level : new int[] { -1, 0, 1, 6, 9 })
+            {
+                assertTrue(Arrays.equals(data, gunzip(gzip(data, level, 7777))));
+            }
+        }
+    }
+
+    public void testCompression() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+        {
+            lines.append("RECORD ").append(i).append(" OF ").append(i % 17).append('\n');
+        }
+        byte[] data = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(serial))
+        {
+            gzip.write(data);
+        }
+        // primed with the previous block's window, the blocks cost very little
+        assertTrue(gzip(data, 6, 65536).length < serial.size() * 1.02);
+    }
+
+    public void testDecompressToGzip() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 50000; i++)
+        {
+            lines.append("LINE ").append(i).append('\n');
+        }
+        byte[] tersed = TerseCompresserTest.compress(lines.toString().getBytes(StandardCharsets.US_ASCII), true, true, 255, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed),
+                new ParallelGzipOutputStream(out, 6, pool)))
+        {
+            decompresser.TextFlag = true;
+            decompresser.decode();
+        }
+        assertTrue(Arrays.equals(TerseCompresserTest.decompress(tersed, true), gunzip(out.toByteArray())));
+    }
+}
@@ -0,0 +1,135 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+ * A pipelined decode gives the same output, and the same failures, as a single threaded one.
+ */
+public class PipelinedDecodeTest
+    extends TestCase
+{
+    private static byte[] decode(byte[] tersed, boolean text, boolean pipelined) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.Pipelined = pipelined;
+            decompresser.decode();
+        }
+        return out.toByteArray();
+    }
+
+    private void assertSameOutput(byte[] tersed, boolean text) throws Exception
+    {
+        assertTrue(Arrays.equals(decode(tersed, text, false), decode(tersed, text, true)));
+    }
+
+    public void testOutput() throws Exception
+    {
+        Random random = new Random(13);
+        byte[] binary = new byte[2000000];
+        for (int i = 0; i < binary.length; i++)
+        {
+            binary[i] = (byte) (i % 3000 < 1000 ? random.nextInt(256) : i % 11);
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 50000; i++)
+        {
+            lines.append("RECORD ").append(i).append(" OF ").append(i % 17).append('\n');
+        }
+        byte[] text = lines.toString().getBytes(StandardCharsets.US_ASCII);
+
+        for (boolean spack : new boolean[] { false, true })
+        {
+            assertSameOutput(TerseCompresserTest.compress(binary, spack, false, 1000, false), false);
+            assertSameOutput(TerseCompresserTest.compress(text, spack, true, 255, true), true);
+            assertSameOutput(TerseCompresserTest.compress(text, spack, false, 80, true), true);
+        }
+    }
+
+    private static String outcome(byte[] tersed, boolean pipelined)
+    {
+        try
+        {
+            return Arrays.toString(decode(tersed, true, pipelined));
+        }
+        catch (Exception e)
+        {
+            return e.toString();
+        }
+    }
+
+    public void testTruncated() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+        {
+            lines.append("LINE ").append(i).append('\n');
+        }
+        byte[] tersed = TerseCompresserTest.compress(lines.toString().getBytes(StandardCharsets.US_ASCII), true, true, 255, true);
+        // the ones ending with 8 bits of a code fail after writing the data before them
+        for (int cut = 1; cut <= 3; cut++)
+        {
+            byte[] truncated = Arrays.copyOf(tersed, tersed.length / 2 + cut);
+            assertEquals(outcome(truncated, false), outcome(truncated, true));
+        }
+    }
+
+    public void testWriteFailure() throws Exception
+    {
+        byte[] data = new byte[3000000];
+        byte[] tersed = TerseCompresserTest.compress(data, true, false, 1000, false);
+        OutputStream failing = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                throw new IOException("Disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                throw new IOException("Disk full");
+            }
+        };
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), failing);
+        decompresser.Pipelined = true;
+        try
+        {
+            decompresser.decode();
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertEquals("Disk full", e.getMessage());
+        }
+    }
+
+    public void testNotWithFormatPool() throws Exception
+    {
+        byte[] tersed = TerseCompresserTest.compress(new byte[1000], true, false, 100, false);
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), new ByteArrayOutputStream());
+        decompresser.Pipelined = true;
+        decompresser.FormatPool = ForkJoinPool.commonPool();
+        try
+        {
+            decompresser.decode();
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals("Pipelined and a FormatPool can't be used together", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The phrase cache must not change the output, whatever its size, and the
+ * dictionary in arrays must decode the same characters as the original
+ * dictionary of objects.
+ */
+public class SpackDecompresserTest
+    extends TestCase
+{
+    private static byte[] decompress(byte[] tersed, boolean text, int phraseCacheSize, long[] counts) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (SpackDecompresser decompresser
+                = (SpackDecompresser) TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.PhraseCacheSize = phraseCacheSize;
+            decompresser.decode();
+            counts[0] = decompresser.PhraseCacheHits;
+            counts[1] = decompresser.PhraseCacheMisses;
+        }
+        return out.toByteArray();
+    }
+
+    private void assertCacheSizes(byte[] tersed, boolean text) throws Exception
+    {
+        long[] counts = new long[2];
+        byte[] expected = decompress(tersed, text, 0, counts);
+        assertEquals(0, counts[0] + counts[1]);
+
+        for (int size : new int[] { 1, 100, 1 << 20 })
+        {
+            assertTrue("Cache size " + size, Arrays.equals(expected, decompress(tersed, text, size, counts)));
+            assertTrue(counts[1] > 0);
+        }
+        assertTrue(counts[0] > 0);
+    }
+
+    public void testBinary() throws Exception
+    {
+        // enough data for the dictionary to fill and nodes to be recycled
+        Random random = new Random(7);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int i = 0; i < 5000; i++)
+        {
+            int length = 50 + random.nextInt(200);
+            data.write((length + 4) >> 8);
+            data.write(length + 4);
+            data.write(0);
+            data.write(0);
+            for (int j = 0; j < length; j++)
+            {
+                data.write(j < 16 ? j : random.nextInt(6));
+            }
+        }
+        assertCacheSizes(TerseCompresserTest.compress(data.toByteArray(), true, true, 32756, false), false);
+        assertCacheSizes(TerseCompresserTest.compress(data.toByteArray(), true, false, 1024, false), false);
+    }
+
+    public void testText() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            lines.append("IEF142I STEP").append(i % 37).append(" - STEP WAS EXECUTED - COND CODE 0000\n");
+        }
+        byte[] data = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        assertCacheSizes(TerseCompresserTest.compress(data, true, true, 255, true), true);
+        assertCacheSizes(TerseCompresserTest.compress(data, true, false, 80, true), true);
+    }
+
+    /*
+     * The SPACK decode as it was with a TreeRecord object per node, and the
+     * codes read one at a time. Gives the characters passed to PutChar, and
+     * the exception if the file ends in the middle of a code.
+     */
+    private static final class Reference
+    {
+        private static final class Node
+        {
+            int Left;
+            int Right;
+            int Back;
+            int NextCount;
+        }
+
+        private final Node[] tree = new Node[Constants.TREESIZE + 1];
+        private int treeAvail;
+        private final byte[] data;
+        private int position;
+        private boolean halfByte = false;
+        final List<Integer> chars = new ArrayList<>();
+        IOException failure = null;
+
+        Reference(byte[] tersed)
+        {
+            this.data = tersed;
+            this.position = 12; /* a host header */
+        }
+
+        private int getBlok() throws IOException
+        {
+            if (!halfByte)
+            {
+                if (position >= data.length)
+                {
+                    return Constants.ENDOFFILE;
+                }
+                if (position + 1 >= data.length)
+                {
+                    throw new IOException("Tried to read 12 bits but found EOF after reading 8 bits.");
+                }
+                halfByte = true;
+                position += 2;
+                return ((data[position - 2] & 0xFF) << 4) | ((data[position - 1] & 0xFF) >> 4);
+            }
+            if (position >= data.length)
+            {
+                return Constants.ENDOFFILE;
+            }
+            halfByte = false;
+            position++;
+            return ((data[position - 2] & 0x0F) << 8) | (data[position - 1] & 0xFF);
+        }
+
+        private void putChars(int x)
+        {
+            List<Integer> stack = new ArrayList<>();
+            while (true)
+            {
+                while (x > Constants.CODESIZE)
+                {
+                    stack.add(tree[x].Right);
+                    x = tree[x].Left;
+                }
+                chars.add(x);
+                if (stack.isEmpty())
+                {
+                    break;
+                }
+                x = stack.remove(stack.size() - 1);
+            }
+        }
+
+        private void bumpRef(int bref)
+        {
+            if (tree[bref].NextCount < 0)
+            {
+                tree[bref].NextCount--;
+            }
+            else
+            {
+                int forwards = tree[bref].NextCount;
+                int prev = tree[bref].Back;
+                tree[prev].NextCount = forwards;
+                tree[forwards].Back = prev;
+                tree[bref].NextCount = -1;
+            }
+        }
+
+        private void lruKill()
+        {
+            int p = tree[0].NextCount;
+            int q = tree[p].NextCount;
+            int r = tree[p].Back;
+            tree[q].Back = r;
+            tree[r].NextCount = q;
+            deleteRef(tree[p].Left);
+            deleteRef(tree[p].Right);
+            tree[p].NextCount = treeAvail;
+            treeAvail = p;
+        }
+
+        private void deleteRef(int dref)
+        {
+            if (tree[dref].NextCount == -1)
+            {
+                lruAdd(dref);
+            }
+            else
+            {
+                tree[dref].NextCount++;
+            }
+        }
+
+        private void lruAdd(int next)
+        {
+            int back = tree[Constants.BASE].Back;
+            tree[next].NextCount = Constants.BASE;
+            tree[Constants.BASE].Back = next;
+            tree[next].Back = back;
+            tree[back].NextCount = next;
+        }
+
+        Reference decode()
+        {
+            for (int i = 0; i < tree.length; i++)
+            {
+                tree[i] = new Node();
+            }
+            for (int i = Constants.BASE; i <= Constants.CODESIZE; i++)
+            {
+                tree[i].Left = Constants.NONE;
+                tree[i].Right = i;
+            }
+            for (int i = Constants.CODESIZE + 1; i <= Constants.TREESIZE - 1; i++)
+            {
+                tree[i].NextCount = i + 1;
+                tree[i].Left = Constants.NONE;
+                tree[i].Right = Constants.NONE;
+            }
+            tree[Constants.TREESIZE].NextCount = Constants.NONE;
+            tree[Constants.BASE].NextCount = Constants.BASE;
+            tree[Constants.BASE].Back = Constants.BASE;
+            for (int i = 1; i <= Constants.CODESIZE; i++)
+            {
+                tree[i].NextCount = Constants.NONE;
+            }
+            treeAvail = Constants.CODESIZE + 1;
+            tree[Constants.TREESIZE - 1].NextCount = Constants.NONE;
+            try
+            {
+                int h = getBlok();
+                if (h != Constants.ENDOFFILE)
+                {
+                    putChars(h);
+                    int g = getBlok();
+                    while (g != Constants.ENDOFFILE)
+                    {
+                        if (treeAvail == Constants.NONE)
+                        {
+                            lruKill();
+                        }
+                        putChars(g);
+                        int n = treeAvail;
+                        treeAvail = tree[n].NextCount;
+                        tree[n].Left = h;
+                        tree[n].Right = g;
+                        bumpRef(h);
+                        bumpRef(g);
+                        lruAdd(n);
+                        h = g;
+                        g = getBlok();
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                failure = e;
+            }
+            return this;
+        }
+    }
+
+    private static void assertSameAsReference(byte[] tersed) throws Exception
+    {
+        Reference reference = new Reference(tersed).decode();
+        final List<Integer> chars = new ArrayList<>();
+        IOException failure = null;
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), null);
+        assertTrue(decompresser instanceof SpackDecompresser);
+        decompresser.pipeline = X -> chars.add(X);
+        try
+        {
+            while (decompresser.DecodeSome())
+            {
+                decompresser.Pause = false;
+            }
+        }
+        catch (IOException e)
+        {
+            failure = e;
+        }
+        assertEquals("Input length " + tersed.length, reference.chars, chars);
+        assertEquals("Input length " + tersed.length, reference.failure == null, failure == null);
+    }
+
+    public void testSameAsReference() throws Exception
+    {
+        Random random = new Random(3);
+        for (int size : new int[] { 1, 2, 79, 1000, 100000, 600000 })
+        {
+            for (int range : new int[] { 3, 40, 256 })
+            {
+                byte[] data = new byte[size];
+                for (int i = 0; i < size; i++)
+                {
+                    data[i] = (byte) random.nextInt(range);
+                }
+                /* random bytes from 256 values fill the dictionary and recycle nodes many times */
+                byte[] tersed = TerseCompresserTest.compress(data, true, false, 80, false);
+                assertSameAsReference(tersed);
+                assertSameAsReference(Arrays.copyOf(tersed, tersed.length - 1));
+                assertSameAsReference(Arrays.copyOf(tersed, tersed.length - 2));
+            }
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+        {
+            lines.append("RECORD ").append(i % 777).append(" OF ").append(random.nextInt(50)).append('\n');
+        }
+        assertSameAsReference(TerseCompresserTest.compress(lines.toString().getBytes(StandardCharsets.US_ASCII), true, true, 255, true));
+
+        /* every truncation of a short file */
+        byte[] small = new byte[300];
+        for (int i = 0; i < small.length; i++)
+        {
+            small[i] = (byte) random.nextInt(7);
+        }
+        byte[] tersed = TerseCompresserTest.compress(small, true, false, 80, false);
+        for (int length = 12; length <= tersed.length; length++)
+        {
+            assertSameAsReference(Arrays.copyOf(tersed, length));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * GetBloks gives the same codes and the same end of file errors as reading
+ * the codes one at a time, whatever the batch size and however the stream
+ * delivers the bytes.
+ */
+public class TerseBlockReaderTest
+    extends TestCase
+{
+    /*
+     * Gives at most chunk bytes per read, so the reader refills at every edge
+     */
+    private static class ChunkedInputStream extends InputStream
+    {
+        private final InputStream in;
+        private final int chunk;
+
+        ChunkedInputStream(byte[] data, int chunk)
+        {
+            this.in = new ByteArrayInputStream(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return in.read(b, off, Math.min(len, chunk));
+        }
+    }
+
+    /*
+     * The codes in data by the original rules: 12 bits per code, 4 bits left
+     * at the end are padding, 8 bits left at the end are an error
+     */
+    private static List<Integer> expected(byte[] data, boolean[] error)
+    {
+        List<Integer> codes = new ArrayList<>();
+        int i = 0;
+        while (i + 1 < data.length)
+        {
+            codes.add(((data[i] & 0xFF) << 4) | ((data[i + 1] & 0xFF) >> 4));
+            if (i + 2 == data.length)
+            {
+                break;
+            }
+            codes.add(((data[i + 1] & 0x0F) << 8) | (data[i + 2] & 0xFF));
+            i += 3;
+        }
+        error[0] = data.length % 3 == 1;
+        return codes;
+    }
+
+    /*
+     * Read everything with batches of length codes, returning the codes and
+     * the error after them if there is one
+     */
+    private static List<Integer> read(TerseBlockReader reader, int length, IOException[] error)
+    {
+        List<Integer> codes = new ArrayList<>();
+        int[] batch = new int[length + 2];
+        error[0] = null;
+        try
+        {
+            int n;
+            while ((n = reader.GetBloks(batch, 1, length)) > 0)
+            {
+                assertTrue(n <= length);
+                for (int i = 1; i <= n; i++)
+                {
+                    codes.add(batch[i]);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            error[0] = e;
+        }
+        return codes;
+    }
+
+    private static void assertCodes(byte[] data) throws Exception
+    {
+        boolean[] expectedError = new boolean[1];
+        List<Integer> expected = expected(data, expectedError);
+        IOException[] error = new IOException[1];
+        for (int chunk : new int[] { 1, 2, 3, 5, Constants.READBUFFERSIZE })
+        {
+            for (int length : new int[] { 1, 2, 3, 7, 8192 })
+            {
+                TerseBlockReader reader = new TerseBlockReader(new ChunkedInputStream(data, chunk));
+                String context = data.length + " bytes, chunk " + chunk + ", batch " + length;
+                assertEquals(context, expected, read(reader, length, error));
+                assertEquals(context, expectedError[0], error[0] != null);
+                if (!expectedError[0])
+                {
+                    assertEquals(context, data.length, reader.red);
+                }
+            }
+        }
+    }
+
+    public void testEndOfFile() throws Exception
+    {
+        /* whole groups */
+        assertCodes(new byte[0]);
+        assertCodes(new byte[] { 0x12, 0x34, 0x56 });
+        /* 4 trailing bits are padding */
+        assertCodes(new byte[] { 0x12, 0x34 });
+        assertCodes(new byte[] { 0x12, 0x34, 0x56, 0x78, (byte) 0x9A });
+        /* 8 trailing bits are an error, after the complete codes */
+        assertCodes(new byte[] { 0x12 });
+        assertCodes(new byte[] { 0x12, 0x34, 0x56, 0x78 });
+    }
+
+    public void testPaddingAndError() throws Exception
+    {
+        TerseBlockReader reader = new TerseBlockReader(new ChunkedInputStream(
+                new byte[] { 0x12, 0x34, 0x56, 0x78, (byte) 0x9A }, 1));
+        int[] codes = new int[10];
+        assertEquals(3, reader.GetBloks(codes, 0, 10));
+        assertTrue(Arrays.equals(new int[] { 0x123, 0x456, 0x789 }, Arrays.copyOf(codes, 3)));
+        assertEquals(0, reader.GetBloks(codes, 0, 10));
+        assertEquals(Constants.ENDOFFILE, reader.GetBlok());
+
+        /* a decoder which stops at the codes it has never sees the error */
+        reader = new TerseBlockReader(new ChunkedInputStream(new byte[] { 0x12, 0x34, 0x56, 0x78 }, 1));
+        assertEquals(2, reader.GetBloks(codes, 0, 10));
+        assertTrue(Arrays.equals(new int[] { 0x123, 0x456 }, Arrays.copyOf(codes, 2)));
+        try
+        {
+            reader.GetBloks(codes, 0, 10);
+            fail("8 bits left at the end");
+        }
+        catch (IOException e)
+        {
+            assertEquals("Tried to read 12 bits but found EOF after reading 8 bits.", e.getMessage());
+        }
+
+        /* one code at a time */
+        reader = new TerseBlockReader(new ChunkedInputStream(new byte[] { 0x12, 0x34, 0x56, 0x78 }, 1));
+        assertEquals(0x123, reader.GetBlok());
+        assertEquals(0x456, reader.GetBlok());
+        try
+        {
+            reader.GetBlok();
+            fail("8 bits left at the end");
+        }
+        catch (IOException e)
+        {
+            /* expected */
+        }
+    }
+
+    public void testEdges() throws Exception
+    {
+        Random random = new Random(4);
+        /* odd codes at every refill and batch edge, and across the read buffer */
+        for (int size : new int[] { 3 * 11, 3 * 11 + 1, 3 * 11 + 2, Constants.READBUFFERSIZE - 1,
+                Constants.READBUFFERSIZE + 1, Constants.READBUFFERSIZE * 2 + 2 })
+        {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            assertCodes(data);
+        }
+    }
+
+    public void testLimit() throws Exception
+    {
+        byte[] data = new byte[60];
+        new Random(5).nextBytes(data);
+        boolean[] error = new boolean[1];
+        List<Integer> all = expected(data, error);
+        IOException[] failure = new IOException[1];
+        /* limits partway through a 3 byte group stop at the last code which ends before them */
+        for (int limit = 1; limit <= 9; limit++)
+        {
+            for (int length : new int[] { 1, 2, 3, 8192 })
+            {
+                TerseBlockReader reader = new TerseBlockReader(new ChunkedInputStream(data, 1));
+                reader.Limit = limit;
+                String context = "limit " + limit + ", batch " + length;
+                assertEquals(context, all.subList(0, limit * 8 / 12), read(reader, length, failure));
+                assertNull(context, failure[0]);
+                assertTrue(context, reader.Limited);
+                assertTrue(context, reader.red <= limit);
+            }
+        }
+    }
+}
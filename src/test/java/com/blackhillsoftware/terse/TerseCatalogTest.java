@@ -0,0 +1,83 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Catalog a directory of terse files and files which aren't.
+ */
+public class TerseCatalogTest
+    extends TestCase
+{
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("catalog");
+        byte[] data = new byte[30000];
+        Files.write(directory.resolve("a-pack-fb.trs"), TerseCompresserTest.compress(data, false, false, 133, false));
+        Files.write(directory.resolve("b-spack-vb.trs"), TerseCompresserTest.compress("LINE\n".getBytes("US-ASCII"), true, true, 255, true));
+        Files.write(directory.resolve("c-native.trs"), new byte[] { 0x01, (byte) 0x89, 0x69, (byte) 0xA5, 0, 80, 0x12, 0x34, 0x56 });
+        Files.write(directory.resolve("d-short.trs"), new byte[] { 0x02, 0x00 });
+        Files.write(directory.resolve("e-text.txt"), "not, a \"terse\" file".getBytes("US-ASCII"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for (File file : directory.toFile().listFiles())
+        {
+            file.delete();
+        }
+        directory.toFile().delete();
+    }
+
+    public void testScan() throws Exception
+    {
+        TerseCatalog catalog = new TerseCatalog();
+        catalog.Threads = 3;
+        List<TerseCatalog.Entry> entries = catalog.Scan(BatchDecompress.ListInputs(directory.toString()));
+        assertEquals(5, entries.size());
+
+        TerseCatalog.Entry pack = entries.get(0);
+        assertTrue(pack.Valid);
+        assertEquals("PACK", pack.Algorithm());
+        assertEquals("FB", pack.Recfm());
+        assertEquals(133, pack.RecordLength);
+        assertEquals(Files.size(directory.resolve("a-pack-fb.trs")), pack.Size);
+        assertTrue(pack.MinimumSize > 0 && pack.EstimatedSize >= pack.MinimumSize);
+
+        TerseCatalog.Entry spack = entries.get(1);
+        assertEquals("SPACK", spack.Algorithm());
+        assertEquals("VB", spack.Recfm());
+        assertEquals(255, spack.RecordLength);
+
+        TerseCatalog.Entry nativeFile = entries.get(2);
+        assertTrue(nativeFile.Valid);
+        assertEquals("native", nativeFile.Recfm());
+        assertEquals(2, nativeFile.MinimumSize);
+
+        assertFalse(entries.get(3).Valid);
+        assertEquals("File is too short for a terse header", entries.get(3).Error);
+        assertFalse(entries.get(4).Valid);
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        TerseCatalog.WriteCsv(entries, new PrintStream(csv, true, "UTF-8"));
+        String[] lines = csv.toString("UTF-8").split("\\R");
+        assertEquals(6, lines.length);
+        assertTrue(lines[1].endsWith(",true,0x02,PACK,FB,133," + pack.MinimumSize + "," + pack.EstimatedSize + ","));
+
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        TerseCatalog.WriteJson(entries, new PrintStream(json, true, "UTF-8"));
+        String text = json.toString("UTF-8");
+        assertTrue(text.contains("\"algorithm\": \"SPACK\", \"recfm\": \"VB\", \"lrecl\": 255"));
+        assertTrue(text.contains("\"valid\": false, \"error\": \"File is too short for a terse header\"}"));
+    }
+}
@@ -0,0 +1,164 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trip data through TerseCompresser and TerseDecompresser.
+ */
+public class TerseCompresserTest
+    extends TestCase
+{
+    static byte[] compress(byte[] data, boolean spack, boolean variable, int recordLength, boolean text) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseCompresser compresser
+                = TerseCompresser.create(new ByteArrayInputStream(data), out, spack, variable, recordLength))
+        {
+            compresser.TextFlag = text;
+            compresser.encode();
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] decompress(byte[] data, boolean text) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TerseDecompresser decompresser
+                = TerseDecompresser.create(new ByteArrayInputStream(data), out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.decode();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length, int range)
+    {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            data[i] = (byte) random.nextInt(range);
+        }
+        return data;
+    }
+
+    private static byte[] vbRecords(int count)
+    {
+        Random random = new Random(count);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++)
+        {
+            int length = 1 + random.nextInt(300);
+            out.write((length + 4) >> 8);
+            out.write(length + 4);
+            out.write(0);
+            out.write(0);
+            for (int j = 0; j < length; j++)
+            {
+                out.write(j < 20 ? i : random.nextInt(8));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String textLines(int count)
+    {
+        Random random = new Random(count);
+        String[] words = { "IEF142I", "STEP", "EXEC", "PGM=IEFBR14", "DD", "DISP=SHR", "-", "0000" };
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            int wordCount = random.nextInt(6);
+            for (int j = 0; j < wordCount; j++)
+            {
+                lines.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            lines.append(i).append('\n');
+        }
+        return lines.toString();
+    }
+
+    private void assertBinaryRoundTrip(byte[] data, boolean variable, int recordLength) throws Exception
+    {
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = compress(data, spack, variable, recordLength, false);
+            assertEquals(spack ? 0x05 : 0x02, tersed[0]);
+            assertTrue("Round trip " + (spack ? "SPACK" : "PACK"),
+                    Arrays.equals(data, decompress(tersed, false)));
+        }
+    }
+
+    public void testBinaryFixedRandom() throws Exception
+    {
+        assertBinaryRoundTrip(randomBytes(200000, 256), false, 1024);
+    }
+
+    public void testBinaryFixedRepetitive() throws Exception
+    {
+        byte[] data = randomBytes(500000, 4);
+        assertBinaryRoundTrip(data, false, 1024);
+        assertTrue(compress(data, true, false, 1024, false).length < data.length / 2);
+        assertTrue(compress(data, false, false, 1024, false).length < data.length / 2);
+    }
+
+    public void testBinaryFixedZeros() throws Exception
+    {
+        assertBinaryRoundTrip(new byte[1000000], false, 4096);
+    }
+
+    public void testBinaryVariable() throws Exception
+    {
+        assertBinaryRoundTrip(vbRecords(5000), true, 32756);
+    }
+
+    public void testTextVariable() throws Exception
+    {
+        String lines = textLines(5000);
+        String expected = lines.replace("\n", System.lineSeparator());
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = compress(lines.getBytes(StandardCharsets.US_ASCII), spack, true, 255, true);
+            assertEquals(expected, new String(decompress(tersed, true), StandardCharsets.US_ASCII));
+        }
+    }
+
+    public void testTextFixed() throws Exception
+    {
+        String lines = textLines(5000);
+        StringBuilder expected = new StringBuilder();
+        for (String line : lines.split("\n"))
+        {
+            expected.append(String.format("%-80s", line)).append(System.lineSeparator());
+        }
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] tersed = compress(lines.getBytes(StandardCharsets.US_ASCII), spack, false, 80, true);
+            assertEquals(expected.toString(), new String(decompress(tersed, true), StandardCharsets.US_ASCII));
+        }
+    }
+
+    public void testEmpty() throws Exception
+    {
+        assertBinaryRoundTrip(new byte[0], false, 80);
+    }
+
+    public void testTextRecordTooLong() throws Exception
+    {
+        try
+        {
+            compress(String.format("%81s\n", "x").getBytes(StandardCharsets.US_ASCII), true, false, 80, true);
+            fail("Expected IOException");
+        }
+        catch (java.io.IOException expected)
+        {
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Flag combinations on the command line. TerseDecompress calls System.exit,
+ * so it runs in another JVM.
+ */
+public class TerseDecompressTest
+    extends TestCase
+{
+    private Path directory;
+    private int exitCode;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("tersecli");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        delete(directory.toFile());
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (File child : files)
+            {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /*
+     * Run TerseDecompress in the test directory, returning what it printed
+     */
+    private String run(String... args) throws Exception
+    {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(Paths.get(TerseDecompress.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString());
+        command.add(TerseDecompress.class.getName());
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream())
+        {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                output.write(buffer, 0, n);
+            }
+        }
+        exitCode = process.waitFor();
+        return output.toString("UTF-8");
+    }
+
+    private Path tersed(String name, int lines) throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+        {
+            text.append("LINE ").append(i).append('\n');
+        }
+        Path file = directory.resolve(name);
+        Files.write(file, TerseCompresserTest.compress(text.toString().getBytes("US-ASCII"), true, true, 255, true));
+        return file;
+    }
+
+    public void testCacheMetrics() throws Exception
+    {
+        tersed("in.trs", 1000);
+        String output = run("in.trs", "out.txt", "-cache", "cache", "-metrics");
+        assertEquals(0, exitCode);
+        assertTrue(output, output.contains("Added to cache"));
+        assertTrue(output, output.contains("Metrics: "));
+        assertTrue(output, output.contains(" " + Files.size(directory.resolve("out.txt")) + " bytes out"));
+
+        /* the totals of a batch include the files decoded for the cache */
+        Files.createDirectory(directory.resolve("batch"));
+        Files.move(directory.resolve("in.trs"), directory.resolve("batch").resolve("in.trs"));
+        output = run("-batch", "batch", "outputs", "-cache", "cache2", "-metrics");
+        assertEquals(0, exitCode);
+        assertTrue(output, output.contains(" " + Files.size(directory.resolve("out.txt")) + " bytes out"));
+    }
+
+    public void testVerifyWithOutput() throws Exception
+    {
+        tersed("in.trs", 1000);
+        String output = run("-verify", "in.trs");
+        assertEquals(0, exitCode);
+        assertTrue(output, output.contains("1 files verified, 0 failed"));
+
+        /* verify mode writes nothing, so an output name is rejected rather than decoded to */
+        output = run("-verify", "in.trs", "out.txt");
+        assertFalse(output, output.contains("verified"));
+        assertFalse(Files.exists(directory.resolve("out.txt")));
+    }
+
+    public void testCacheMemoryLimit() throws Exception
+    {
+        /* a RECFM=VB record bigger than the limit is written in segments, through the cache too */
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1200000; i++)
+        {
+            text.append((char) ('A' + i % 23));
+        }
+        text.append('\n').append("SHORT\n");
+        Files.write(directory.resolve("long.trs"),
+                TerseCompresserTest.compress(text.toString().getBytes("US-ASCII"), true, true, 2000000, true));
+        run("long.trs", "direct.bin", "-b", "-memorylimit", "1");
+        assertEquals(0, exitCode);
+        byte[] direct = Files.readAllBytes(directory.resolve("direct.bin"));
+        run("long.trs", "unlimited.bin", "-b");
+        assertFalse(Arrays.equals(direct, Files.readAllBytes(directory.resolve("unlimited.bin"))));
+
+        String output = run("long.trs", "cached.bin", "-b", "-memorylimit", "1", "-cache", "cache");
+        assertEquals(0, exitCode);
+        assertTrue(output, output.contains("Added to cache"));
+        assertTrue(Arrays.equals(direct, Files.readAllBytes(directory.resolve("cached.bin"))));
+
+        /* the result without a limit is a different entry */
+        output = run("long.trs", "cached.bin", "-b", "-cache", "cache");
+        assertTrue(output, output.contains("Added to cache"));
+        assertTrue(Arrays.equals(Files.readAllBytes(directory.resolve("unlimited.bin")), Files.readAllBytes(directory.resolve("cached.bin"))));
+    }
+
+    public void testIncludeFixedBinary() throws Exception
+    {
+        byte[] data = new byte[100 * 50];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i / 50);
+        }
+        Files.write(directory.resolve("fb.trs"), TerseCompresserTest.compress(data, true, false, 50, false));
+
+        /* the metrics count the records decoded, not the bytes written divided by the record length */
+        String output = run("fb.trs", "out.bin", "-b", "-include", "1=05,07", "-metrics");
+        assertEquals(0, exitCode);
+        assertEquals(100, Files.size(directory.resolve("out.bin")));
+        assertTrue(output, output.contains(" 100 bytes out") && output.contains(" 100 records"));
+
+        /* positions start from 1 */
+        for (String position : new String[] { "0", "-3" })
+        {
+            output = run("fb.trs", "zero.bin", "-b", "-include", position + "=05");
+            assertFalse(output, exitCode == 0);
+            assertTrue(output, output.contains("-include positions start from 1"));
+        }
+    }
+
+    public void testThreadsAndLimits() throws Exception
+    {
+        /* the combinations TerseDecompresser refuses are refused before anything is written */
+        tersed("in.trs", 1000);
+        String[][] refused = {
+            { "-head", "10", "-pipeline" },
+            { "-headbytes", "10", "-parallelformat" },
+            { "-headinput", "100", "-pipeline" },
+            { "-pipeline", "-parallelformat" },
+            { "-b", "-memorylimit", "1", "-include", "1=05" },
+            { "-b", "-memorylimit", "1", "-columns", "1-4" },
+        };
+        String[] messages = {
+            "-head, -headbytes and -headinput can't be used with -pipeline or -parallelformat",
+            "-head, -headbytes and -headinput can't be used with -pipeline or -parallelformat",
+            "-head, -headbytes and -headinput can't be used with -pipeline or -parallelformat",
+            "-pipeline and -parallelformat can't be used together",
+            "-memorylimit can't be used with -include or -columns in binary mode",
+            "-memorylimit can't be used with -include or -columns in binary mode",
+        };
+        for (int i = 0; i < refused.length; i++)
+        {
+            List<String> args = new ArrayList<>(Arrays.asList("in.trs", "out.txt"));
+            args.addAll(Arrays.asList(refused[i]));
+            String output = run(args.toArray(new String[0]));
+            assertFalse(output, exitCode == 0);
+            assertTrue(output, output.contains(messages[i]));
+            assertFalse(Files.exists(directory.resolve("out.txt")));
+        }
+
+        /* each on its own is fine, and so is a limit with a filter on text */
+        for (String[] allowed : new String[][] { { "-head", "10" }, { "-pipeline" }, { "-parallelformat" },
+        		{ "-memorylimit", "1", "-include", "1=D3" } })
+        {
+            List<String> args = new ArrayList<>(Arrays.asList("in.trs", "out.txt"));
+            args.addAll(Arrays.asList(allowed));
+            String output = run(args.toArray(new String[0]));
+            assertEquals(output, 0, exitCode);
+            assertTrue(Files.exists(directory.resolve("out.txt")));
+            Files.delete(directory.resolve("out.txt"));
+        }
+    }
+}
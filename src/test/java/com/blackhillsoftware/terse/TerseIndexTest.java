@@ -0,0 +1,102 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Reads through an index give the same bytes as decoding the whole file.
+ */
+public class TerseIndexTest
+    extends TestCase
+{
+    private Path file;
+    private Path indexFile;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        file = Files.createTempFile("terseindex", ".trs");
+        indexFile = Files.createTempFile("terseindex", ".idx");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(indexFile);
+    }
+
+    private void assertRandomReads(byte[] tersed, boolean text) throws Exception
+    {
+        Files.write(file, tersed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TerseIndex built = TerseIndex.Build(file, out, text, CodePage.DEFAULT, 100000);
+        byte[] expected = TerseCompresserTest.decompress(tersed, text);
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+        assertTrue(built.Checkpoints.size() > 5);
+
+        built.Save(indexFile);
+        IndexedTerseReader reader = new IndexedTerseReader(file, TerseIndex.Load(indexFile));
+        assertEquals(expected.length, reader.size());
+
+        Random random = new Random(17);
+        for (int i = 0; i < 50; i++)
+        {
+            long position = i == 0 ? expected.length - 10 : random.nextInt(expected.length);
+            byte[] buffer = new byte[1 + random.nextInt(200000)];
+            int count = reader.read(position, buffer, 0, buffer.length);
+            assertEquals(Math.min(buffer.length, expected.length - position), count);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(expected, (int) position, (int) position + count),
+                    Arrays.copyOf(buffer, count)));
+        }
+        assertEquals(-1, reader.read(expected.length, new byte[1], 0, 1));
+    }
+
+    public void testRandomReads() throws Exception
+    {
+        Random random = new Random(17);
+        byte[] binary = new byte[3000000];
+        for (int i = 0; i < binary.length; i++)
+        {
+            binary[i] = (byte) (i % 4000 < 1500 ? random.nextInt(256) : i % 7);
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+        {
+            lines.append("RECORD ").append(i).append(" VALUE ").append(random.nextInt(1000)).append('\n');
+        }
+        byte[] text = lines.toString().getBytes(StandardCharsets.US_ASCII);
+
+        for (boolean spack : new boolean[] { false, true })
+        {
+            assertRandomReads(TerseCompresserTest.compress(binary, spack, false, 1000, false), false);
+            /* RECFM=VB binary, records held for their RDWs are saved in the checkpoints */
+            assertRandomReads(TerseCompresserTest.compress(text, spack, true, 255, true), false);
+            assertRandomReads(TerseCompresserTest.compress(text, spack, true, 255, true), true);
+        }
+    }
+
+    public void testWrongFile() throws Exception
+    {
+        byte[] data = new byte[500000];
+        Files.write(file, TerseCompresserTest.compress(data, true, false, 100, false));
+        TerseIndex index = TerseIndex.Build(file, null, false, CodePage.DEFAULT, 100000);
+        Files.write(file, TerseCompresserTest.compress(data, false, false, 100, false));
+        try
+        {
+            new IndexedTerseReader(file, index);
+            fail();
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().startsWith("The index does not match"));
+        }
+    }
+}
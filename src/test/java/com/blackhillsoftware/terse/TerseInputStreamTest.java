@@ -0,0 +1,123 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Reading through TerseInputStream gives the same data as decode(), however it is read.
+ */
+public class TerseInputStreamTest
+    extends TestCase
+{
+    private static byte[] readAll(InputStream in, int chunk) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int count;
+        while ((count = chunk == 1 ? in.read() : in.read(buffer, 0, chunk)) != -1)
+        {
+            if (chunk == 1)
+            {
+                out.write(count);
+            }
+            else
+            {
+                out.write(buffer, 0, count);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private void assertSameAsDecode(byte[] tersed, boolean text) throws Exception
+    {
+        byte[] expected = TerseCompresserTest.decompress(tersed, text);
+        for (int chunk : new int[] { 1, 7, 100000 })
+        {
+            try (TerseInputStream in = new TerseInputStream(new ByteArrayInputStream(tersed), text))
+            {
+                assertTrue("Chunk " + chunk, Arrays.equals(expected, readAll(in, chunk)));
+                assertEquals(-1, in.read());
+            }
+        }
+    }
+
+    public void testBinary() throws Exception
+    {
+        Random random = new Random(9);
+        byte[] data = new byte[300000];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte) (i % 1000 < 500 ? i % 7 : random.nextInt(256));
+        }
+        for (boolean spack : new boolean[] { false, true })
+        {
+            assertSameAsDecode(TerseCompresserTest.compress(data, spack, false, 1000, false), false);
+        }
+    }
+
+    public void testText() throws Exception
+    {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+        {
+            lines.append("IEF373I STEP /").append(i % 13).append("/ START 2020123.1200\n");
+        }
+        byte[] data = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        for (boolean spack : new boolean[] { false, true })
+        {
+            assertSameAsDecode(TerseCompresserTest.compress(data, spack, true, 255, true), true);
+            assertSameAsDecode(TerseCompresserTest.compress(data, spack, false, 80, true), true);
+        }
+    }
+
+    /*
+     * A SPACK file where each phrase is two copies of the previous one, so the
+     * last code expands to 2^40 bytes. Reading the start of it must not need
+     * more than the usual buffers.
+     */
+    public void testHugePhrase() throws Exception
+    {
+        ByteArrayOutputStream tersed = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(tersed);
+        TerseHeader.CreateHeader(true, false, 1024).WriteHeader(header);
+        header.flush();
+        TerseBlockWriter writer = new TerseBlockWriter(tersed);
+        int literal = 'A' + 1;
+        writer.PutBlok(literal);
+        writer.PutBlok(literal);
+        int doubled = Constants.CODESIZE + 1; /* A A */
+        for (int i = 1; i < 40; i++)
+        {
+            writer.PutBlok(doubled);
+            writer.PutBlok(doubled);
+            doubled += 2; /* (previous, doubled) then (doubled, doubled) */
+        }
+        writer.PutBlok(doubled);
+        writer.close();
+
+        try (TerseInputStream in = new TerseInputStream(new ByteArrayInputStream(tersed.toByteArray()), false))
+        {
+            byte[] buffer = new byte[1 << 20];
+            for (int i = 0; i < 16; i++)
+            {
+                int count = 0;
+                while (count < buffer.length)
+                {
+                    count += in.read(buffer, count, buffer.length - count);
+                }
+                for (byte b : buffer)
+                {
+                    assertEquals('A', b);
+                }
+            }
+            assertEquals(Constants.OUTPUTBUFFERSIZE, in.decompresser.outputBuffer.length);
+        }
+    }
+}
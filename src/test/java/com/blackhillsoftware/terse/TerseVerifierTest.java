@@ -0,0 +1,132 @@
+package com.blackhillsoftware.terse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+/**
+ * Verify reports the same record count and output size as a decode, without writing anything.
+ */
+public class TerseVerifierTest
+    extends TestCase
+{
+    private static void assertMatchesDecode(byte[] tersed, boolean text, CodePage codePage) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long records;
+        try (TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), out))
+        {
+            decompresser.TextFlag = text;
+            decompresser.setCodePage(codePage);
+            decompresser.setListener(metrics -> { });
+            decompresser.decode();
+            decompresser.finish();
+            records = decompresser.Metrics.Records;
+        }
+        TerseVerifier.Result result = TerseVerifier.Verify(new ByteArrayInputStream(tersed), text, codePage, false);
+        assertTrue(result.Valid);
+        assertEquals(out.size(), result.OutputSize);
+        assertEquals(records, result.Records);
+        assertNull(result.Checksum);
+    }
+
+    /*
+     * The output size reported for a decompresser with a memory limit
+     */
+    static long verifySize(byte[] tersed, int memoryLimit) throws Exception
+    {
+        TerseDecompresser decompresser = TerseDecompresser.create(new ByteArrayInputStream(tersed), null);
+        decompresser.MemoryLimit = memoryLimit;
+        return new TerseVerifier(decompresser, false).run().OutputSize;
+    }
+
+    public void testCounts() throws Exception
+    {
+        Random random = new Random(20);
+        byte[] binary = new byte[300000];
+        for (int i = 0; i < binary.length; i++)
+        {
+            binary[i] = (byte) (i % 3000 < 1000 ? random.nextInt(256) : i % 11);
+        }
+        ByteArrayOutputStream rdws = new ByteArrayOutputStream();
+        for (int i = 0; i < binary.length; )
+        {
+            int length = Math.min(binary.length - i, random.nextInt(900));
+            rdws.write((length + 4) >> 8);
+            rdws.write(length + 4);
+            rdws.write(0);
+            rdws.write(0);
+            rdws.write(binary, i, length);
+            i += length;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+        {
+            lines.append("RECORD ").append(i).append(" £").append('\n');
+        }
+        byte[] text = lines.toString().getBytes(StandardCharsets.ISO_8859_1);
+        CodePage utf8 = CodePage.forName("1047", "UTF-8");
+
+        for (boolean spack : new boolean[] { false, true })
+        {
+            byte[] fb = TerseCompresserTest.compress(binary, spack, false, 1000, false);
+            byte[] vb = TerseCompresserTest.compress(rdws.toByteArray(), spack, true, 1000, false);
+            byte[] textVb = TerseCompresserTest.compress(text, spack, true, 255, true);
+            byte[] textFb = TerseCompresserTest.compress(text, spack, false, 80, true);
+            for (boolean textMode : new boolean[] { false, true })
+            {
+                for (byte[] tersed : Arrays.asList(fb, vb, textVb, textFb))
+                {
+                    assertMatchesDecode(tersed, textMode, CodePage.DEFAULT);
+                    assertMatchesDecode(tersed, textMode, utf8);
+                }
+            }
+        }
+    }
+
+    public void testChecksum() throws Exception
+    {
+        byte[] data = new byte[100000];
+        new Random(2).nextBytes(data);
+        byte[] tersed = TerseCompresserTest.compress(data, true, false, 1000, false);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        TerseVerifier.Result result = TerseVerifier.Verify(new ByteArrayInputStream(tersed), true, CodePage.DEFAULT, true);
+        assertEquals(Long.valueOf(crc.getValue()), result.Checksum);
+        assertEquals(100, result.Records);
+    }
+
+    public void testFiles() throws Exception
+    {
+        Path directory = Files.createTempDirectory("verify");
+        try
+        {
+            byte[] tersed = TerseCompresserTest.compress("LINE\n".getBytes(StandardCharsets.US_ASCII), true, true, 255, true);
+            Path good = Files.write(directory.resolve("good.trs"), tersed);
+            Path bad = Files.write(directory.resolve("bad.trs"), new byte[] { 1, 2, 3 });
+            List<TerseVerifier.Result> results = TerseVerifier.Verify(Arrays.asList(good, bad), true, CodePage.DEFAULT, false, 2);
+            assertEquals(good, results.get(0).File);
+            assertTrue(results.get(0).Valid);
+            assertEquals(1, results.get(0).Records);
+            assertEquals(bad, results.get(1).File);
+            assertFalse(results.get(1).Valid);
+            assertNotNull(results.get(1).Error);
+        }
+        finally
+        {
+            for (Path file : Files.newDirectoryStream(directory))
+            {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+}